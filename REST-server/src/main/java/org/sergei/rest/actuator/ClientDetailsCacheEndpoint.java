@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.actuator;
+
+import org.sergei.rest.security.CachingClientDetailsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Eviction of cached OAuth clients, so a client changed in the database takes effect immediately:
+ * {@code DELETE /actuator/clientdetailscache/{clientId}} for one client,
+ * {@code DELETE /actuator/clientdetailscache} for all of them.
+ *
+ * @author Sergei Visotsky
+ */
+@Component
+@Endpoint(id = "clientdetailscache")
+public class ClientDetailsCacheEndpoint {
+
+    private final CachingClientDetailsService clientDetailsService;
+
+    @Autowired
+    public ClientDetailsCacheEndpoint(CachingClientDetailsService clientDetailsService) {
+        this.clientDetailsService = clientDetailsService;
+    }
+
+    @DeleteOperation
+    public Map<String, Object> evictAll() {
+        return Collections.singletonMap("evicted", clientDetailsService.evictAll());
+    }
+
+    @DeleteOperation
+    public Map<String, Object> evict(@Selector String clientId) {
+        return Collections.singletonMap("evicted", clientDetailsService.evict(clientId));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.actuator;
+
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.sergei.rest.service.storage.FileSystemPhotoStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One-shot online migration of the photo storage into the sharded layout.
+ * {@code POST /actuator/photostorage} starts migration in background,
+ * {@code GET /actuator/photostorage} reports its progress.
+ * Migration runs on the scheduling pool next to the other storage maintenance such as the sweep.
+ *
+ * @author Sergei Visotsky
+ */
+@Component
+@Endpoint(id = "photostorage")
+public class PhotoStorageMigrationEndpoint {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PhotoStorageMigrationEndpoint.class);
+
+    private final FileSystemPhotoStorage photoStorage;
+    private final ThreadPoolTaskScheduler taskScheduler;
+    private final LongTaskTimer migrationTimer;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong movedFiles = new AtomicLong();
+    private final AtomicLong failedFiles = new AtomicLong();
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+
+    @Autowired
+    public PhotoStorageMigrationEndpoint(FileSystemPhotoStorage photoStorage, ThreadPoolTaskScheduler taskScheduler,
+                                         MeterRegistry meterRegistry) {
+        this.photoStorage = photoStorage;
+        this.taskScheduler = taskScheduler;
+        this.migrationTimer = LongTaskTimer.builder("rest.photo.storage.migration")
+                .description("Running migration of the photo storage into the sharded layout")
+                .register(meterRegistry);
+    }
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running.get());
+        status.put("movedFiles", movedFiles.get());
+        status.put("failedFiles", failedFiles.get());
+        status.put("startedAt", startedAt);
+        status.put("finishedAt", finishedAt);
+        return status;
+    }
+
+    /**
+     * Start migration unless it is already running
+     *
+     * @return migration status
+     */
+    @WriteOperation
+    public Map<String, Object> migrate() {
+        if (running.compareAndSet(false, true)) {
+            movedFiles.set(0);
+            failedFiles.set(0);
+            startedAt = Instant.now();
+            finishedAt = null;
+
+            try {
+                taskScheduler.execute(() -> migrationTimer.record(this::runMigration));
+            } catch (TaskRejectedException e) {
+                // Application is shutting down
+                LOGGER.warn("Photo storage migration rejected", e);
+                finishedAt = Instant.now();
+                running.set(false);
+            }
+        }
+        return status();
+    }
+
+    private void runMigration() {
+        try {
+            photoStorage.migrate(new FileSystemPhotoStorage.MigrationListener() {
+                @Override
+                public void moved(Path file) {
+                    movedFiles.incrementAndGet();
+                }
+
+                @Override
+                public void failed(Path file, Exception e) {
+                    failedFiles.incrementAndGet();
+                }
+            });
+            LOGGER.info("Photo storage migration finished, {} files moved, {} failed",
+                    movedFiles.get(), failedFiles.get());
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Photo storage migration failed", e);
+        } finally {
+            finishedAt = Instant.now();
+            running.set(false);
+        }
+    }
+}
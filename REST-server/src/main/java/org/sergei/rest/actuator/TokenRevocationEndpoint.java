@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.actuator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.security.oauth2.provider.token.ConsumerTokenServices;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Revocation of issued tokens, {@code POST /actuator/tokenrevocation} with the token value.
+ * Opaque tokens are deleted from the token store, signed tokens are put on the revocation list
+ * of this instance until they expire.
+ *
+ * @author Sergei Visotsky
+ */
+@Component
+@Endpoint(id = "tokenrevocation")
+public class TokenRevocationEndpoint {
+
+    private final ConsumerTokenServices consumerTokenServices;
+
+    @Autowired
+    public TokenRevocationEndpoint(ConsumerTokenServices consumerTokenServices) {
+        this.consumerTokenServices = consumerTokenServices;
+    }
+
+    /**
+     * Revoke access token together with its refresh token
+     *
+     * @param token access token value
+     * @return whether the token was found and revoked
+     */
+    @WriteOperation
+    public Map<String, Object> revoke(String token) {
+        return Collections.singletonMap("revoked", consumerTokenServices.revokeToken(token));
+    }
+}
@@ -16,22 +16,44 @@
 
 package org.sergei.rest.aop;
 
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.util.StopWatch;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Records execution time of the service methods into Micrometer timers
+ * tagged by class and method, published with a percentile histogram
+ * so quantiles can be aggregated across instances.
+ * Failed invocations are additionally counted per exception type.
+ *
  * @author Sergei Visotsky
  */
 @Aspect
 public class PerformanceAspect {
 
-    private static final String LOG_MESSAGE_FORMAT = "%s.%s execution time: %d ms";
-    private static final Logger LOGGER = LoggerFactory.getLogger(LoggingAspect.class);
+    static final String TIMER_NAME = "rest.service.method";
+    static final String ERROR_COUNTER_NAME = "rest.service.method.errors";
+
+    private final MeterRegistry meterRegistry;
+    private final Clock clock;
+
+    /**
+     * Timers are resolved once per class/method pair, so the hot path is two map lookups
+     */
+    private final ConcurrentMap<Class<?>, ConcurrentMap<String, Timer>> timers = new ConcurrentHashMap<>();
+
+    public PerformanceAspect(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.clock = meterRegistry.config().clock();
+    }
 
     /**
      * Pointcut that matches all Service annotations
@@ -53,29 +75,38 @@ public class PerformanceAspect {
      * Pointcut that measures method time execution
      *
      * @param joinPoint join point for advice
-     * @return result time elapsed
-     * @throws Throwable throws IllegalArgumentException
+     * @return result of the advised method
+     * @throws Throwable rethrows whatever the advised method throws
      */
-    @Around("applicationPackagePointcut() && springBeanPointCut() && applicationPackagePointcut()")
+    @Around("applicationPackagePointcut() && springBeanPointCut()")
     public Object measureTime(ProceedingJoinPoint joinPoint) throws Throwable {
-        StopWatch stopWatch = new StopWatch();
-        stopWatch.start();
-        Object retVal = joinPoint.proceed();
-        stopWatch.stop();
-        logExecutionTime(joinPoint, stopWatch);
-        return retVal;
+        long start = clock.monotonicTime();
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable e) {
+            countError(joinPoint, e);
+            throw e;
+        } finally {
+            timer(joinPoint).record(clock.monotonicTime() - start, TimeUnit.NANOSECONDS);
+        }
     }
 
-    /**
-     * Logging execution time - output into the console
-     *
-     * @param joinPoint join point for advice
-     * @param stopWatch Time estimation class
-     */
-    private void logExecutionTime(ProceedingJoinPoint joinPoint, StopWatch stopWatch) {
-        String logMessage = String.format(LOG_MESSAGE_FORMAT,
-                joinPoint.getTarget().getClass().getName(),
-                joinPoint.getSignature().getName(), stopWatch.getTotalTimeMillis());
-        LOGGER.info(logMessage);
+    private Timer timer(ProceedingJoinPoint joinPoint) {
+        Class<?> targetClass = joinPoint.getTarget().getClass();
+        String methodName = joinPoint.getSignature().getName();
+        return timers.computeIfAbsent(targetClass, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(methodName, key -> Timer.builder(TIMER_NAME)
+                        .description("Execution time of the service methods")
+                        .tag("class", targetClass.getSimpleName())
+                        .tag("method", methodName)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry));
+    }
+
+    private void countError(ProceedingJoinPoint joinPoint, Throwable e) {
+        meterRegistry.counter(ERROR_COUNTER_NAME,
+                "class", joinPoint.getTarget().getClass().getSimpleName(),
+                "method", joinPoint.getSignature().getName(),
+                "exception", e.getClass().getSimpleName()).increment();
     }
 }
@@ -16,13 +16,22 @@
 
 package org.sergei.rest.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.modelmapper.ModelMapper;
 import org.sergei.rest.aop.LoggingAspect;
 import org.sergei.rest.aop.PerformanceAspect;
+import org.sergei.rest.controller.StreamingMultipart;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.web.method.HandlerMethod;
 import org.springframework.web.multipart.commons.CommonsMultipartResolver;
+import org.springframework.web.servlet.HandlerExecutionChain;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
 
 /**
  * @author Sergei Visotsky
@@ -32,8 +41,8 @@ import org.springframework.web.multipart.commons.CommonsMultipartResolver;
 public class AppConfig {
 
     @Bean
-    public PerformanceAspect performanceAspect() {
-        return new PerformanceAspect();
+    public PerformanceAspect performanceAspect(MeterRegistry meterRegistry) {
+        return new PerformanceAspect(meterRegistry);
     }
 
     @Bean
@@ -47,9 +56,29 @@ public class AppConfig {
     }
 
     @Bean
-    public CommonsMultipartResolver multipartResolver() {
-        CommonsMultipartResolver multipartResolver = new CommonsMultipartResolver();
+    public CommonsMultipartResolver multipartResolver(@Qualifier("requestMappingHandlerMapping")
+                                                              ObjectProvider<RequestMappingHandlerMapping> handlerMapping) {
+        CommonsMultipartResolver multipartResolver = new CommonsMultipartResolver() {
+            @Override
+            public boolean isMultipart(HttpServletRequest request) {
+                // Streaming upload parses request body itself, it must not be consumed in advance
+                return super.isMultipart(request) && !isStreamingMultipart(handlerMapping.getObject(), request);
+            }
+        };
         multipartResolver.setMaxUploadSize(10000000);
         return multipartResolver;
     }
-}
\ No newline at end of file
+
+    private static boolean isStreamingMultipart(RequestMappingHandlerMapping handlerMapping,
+                                                HttpServletRequest request) {
+        // Multipart is resolved before the handler is, so look up the handler of the request in advance
+        HandlerExecutionChain chain;
+        try {
+            chain = handlerMapping.getHandler(request);
+        } catch (Exception e) {
+            return false;
+        }
+        return chain != null && chain.getHandler() instanceof HandlerMethod
+                && ((HandlerMethod) chain.getHandler()).hasMethodAnnotation(StreamingMultipart.class);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sergei.rest.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Bounded executors and scheduling of background workloads
+ *
+ * @author Sergei Visotsky
+ */
+@Configuration
+@EnableScheduling
+public class ExecutorConfig implements WebMvcConfigurer {
+
+    @Value("${rest.photo.thumbnail.pool-size:2}")
+    private int thumbnailPoolSize;
+
+    @Value("${rest.photo.thumbnail.queue-capacity:100}")
+    private int thumbnailQueueCapacity;
+
+    @Value("${rest.photo.io.pool-size:4}")
+    private int photoIoPoolSize;
+
+    @Value("${rest.photo.io.queue-capacity:16}")
+    private int photoIoQueueCapacity;
+
+    @Value("${rest.mvc.async.pool-size:8}")
+    private int mvcAsyncPoolSize;
+
+    @Value("${rest.mvc.async.queue-capacity:32}")
+    private int mvcAsyncQueueCapacity;
+
+    @Value("${rest.mvc.workload.report.pool-size:2}")
+    private int reportPoolSize;
+
+    @Value("${rest.mvc.workload.report.queue-capacity:10}")
+    private int reportQueueCapacity;
+
+    @Value("${rest.mvc.workload.query.pool-size:10}")
+    private int queryPoolSize;
+
+    @Value("${rest.mvc.workload.query.queue-capacity:100}")
+    private int queryQueueCapacity;
+
+    /**
+     * Executor generating photo thumbnails, tasks are rejected once the queue is full
+     */
+    @Bean
+    public ThreadPoolTaskExecutor thumbnailExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(thumbnailPoolSize);
+        executor.setMaxPoolSize(thumbnailPoolSize);
+        executor.setQueueCapacity(thumbnailQueueCapacity);
+        executor.setThreadNamePrefix("thumbnail-");
+        return executor;
+    }
+
+    /**
+     * Executor writing uploaded photo files, once the queue is full the submitting thread
+     * writes the file itself which throttles uploads instead of failing them
+     */
+    @Bean
+    public ThreadPoolTaskExecutor photoIoExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(photoIoPoolSize);
+        executor.setMaxPoolSize(photoIoPoolSize);
+        executor.setQueueCapacity(photoIoQueueCapacity);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("photo-io-");
+        return executor;
+    }
+
+    /**
+     * Executor running asynchronous request handling such as streamed responses.
+     * Its tasks are interrupted once the request times out.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor mvcAsyncExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(mvcAsyncPoolSize);
+        executor.setMaxPoolSize(mvcAsyncPoolSize);
+        executor.setQueueCapacity(mvcAsyncQueueCapacity);
+        executor.setThreadNamePrefix("mvc-async-");
+        return executor;
+    }
+
+    /**
+     * Executor running slow report queries, so they cannot occupy more than a few connections and threads.
+     * Requests are rejected once the queue is full.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor reportExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(reportPoolSize);
+        executor.setMaxPoolSize(reportPoolSize);
+        executor.setQueueCapacity(reportQueueCapacity);
+        executor.setThreadNamePrefix("report-");
+        return executor;
+    }
+
+    /**
+     * Executor running database queries of asynchronously handled requests.
+     * Requests are rejected once the queue is full.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor queryExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(queryPoolSize);
+        executor.setMaxPoolSize(queryPoolSize);
+        executor.setQueueCapacity(queryQueueCapacity);
+        executor.setThreadNamePrefix("query-");
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(mvcAsyncExecutor());
+    }
+}
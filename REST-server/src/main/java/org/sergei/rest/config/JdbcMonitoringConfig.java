@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sergei.rest.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.sergei.rest.jdbc.QueryCountingDataSource;
+import org.sergei.rest.jdbc.QueryCountingFilter;
+import org.sergei.rest.jdbc.QueryHandlerInterceptor;
+import org.sergei.rest.jdbc.SlowQueryLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.DispatcherType;
+import javax.sql.DataSource;
+import java.util.Locale;
+
+/**
+ * Per request SQL statement tracking and slow query log
+ *
+ * @author Sergei Visotsky
+ */
+@Configuration
+public class JdbcMonitoringConfig implements WebMvcConfigurer {
+
+    @Value("${rest.sql.repeated-statement-threshold:10}")
+    private int repeatedStatementThreshold;
+
+    /**
+     * Wrap application data source so each executed statement is reported
+     */
+    @Bean
+    public static BeanPostProcessor queryCountingDataSourcePostProcessor(
+            @Value("${rest.sql.slow-query.enabled:true}") boolean slowQueryLogEnabled,
+            @Value("${rest.sql.slow-query.threshold-ms:200}") long slowQueryThresholdMillis,
+            @Value("${rest.sql.slow-query.sample-rate:0.0}") double slowQuerySampleRate,
+            @Value("${rest.sql.slow-query.parameters:none}") String slowQueryParameters) {
+        SlowQueryLog slowQueryLog = slowQueryLogEnabled
+                ? new SlowQueryLog(slowQueryThresholdMillis, slowQuerySampleRate,
+                SlowQueryLog.Parameters.valueOf(slowQueryParameters.trim().toUpperCase(Locale.ROOT)))
+                : null;
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource && !(bean instanceof QueryCountingDataSource)) {
+                    return new QueryCountingDataSource((DataSource) bean, slowQueryLog);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    public FilterRegistrationBean<QueryCountingFilter> queryCountingFilter(MeterRegistry meterRegistry) {
+        FilterRegistrationBean<QueryCountingFilter> registrationBean =
+                new FilterRegistrationBean<>(new QueryCountingFilter(meterRegistry, repeatedStatementThreshold));
+        registrationBean.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        registrationBean.setDispatcherTypes(DispatcherType.REQUEST, DispatcherType.ASYNC);
+        return registrationBean;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new QueryHandlerInterceptor());
+    }
+}
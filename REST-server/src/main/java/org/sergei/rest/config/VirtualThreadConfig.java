@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.config;
+
+import org.apache.coyote.AbstractProtocol;
+import org.sergei.rest.util.VirtualThreadUtil;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs request handling and service executors on virtual threads, requires Java 21.
+ * Blocking database and file I/O then parks a cheap virtual thread instead of holding a platform thread,
+ * so concurrency is bounded by the connection pool and the configured executor bounds rather than
+ * by the size of the Tomcat thread pool. Enabled by the {@code virtual-threads} profile.
+ *
+ * @author Sergei Visotsky
+ */
+@Configuration
+@Profile("virtual-threads")
+public class VirtualThreadConfig {
+
+    /**
+     * Executor starting a new virtual thread for every request accepted by Tomcat
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService requestExecutor() {
+        return VirtualThreadUtil.newThreadPerTaskExecutor("http-virtual-");
+    }
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadTomcatCustomizer() {
+        return factory -> factory.addConnectorCustomizers(connector ->
+                ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(requestExecutor()));
+    }
+
+    /**
+     * Service executors keep their pool and queue bounds, which limit the load they put on the database,
+     * but run their tasks on virtual threads
+     */
+    @Bean
+    public static BeanPostProcessor virtualThreadExecutorPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof ThreadPoolTaskExecutor) {
+                    ThreadPoolTaskExecutor executor = (ThreadPoolTaskExecutor) bean;
+                    executor.setThreadFactory(VirtualThreadUtil.threadFactory(executor.getThreadNamePrefix()));
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -16,6 +16,8 @@
 
 package org.sergei.rest.config.security;
 
+import org.sergei.rest.security.CachingClientDetailsService;
+import org.sergei.rest.security.RevocableJwtTokenStore;
 import org.sergei.rest.service.ApiUserDetailsService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -30,8 +32,6 @@ import org.springframework.security.oauth2.config.annotation.web.configurers.Aut
 import org.springframework.security.oauth2.provider.approval.UserApprovalHandler;
 import org.springframework.security.oauth2.provider.token.TokenStore;
 
-import javax.sql.DataSource;
-
 /**
  * @author Sergei Visotsky
  */
@@ -39,7 +39,7 @@ import javax.sql.DataSource;
 @EnableAuthorizationServer
 public class AuthorizationServerConfig extends AuthorizationServerConfigurerAdapter {
 
-    private final DataSource dataSource;
+    private final CachingClientDetailsService clientDetailsService;
     private final AuthenticationManager authenticationManager;
     private final UserApprovalHandler userApprovalHandler;
     private final TokenStore tokenStore;
@@ -47,14 +47,14 @@ public class AuthorizationServerConfig extends AuthorizationServerConfigurerAdap
     private final BCryptPasswordEncoder passwordEncoder;
 
     @Autowired
-    public AuthorizationServerConfig(DataSource dataSource,
+    public AuthorizationServerConfig(CachingClientDetailsService clientDetailsService,
                                      UserApprovalHandler userApprovalHandler,
                                      @Qualifier("authenticationManagerBean")
                                              AuthenticationManager authenticationManager,
                                      TokenStore tokenStore,
                                      ApiUserDetailsService apiUserDetailsService,
                                      BCryptPasswordEncoder passwordEncoder) {
-        this.dataSource = dataSource;
+        this.clientDetailsService = clientDetailsService;
         this.authenticationManager = authenticationManager;
         this.userApprovalHandler = userApprovalHandler;
         this.tokenStore = tokenStore;
@@ -62,10 +62,10 @@ public class AuthorizationServerConfig extends AuthorizationServerConfigurerAdap
         this.passwordEncoder = passwordEncoder;
     }
 
-    // All the clients are stored into the database
+    // All the clients are stored into the database and read through a cache
     @Override
     public void configure(ClientDetailsServiceConfigurer clients) throws Exception {
-        clients.jdbc(dataSource).passwordEncoder(passwordEncoder);
+        clients.withClientDetails(clientDetailsService);
     }
 
     @Override
@@ -75,6 +75,10 @@ public class AuthorizationServerConfig extends AuthorizationServerConfigurerAdap
                 .userApprovalHandler(userApprovalHandler)
                 .authenticationManager(authenticationManager)
                 .userDetailsService(apiUserDetailsService);
+        if (tokenStore instanceof RevocableJwtTokenStore) {
+            // Issue self-contained signed tokens instead of opaque ones
+            endpoints.accessTokenConverter(((RevocableJwtTokenStore) tokenStore).getTokenConverter());
+        }
     }
 
     @Override
@@ -20,11 +20,26 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.jdbc.datasource.init.CannotReadScriptException;
+import org.springframework.jdbc.datasource.init.CompositeDatabasePopulator;
 import org.springframework.jdbc.datasource.init.DataSourceInitializer;
 import org.springframework.jdbc.datasource.init.DatabasePopulator;
 import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.jdbc.datasource.init.ScriptStatementFailedException;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.util.FileCopyUtils;
 
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * @author Sergei Visotsky
@@ -32,8 +47,14 @@ import javax.sql.DataSource;
 @Configuration
 public class OAuthSchemaConfig {
 
-    @Value("classpath:sql/oauth_schema.sql")
-    private Resource schemaScript;
+    private final Resource schemaScript;
+    private final Resource upgradeScript;
+
+    public OAuthSchemaConfig(@Value("classpath:sql/oauth_schema.sql") Resource schemaScript,
+                             @Value("classpath:sql/oauth_schema_upgrade.sql") Resource upgradeScript) {
+        this.schemaScript = schemaScript;
+        this.upgradeScript = upgradeScript;
+    }
 
     @Bean
     public DataSourceInitializer dataSourceInitializer(DataSource dataSource) {
@@ -46,6 +67,51 @@ public class OAuthSchemaConfig {
     private DatabasePopulator databasePopulator() {
         ResourceDatabasePopulator populator = new ResourceDatabasePopulator();
         populator.addScript(schemaScript);
-        return populator;
+        return new CompositeDatabasePopulator(populator, new SchemaUpgradePopulator(upgradeScript));
+    }
+
+    /**
+     * Neither MySQL nor H2 offers a common "if not exists" for columns and indexes,
+     * so the upgrade is applied to existing tables skipping statements which fail only because
+     * the column or index is already there. Any other failure stops the startup.
+     */
+    private static final class SchemaUpgradePopulator implements DatabasePopulator {
+
+        // MySQL ER_DUP_FIELDNAME and ER_DUP_KEYNAME, H2 DUPLICATE_COLUMN_NAME_1 and INDEX_ALREADY_EXISTS_1
+        private static final Set<Integer> ALREADY_APPLIED_ERROR_CODES =
+                new HashSet<>(Arrays.asList(1060, 1061, 42121, 42111));
+
+        private final EncodedResource script;
+
+        private SchemaUpgradePopulator(Resource script) {
+            this.script = new EncodedResource(script);
+        }
+
+        @Override
+        public void populate(Connection connection) throws SQLException {
+            List<String> statements = new ArrayList<>();
+            ScriptUtils.splitSqlScript(script, readScript(), ScriptUtils.DEFAULT_STATEMENT_SEPARATOR,
+                    ScriptUtils.DEFAULT_COMMENT_PREFIX, ScriptUtils.DEFAULT_BLOCK_COMMENT_START_DELIMITER,
+                    ScriptUtils.DEFAULT_BLOCK_COMMENT_END_DELIMITER, statements);
+            try (Statement statement = connection.createStatement()) {
+                for (int i = 0; i < statements.size(); i++) {
+                    try {
+                        statement.execute(statements.get(i));
+                    } catch (SQLException e) {
+                        if (!ALREADY_APPLIED_ERROR_CODES.contains(e.getErrorCode())) {
+                            throw new ScriptStatementFailedException(statements.get(i), i + 1, script, e);
+                        }
+                    }
+                }
+            }
+        }
+
+        private String readScript() {
+            try {
+                return FileCopyUtils.copyToString(script.getReader());
+            } catch (IOException e) {
+                throw new CannotReadScriptException(script, e);
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.config.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.sergei.rest.security.RateLimitFilter;
+import org.sergei.rest.security.TokenBucket;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.provider.ClientDetailsService;
+
+/**
+ * Per client and per user rate limiting of the API
+ *
+ * @author Sergei Visotsky
+ */
+@Configuration
+@ConditionalOnProperty(value = "rest.rate-limit.enabled", havingValue = "true", matchIfMissing = true)
+public class RateLimitConfig {
+
+    @Value("${rest.rate-limit.client.capacity:200}")
+    private long clientCapacity;
+
+    @Value("${rest.rate-limit.client.per-second:100}")
+    private long clientPerSecond;
+
+    @Value("${rest.rate-limit.user.capacity:100}")
+    private long userCapacity;
+
+    @Value("${rest.rate-limit.user.per-second:50}")
+    private long userPerSecond;
+
+    @Value("${rest.rate-limit.max-buckets:100000}")
+    private long maxBuckets;
+
+    @Value("${rest.rate-limit.idle-ms:600000}")
+    private long idleMillis;
+
+    /**
+     * Registered right after the security filter chain, so the request is already authenticated
+     */
+    @Bean
+    public FilterRegistrationBean<RateLimitFilter> rateLimitFilter(ClientDetailsService clientDetailsService,
+                                                                   ObjectMapper objectMapper,
+                                                                   MeterRegistry meterRegistry) {
+        RateLimitFilter filter = new RateLimitFilter(clientDetailsService, objectMapper, meterRegistry,
+                new TokenBucket.Limit(clientCapacity, clientPerSecond),
+                new TokenBucket.Limit(userCapacity, userPerSecond),
+                maxBuckets, idleMillis);
+        FilterRegistrationBean<RateLimitFilter> registrationBean = new FilterRegistrationBean<>(filter);
+        registrationBean.addUrlPatterns("/api/*");
+        registrationBean.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER + 1);
+        return registrationBean;
+    }
+}
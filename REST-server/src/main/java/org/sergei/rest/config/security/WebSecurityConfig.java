@@ -16,8 +16,18 @@
 
 package org.sergei.rest.config.security;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.sergei.rest.security.CachingDaoAuthenticationProvider;
+import org.sergei.rest.security.CachingTokenStore;
+import org.sergei.rest.security.CaffeineUserCache;
+import org.sergei.rest.security.ExpiringJdbcTokenStore;
+import org.sergei.rest.security.RevocableJwtTokenStore;
+import org.sergei.rest.security.SigningAccessTokenConverter;
 import org.sergei.rest.service.ApiUserDetailsService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
+import org.springframework.boot.actuate.health.HealthEndpoint;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.Ordered;
@@ -26,6 +36,7 @@ import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.builders.WebSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
@@ -50,23 +61,72 @@ import javax.sql.DataSource;
 @EnableGlobalMethodSecurity(prePostEnabled = true)
 public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
 
+    private static final String SIGNED_TOKEN_MODE = "signed";
+
     private final DataSource dataSource;
     private final ClientDetailsService clientDetailsService;
     private final ApiUserDetailsService apiUserDetailsService;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${rest.oauth.token-mode:opaque}")
+    private String tokenMode;
+
+    @Value("${rest.oauth.token-cache.enabled:true}")
+    private boolean tokenCacheEnabled;
+
+    @Value("${rest.oauth.token-cache.max-size:10000}")
+    private long tokenCacheMaxSize;
+
+    @Value("${rest.oauth.token-cache.ttl-ms:60000}")
+    private long tokenCacheTtlMillis;
+
+    @Value("${rest.oauth.signed.keys:}")
+    private String signingKeys;
+
+    @Value("${rest.oauth.signed.active-key-id:}")
+    private String activeSigningKeyId;
+
+    @Value("${rest.security.user-cache.max-size:1000}")
+    private long userCacheMaxSize;
+
+    @Value("${rest.security.user-cache.ttl-ms:300000}")
+    private long userCacheTtlMillis;
+
+    @Value("${rest.security.credential-cache.max-size:1000}")
+    private long credentialCacheMaxSize;
+
+    @Value("${rest.security.credential-cache.ttl-ms:60000}")
+    private long credentialCacheTtlMillis;
 
     @Autowired
     public WebSecurityConfig(DataSource dataSource,
                              ClientDetailsService clientDetailsService,
-                             ApiUserDetailsService apiUserDetailsService) {
+                             ApiUserDetailsService apiUserDetailsService,
+                             MeterRegistry meterRegistry) {
         this.dataSource = dataSource;
         this.clientDetailsService = clientDetailsService;
         this.apiUserDetailsService = apiUserDetailsService;
+        this.meterRegistry = meterRegistry;
     }
 
     // All users are stored into the database
     @Override
-    protected void configure(AuthenticationManagerBuilder auth) throws Exception {
-        auth.userDetailsService(apiUserDetailsService).passwordEncoder(encoder());
+    protected void configure(AuthenticationManagerBuilder auth) {
+        auth.authenticationProvider(authenticationProvider());
+    }
+
+    /**
+     * Users are authenticated against the database, recently loaded users are not queried
+     * and recently verified credentials are not hashed again
+     */
+    @Bean
+    public CachingDaoAuthenticationProvider authenticationProvider() {
+        CachingDaoAuthenticationProvider provider = new CachingDaoAuthenticationProvider(meterRegistry,
+                credentialCacheMaxSize, credentialCacheTtlMillis);
+        provider.setUserDetailsService(apiUserDetailsService);
+        provider.setUserCache(new CaffeineUserCache(meterRegistry, userCacheMaxSize, userCacheTtlMillis));
+        provider.setPasswordEncoder(encoder());
+        return provider;
     }
 
     @Bean
@@ -75,9 +135,20 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
         return super.authenticationManagerBean();
     }
 
+    /**
+     * Opaque tokens are persisted and read through a local cache, so validating a request token
+     * does not hit the database. Signed tokens are self-contained and verified locally.
+     */
     @Bean
-    public JdbcTokenStore tokenStore() {
-        return new JdbcTokenStore(dataSource);
+    public TokenStore tokenStore() {
+        if (SIGNED_TOKEN_MODE.equals(tokenMode)) {
+            return new RevocableJwtTokenStore(new SigningAccessTokenConverter(signingKeys, activeSigningKeyId));
+        }
+        JdbcTokenStore jdbcTokenStore = new ExpiringJdbcTokenStore(dataSource);
+        if (!tokenCacheEnabled) {
+            return jdbcTokenStore;
+        }
+        return new CachingTokenStore(jdbcTokenStore, meterRegistry, tokenCacheMaxSize, tokenCacheTtlMillis);
     }
 
     @Bean
@@ -123,6 +194,14 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
                 .realmName("API_REALM");
     }
 
+    /**
+     * Health is checked by load balancers without credentials
+     */
+    @Override
+    public void configure(WebSecurity web) {
+        web.ignoring().requestMatchers(EndpointRequest.to(HealthEndpoint.class));
+    }
+
     @Bean
     public CorsFilter corsFilter() {
         UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
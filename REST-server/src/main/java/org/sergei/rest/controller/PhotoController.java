@@ -17,13 +17,21 @@
 package org.sergei.rest.controller;
 
 import io.swagger.annotations.*;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadBase;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
 import org.sergei.rest.dto.PhotoDTO;
+import org.sergei.rest.dto.PhotoUploadResultDTO;
+import org.sergei.rest.exceptions.BadRequestException;
+import org.sergei.rest.exceptions.PayloadTooLargeException;
 import org.sergei.rest.service.PhotoService;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.sergei.rest.service.ThumbnailService;
+import org.sergei.rest.service.storage.PhotoFile;
+import org.sergei.rest.util.FileDownloadUtil;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
-import org.springframework.http.HttpHeaders;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -32,10 +40,11 @@ import org.springframework.web.multipart.commons.CommonsMultipartFile;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * @author Sergei Visotsky
@@ -49,13 +58,16 @@ import java.util.stream.Collectors;
 @RequestMapping(value = "/api", produces = "application/json")
 public class PhotoController {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(PhotoController.class);
-
     private final PhotoService photoService;
+    private final ThumbnailService thumbnailService;
+
+    @Value("${rest.photo.max-request-size:50000000}")
+    private long maxRequestSize;
 
     @Autowired
-    public PhotoController(PhotoService photoService) {
+    public PhotoController(PhotoService photoService, ThumbnailService thumbnailService) {
         this.photoService = photoService;
+        this.thumbnailService = thumbnailService;
     }
 
     @ApiOperation("Get all photos fot the customer")
@@ -88,10 +100,7 @@ public class PhotoController {
                                 @PathVariable("customerId") Long customerId,
                                 @ApiParam(value = "Uploaded file", required = true)
                                 @RequestParam("file") CommonsMultipartFile commonsMultipartFile) {
-        String fileDownloadUri = ServletUriComponentsBuilder
-                .fromCurrentContextPath()
-                .path("/api/v1/customers/" + customerId.toString() + "/photo/" + commonsMultipartFile.getOriginalFilename())
-                .toUriString();
+        String fileDownloadUri = fileDownloadUri(customerId, commonsMultipartFile.getOriginalFilename());
 
         return photoService.uploadFileByCustomerId(customerId, fileDownloadUri, commonsMultipartFile);
     }
@@ -99,6 +108,8 @@ public class PhotoController {
     @ApiOperation("Upload multiple photo for the customer")
     @ApiResponses(
             value = {
+                    @ApiResponse(code = 201, message = "All photos uploaded"),
+                    @ApiResponse(code = 207, message = "Some photos failed, see status of each photo"),
                     @ApiResponse(code = 404, message = "Invalid customer ID")
             }
     )
@@ -106,20 +117,72 @@ public class PhotoController {
             "/v1/customers/{customerId}/photos",
             "/v2/customers/{customerId}/photos"
     })
+    public ResponseEntity<List<PhotoUploadResultDTO>> uploadMultiplePhotos(@ApiParam(value = "Customer ID who uploads photos", required = true)
+                                                                           @PathVariable("customerId") Long customerId,
+                                                                           @ApiParam(value = "Uploaded files", required = true)
+                                                                           @RequestParam("files") CommonsMultipartFile[] files) {
+        List<PhotoUploadResultDTO> results = photoService.uploadFilesByCustomerId(customerId,
+                fileName -> fileDownloadUri(customerId, fileName), files);
+
+        boolean allCreated = results.stream()
+                .allMatch(result -> result.getStatus() == HttpStatus.CREATED.value());
+        return new ResponseEntity<>(results, allCreated ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS);
+    }
+
+    @ApiOperation("Upload photos for the customer streaming them directly into the storage")
+    @ApiResponses(
+            value = {
+                    @ApiResponse(code = 400, message = "Malformed multipart request"),
+                    @ApiResponse(code = 404, message = "Invalid customer ID"),
+                    @ApiResponse(code = 413, message = "Uploaded file is too large")
+            }
+    )
+    @PostMapping(value = {
+            "/v1/customers/{customerId}/photos/stream",
+            "/v2/customers/{customerId}/photos/stream"},
+            consumes = MediaType.MULTIPART_FORM_DATA_VALUE
+    )
+    @StreamingMultipart
     @ResponseStatus(HttpStatus.CREATED)
-    public List<PhotoDTO> uploadMultiplePhotos(@ApiParam(value = "Customer ID who uploads photos", required = true)
-                                               @PathVariable("customerId") Long customerId,
-                                               @ApiParam(value = "Uploaded files", required = true)
-                                               @RequestParam("files") CommonsMultipartFile[] files) {
-        return Arrays.stream(files)
-                .map(file -> uploadPhoto(customerId, file))
-                .collect(Collectors.toList());
+    public List<PhotoDTO> uploadPhotosStreaming(@ApiParam(value = "Customer ID who uploads photos", required = true)
+                                                @PathVariable("customerId") Long customerId,
+                                                HttpServletRequest request) throws IOException {
+        if (!ServletFileUpload.isMultipartContent(request)) {
+            throw new BadRequestException("Multipart request expected");
+        }
+
+        // Request body is parsed part by part as it arrives, nothing is buffered in memory or temp files
+        ServletFileUpload fileUpload = new ServletFileUpload();
+        fileUpload.setSizeMax(maxRequestSize);
+
+        List<PhotoDTO> photos = new ArrayList<>();
+        try {
+            FileItemIterator iterator = fileUpload.getItemIterator(request);
+            while (iterator.hasNext()) {
+                FileItemStream item = iterator.next();
+                if (item.isFormField()) {
+                    continue;
+                }
+                try (InputStream inputStream = item.openStream()) {
+                    photos.add(photoService.uploadFile(customerId, fileDownloadUri(customerId, item.getName()),
+                            item.getName(), item.getContentType(), inputStream));
+                }
+            }
+        } catch (FileUploadBase.SizeLimitExceededException e) {
+            throw new PayloadTooLargeException(e.getMessage(), e);
+        } catch (FileUploadException e) {
+            throw new BadRequestException("Malformed multipart request", e);
+        }
+        return photos;
     }
 
     @ApiOperation("Download photo for the customer by photo name")
     @ApiResponses(
             value = {
-                    @ApiResponse(code = 404, message = "Invalid customer ID or file name")
+                    @ApiResponse(code = 206, message = "Requested range of the photo"),
+                    @ApiResponse(code = 400, message = "Unsupported thumbnail size"),
+                    @ApiResponse(code = 404, message = "Invalid customer ID or file name"),
+                    @ApiResponse(code = 416, message = "Requested range not satisfiable")
             }
     )
     @GetMapping(value = {
@@ -127,35 +190,25 @@ public class PhotoController {
             "/v2/customers/{customerId}/photo/{fileName:.+}"},
             produces = {"image/jpeg", "image/png"}
     )
-    public ResponseEntity<Resource> downloadPhotoByName(@ApiParam(value = "Customer ID whose photos should be downloaded", required = true)
-                                                        @PathVariable("customerId") Long customerId,
-                                                        @ApiParam(value = "File name which should be downloaded", required = true)
-                                                        @PathVariable("fileName") String fileName,
-                                                        HttpServletRequest request) throws IOException {
-        Resource resource = photoService.downloadFileAsResourceByName(customerId, fileName);
-
-        String contentType = null;
-        try {
-            contentType = request.getSession().getServletContext().getMimeType(resource.getFile().getAbsolutePath());
-        } catch (IOException ex) {
-            LOGGER.info("Could not determine file type");
-        }
-
-        // Fallback to the default content type if type could not be determined
-        if (contentType == null) {
-            contentType = "application/octet-stream";
-        }
-
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(contentType))
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + resource.getFilename() + "\"")
-                .body(resource);
+    public void downloadPhotoByName(@ApiParam(value = "Customer ID whose photos should be downloaded", required = true)
+                                    @PathVariable("customerId") Long customerId,
+                                    @ApiParam(value = "File name which should be downloaded", required = true)
+                                    @PathVariable("fileName") String fileName,
+                                    @ApiParam("Maximum width and height of the thumbnail to download instead of the original")
+                                    @RequestParam(value = "size", required = false) Integer size,
+                                    HttpServletRequest request,
+                                    HttpServletResponse response) throws IOException {
+        PhotoFile photoFile = photoService.findPhotoFileByName(customerId, fileName);
+        sendPhoto(photoFile, size, request, response);
     }
 
     @ApiOperation("Download photo by customer number and photo ID")
     @ApiResponses(
             value = {
-                    @ApiResponse(code = 404, message = "Invalid customer or photo ID")
+                    @ApiResponse(code = 206, message = "Requested range of the photo"),
+                    @ApiResponse(code = 400, message = "Unsupported thumbnail size"),
+                    @ApiResponse(code = 404, message = "Invalid customer or photo ID"),
+                    @ApiResponse(code = 416, message = "Requested range not satisfiable")
             }
     )
     @GetMapping(value = {
@@ -163,29 +216,16 @@ public class PhotoController {
             "/v2/customers/{customerId}/photos/{photoId}"},
             produces = {"image/jpeg", "image/png"}
     )
-    public ResponseEntity<Resource> downloadPhotoById(@ApiParam(value = "Customer ID whose photos should be downloaded", required = true)
-                                                      @PathVariable("customerId") Long customerId,
-                                                      @ApiParam(value = "Photo ID which should be downloaded", required = true)
-                                                      @PathVariable("photoId") Long photoId,
-                                                      HttpServletRequest request) throws IOException {
-        Resource resource = photoService.downloadFileAsResourceByFileId(customerId, photoId);
-
-        String contentType = null;
-        try {
-            contentType = request.getSession().getServletContext().getMimeType(resource.getFile().getAbsolutePath());
-        } catch (IOException ex) {
-            LOGGER.info("Could not determine file type");
-        }
-
-        // Fallback to the default content type if type could not be determined
-        if (contentType == null) {
-            contentType = "application/octet-stream";
-        }
-
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(contentType))
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + resource.getFilename() + "\"")
-                .body(resource);
+    public void downloadPhotoById(@ApiParam(value = "Customer ID whose photos should be downloaded", required = true)
+                                  @PathVariable("customerId") Long customerId,
+                                  @ApiParam(value = "Photo ID which should be downloaded", required = true)
+                                  @PathVariable("photoId") Long photoId,
+                                  @ApiParam("Maximum width and height of the thumbnail to download instead of the original")
+                                  @RequestParam(value = "size", required = false) Integer size,
+                                  HttpServletRequest request,
+                                  HttpServletResponse response) throws IOException {
+        PhotoFile photoFile = photoService.findPhotoFileById(customerId, photoId);
+        sendPhoto(photoFile, size, request, response);
     }
 
     @ApiOperation("Delete photo by customer number and photo ID")
@@ -205,4 +245,24 @@ public class PhotoController {
 
         return new ResponseEntity<>(photoService.delete(customerId, photoId), HttpStatus.NO_CONTENT);
     }
-}
\ No newline at end of file
+
+    private void sendPhoto(PhotoFile photoFile, Integer size, HttpServletRequest request,
+                           HttpServletResponse response) throws IOException {
+        if (size != null) {
+            photoFile = thumbnailService.findThumbnail(photoFile, size);
+        }
+        // Content type is resolved on upload and stored with the photo metadata
+        MediaType contentType = FileDownloadUtil.mediaTypeOf(photoFile.getFileType(), photoFile.getFileName());
+
+        // Content addressed photos are identified by their checksum which makes the strongest validator
+        String eTag = photoFile.getChecksum() != null ? "\"" + photoFile.getChecksum() + "\"" : null;
+        FileDownloadUtil.writeFile(photoFile.getContent(), contentType, photoFile.getFileName(), eTag, request, response);
+    }
+
+    static String fileDownloadUri(Long customerId, String fileName) {
+        return ServletUriComponentsBuilder
+                .fromCurrentContextPath()
+                .path("/api/v1/customers/" + customerId.toString() + "/photo/" + fileName)
+                .toUriString();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sergei.rest.controller;
+
+import io.swagger.annotations.*;
+import org.sergei.rest.dto.PhotoDTO;
+import org.sergei.rest.dto.UploadSessionDTO;
+import org.sergei.rest.service.ChunkedUploadService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+/**
+ * Resumable chunked photo uploads
+ *
+ * @author Sergei Visotsky
+ */
+@Api(
+        value = "/api/v1/customers/{customerId}/photos/uploads",
+        produces = "application/json",
+        consumes = "application/json"
+)
+@RestController
+@RequestMapping(value = "/api", produces = "application/json")
+public class PhotoUploadSessionController {
+
+    private final ChunkedUploadService chunkedUploadService;
+
+    @Autowired
+    public PhotoUploadSessionController(ChunkedUploadService chunkedUploadService) {
+        this.chunkedUploadService = chunkedUploadService;
+    }
+
+    @ApiOperation("Start resumable upload of a photo")
+    @ApiResponses(
+            value = {
+                    @ApiResponse(code = 400, message = "Invalid file name, size or checksum"),
+                    @ApiResponse(code = 404, message = "Invalid customer ID"),
+                    @ApiResponse(code = 413, message = "File is too large or open uploads take too much space"),
+                    @ApiResponse(code = 429, message = "Customer has too many open uploads")
+            }
+    )
+    @PostMapping(value = {
+            "/v1/customers/{customerId}/photos/uploads",
+            "/v2/customers/{customerId}/photos/uploads"},
+            consumes = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResponseEntity<UploadSessionDTO> createUploadSession(@ApiParam(value = "Customer ID who uploads photo", required = true)
+                                                                @PathVariable("customerId") Long customerId,
+                                                                @ApiParam(value = "File name, size and optionally SHA-256 checksum", required = true)
+                                                                @RequestBody UploadSessionDTO uploadSessionDTO,
+                                                                HttpServletRequest request) {
+        UploadSessionDTO session = chunkedUploadService.createSession(customerId, uploadSessionDTO);
+        return ResponseEntity
+                .created(URI.create(request.getRequestURI() + "/" + session.getUploadId()))
+                .body(session);
+    }
+
+    @ApiOperation("Upload chunk of the photo, chunks may be sent in any order and resent")
+    @ApiResponses(
+            value = {
+                    @ApiResponse(code = 400, message = "Missing or invalid Content-Range"),
+                    @ApiResponse(code = 404, message = "Invalid customer ID or upload ID")
+            }
+    )
+    @PutMapping(value = {
+            "/v1/customers/{customerId}/photos/uploads/{uploadId}",
+            "/v2/customers/{customerId}/photos/uploads/{uploadId}"},
+            consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE
+    )
+    public UploadSessionDTO uploadChunk(@ApiParam(value = "Customer ID who uploads photo", required = true)
+                                        @PathVariable("customerId") Long customerId,
+                                        @ApiParam(value = "Upload ID", required = true)
+                                        @PathVariable("uploadId") String uploadId,
+                                        @ApiParam(value = "Chunk range, e.g. bytes 0-1048575/10000000", required = true)
+                                        @RequestHeader(value = HttpHeaders.CONTENT_RANGE, required = false) String contentRange,
+                                        HttpServletRequest request) throws IOException {
+        // Chunk is streamed into its place in the file without buffering it in memory
+        try (InputStream inputStream = request.getInputStream()) {
+            return chunkedUploadService.writeChunk(customerId, uploadId, contentRange, inputStream);
+        }
+    }
+
+    @ApiOperation("Get received ranges of the upload to resume it")
+    @ApiResponses(
+            value = {
+                    @ApiResponse(code = 404, message = "Invalid customer ID or upload ID")
+            }
+    )
+    @GetMapping({
+            "/v1/customers/{customerId}/photos/uploads/{uploadId}",
+            "/v2/customers/{customerId}/photos/uploads/{uploadId}"
+    })
+    public UploadSessionDTO getUploadSession(@ApiParam(value = "Customer ID who uploads photo", required = true)
+                                             @PathVariable("customerId") Long customerId,
+                                             @ApiParam(value = "Upload ID", required = true)
+                                             @PathVariable("uploadId") String uploadId) {
+        return chunkedUploadService.findSessionStatus(customerId, uploadId);
+    }
+
+    @ApiOperation("Complete the upload verifying the checksum and store the photo")
+    @ApiResponses(
+            value = {
+                    @ApiResponse(code = 400, message = "Upload is incomplete or checksum does not match"),
+                    @ApiResponse(code = 404, message = "Invalid customer ID or upload ID")
+            }
+    )
+    @PostMapping({
+            "/v1/customers/{customerId}/photos/uploads/{uploadId}/complete",
+            "/v2/customers/{customerId}/photos/uploads/{uploadId}/complete"
+    })
+    @ResponseStatus(HttpStatus.CREATED)
+    public PhotoDTO completeUpload(@ApiParam(value = "Customer ID who uploads photo", required = true)
+                                   @PathVariable("customerId") Long customerId,
+                                   @ApiParam(value = "Upload ID", required = true)
+                                   @PathVariable("uploadId") String uploadId) {
+        UploadSessionDTO session = chunkedUploadService.findSessionStatus(customerId, uploadId);
+        return chunkedUploadService.complete(customerId, uploadId,
+                PhotoController.fileDownloadUri(customerId, session.getFileName()));
+    }
+
+    @ApiOperation("Abort the upload")
+    @ApiResponses(
+            value = {
+                    @ApiResponse(code = 404, message = "Invalid customer ID or upload ID")
+            }
+    )
+    @DeleteMapping({
+            "/v1/customers/{customerId}/photos/uploads/{uploadId}",
+            "/v2/customers/{customerId}/photos/uploads/{uploadId}"
+    })
+    public ResponseEntity<Void> abortUpload(@ApiParam(value = "Customer ID who uploads photo", required = true)
+                                            @PathVariable("customerId") Long customerId,
+                                            @ApiParam(value = "Upload ID", required = true)
+                                            @PathVariable("uploadId") String uploadId) {
+        chunkedUploadService.abort(customerId, uploadId);
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+}
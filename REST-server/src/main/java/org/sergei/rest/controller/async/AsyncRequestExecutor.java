@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.controller.async;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.sergei.rest.exceptions.ServiceUnavailableException;
+import org.sergei.rest.jdbc.QueryContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs controller work off the servlet container threads on the bounded executor of its workload,
+ * so slow database work cannot exhaust the threads serving cheap requests.
+ * Request attributes, security context and SQL statement tracking of the request are carried over to
+ * the executor thread. Request is answered with 503 Service Unavailable once the executor queue is full
+ * or the work does not finish within the timeout of the workload, timed out work is interrupted.
+ *
+ * @author Sergei Visotsky
+ */
+@Component
+public class AsyncRequestExecutor {
+
+    private final Map<Workload, WorkloadExecutor> executors = new EnumMap<>(Workload.class);
+
+    @Autowired
+    public AsyncRequestExecutor(MeterRegistry meterRegistry,
+                                @Qualifier("reportExecutor") ThreadPoolTaskExecutor reportExecutor,
+                                @Qualifier("queryExecutor") ThreadPoolTaskExecutor queryExecutor,
+                                @Value("${rest.mvc.workload.report.timeout-ms:30000}") long reportTimeoutMillis,
+                                @Value("${rest.mvc.workload.query.timeout-ms:10000}") long queryTimeoutMillis) {
+        executors.put(Workload.REPORT,
+                new WorkloadExecutor(Workload.REPORT, reportExecutor, reportTimeoutMillis, meterRegistry));
+        executors.put(Workload.QUERY,
+                new WorkloadExecutor(Workload.QUERY, queryExecutor, queryTimeoutMillis, meterRegistry));
+    }
+
+    /**
+     * @param workload class of the work
+     * @param task     work producing the response, exception it throws is handled as if thrown by the controller
+     * @param <T>      type of the response
+     * @return result completed once the work is done, rejected or timed out
+     */
+    public <T> DeferredResult<T> execute(Workload workload, Supplier<T> task) {
+        return executors.get(workload).execute(task);
+    }
+
+    private static final class WorkloadExecutor {
+
+        private final Workload workload;
+        private final ThreadPoolTaskExecutor executor;
+        private final long timeoutMillis;
+        private final Counter rejected;
+        private final Counter timedOut;
+        private final Timer queueWait;
+
+        private WorkloadExecutor(Workload workload, ThreadPoolTaskExecutor executor, long timeoutMillis,
+                                 MeterRegistry meterRegistry) {
+            this.workload = workload;
+            this.executor = executor;
+            this.timeoutMillis = timeoutMillis;
+            this.rejected = Counter.builder("rest.mvc.workload.rejected")
+                    .description("Requests rejected because the executor queue was full")
+                    .tag("workload", workload.getName())
+                    .register(meterRegistry);
+            this.timedOut = Counter.builder("rest.mvc.workload.timeouts")
+                    .description("Requests not completed within the workload timeout")
+                    .tag("workload", workload.getName())
+                    .register(meterRegistry);
+            this.queueWait = Timer.builder("rest.mvc.workload.queue.wait")
+                    .description("Time requests wait for an executor thread")
+                    .tag("workload", workload.getName())
+                    .register(meterRegistry);
+            Gauge.builder("rest.mvc.workload.queue", executor,
+                    e -> e.getThreadPoolExecutor().getQueue().size())
+                    .description("Requests waiting for an executor thread")
+                    .tag("workload", workload.getName())
+                    .register(meterRegistry);
+            Gauge.builder("rest.mvc.workload.active", executor, ThreadPoolTaskExecutor::getActiveCount)
+                    .tag("workload", workload.getName())
+                    .register(meterRegistry);
+        }
+
+        private <T> DeferredResult<T> execute(Supplier<T> task) {
+            DeferredResult<T> result = new DeferredResult<>(timeoutMillis);
+            RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+            SecurityContext securityContext = SecurityContextHolder.getContext();
+            QueryContext queryContext = QueryContext.current();
+            long submittedAt = System.nanoTime();
+
+            Future<?> future;
+            try {
+                future = executor.submit(() -> {
+                    queueWait.record(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+                    // Nobody waits for the result anymore
+                    if (result.isSetOrExpired()) {
+                        return;
+                    }
+                    RequestContextHolder.setRequestAttributes(requestAttributes);
+                    SecurityContextHolder.setContext(securityContext);
+                    QueryContext.bind(queryContext);
+                    try {
+                        result.setResult(task.get());
+                    } catch (RuntimeException e) {
+                        result.setErrorResult(e);
+                    } finally {
+                        QueryContext.bind(null);
+                        SecurityContextHolder.clearContext();
+                        RequestContextHolder.resetRequestAttributes();
+                    }
+                });
+            } catch (TaskRejectedException e) {
+                rejected.increment();
+                result.setErrorResult(new ServiceUnavailableException(
+                        "Too many " + workload.getName() + " requests in progress, retry later"));
+                return result;
+            }
+            result.onTimeout(() -> {
+                future.cancel(true);
+                timedOut.increment();
+                result.setErrorResult(new ServiceUnavailableException(
+                        "Request did not complete within " + timeoutMillis + " ms"));
+            });
+            return result;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.controller.async;
+
+import java.util.Locale;
+
+/**
+ * Classes of asynchronously handled requests, each runs on its own bounded executor
+ * so a burst of one class cannot take threads and connections of another
+ *
+ * @author Sergei Visotsky
+ */
+public enum Workload {
+
+    /**
+     * Slow aggregating report queries
+     */
+    REPORT,
+
+    /**
+     * Regular database lookups
+     */
+    QUERY;
+
+    /**
+     * @return name used in metric tags and messages
+     */
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -50,7 +50,7 @@ public final class LinkUtil {
         customers.forEach(customer -> {
             Link link = ControllerLinkBuilder.linkTo(
                     ControllerLinkBuilder.methodOn(CustomerControllerV2.class)
-                            .getCustomerByIdV2(customer.getCustomerId())).withSelfRel();
+                            .getCustomerByIdV2(customer.getCustomerId(), null)).withSelfRel().expand();
             Link ordersLink = ControllerLinkBuilder.linkTo(
                     ControllerLinkBuilder.methodOn(OrderControllerV2.class)
                             .getOrdersByCustomerIdV2(customer.getCustomerId())).withRel("orders");
@@ -74,7 +74,7 @@ public final class LinkUtil {
     public static CustomerDTOV2 setLinksForCustomer(CustomerDTOV2 customerDTOV2, Long customerId) {
         Link link = ControllerLinkBuilder.linkTo(
                 ControllerLinkBuilder.methodOn(CustomerControllerV2.class)
-                        .getCustomerByIdV2(customerId)).withSelfRel();
+                        .getCustomerByIdV2(customerId, null)).withSelfRel().expand();
         Link ordersLink = ControllerLinkBuilder.linkTo(
                 ControllerLinkBuilder.methodOn(OrderControllerV2.class)
                         .getOrdersByCustomerIdV2(customerId)).withRel("orders");
@@ -83,7 +83,7 @@ public final class LinkUtil {
                         .findAllCustomerPhotos(customerDTOV2.getCustomerId())).withRel("photos");
         Link allCustomers = ControllerLinkBuilder.linkTo(
                 ControllerLinkBuilder.methodOn(CustomerControllerV2.class)
-                        .getAllCustomersV2()).withRel("allCustomers");
+                        .getAllCustomersV2(null)).withRel("allCustomers").expand();
         customerDTOV2.add(link);
         customerDTOV2.add(ordersLink);
         customerDTOV2.add(photoLink);
@@ -154,10 +154,10 @@ public final class LinkUtil {
         Resources reports = setServletResourceLinks(customerReports);
         Link customer = ControllerLinkBuilder.linkTo(
                 ControllerLinkBuilder.methodOn(CustomerControllerV2.class)
-                        .getCustomerByIdV2(customerId)).withRel("customer");
+                        .getCustomerByIdV2(customerId, null)).withRel("customer").expand();
         Link allCustomers = ControllerLinkBuilder.linkTo(
                 ControllerLinkBuilder.methodOn(CustomerControllerV2.class)
-                        .getAllCustomersV2()).withRel("allCustomers");
+                        .getAllCustomersV2(null)).withRel("allCustomers").expand();
         reports.add(customer);
         reports.add(allCustomers);
         return reports;
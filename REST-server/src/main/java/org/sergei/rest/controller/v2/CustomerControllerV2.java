@@ -19,6 +19,7 @@ package org.sergei.rest.controller.v2;
 import io.swagger.annotations.*;
 import org.sergei.rest.dto.v2.CustomerDTOV2;
 import org.sergei.rest.service.Constants;
+import org.sergei.rest.service.v2.CustomerExpand;
 import org.sergei.rest.service.v2.CustomerServiceV2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
@@ -54,32 +55,48 @@ public class CustomerControllerV2 {
     }
 
     @ApiOperation("Get all customers")
+    @ApiResponses(
+            value = {
+                    @ApiResponse(code = 400, message = "Unsupported expand value or too many customers to expand")
+            }
+    )
     @GetMapping("/v2/customers")
-    public ResponseEntity<Resources> getAllCustomersV2() {
-        List<CustomerDTOV2> customerDTOList = customerServiceV2.findAllV2();
+    public ResponseEntity<Resources> getAllCustomersV2(@ApiParam(value = "Sub-resources to embed: orders, photos")
+                                                       @RequestParam(value = "expand", required = false) List<String> expand) {
+        List<CustomerDTOV2> customerDTOList = customerServiceV2.findAllV2(CustomerExpand.parse(expand));
         return new ResponseEntity<>(setLinksForAllCustomers(customerDTOList), HttpStatus.OK);
     }
 
     @ApiOperation("Gel all customers paginated")
+    @ApiResponses(
+            value = {
+                    @ApiResponse(code = 400, message = "Unsupported expand value or too many customers to expand")
+            }
+    )
     @GetMapping(value = "/v2/customers", params = {"page", "size"})
     public ResponseEntity<Resources> getAllCustomersPaginatedV2(@ApiParam("Number of page")
                                                                 @RequestParam("page") int page,
                                                                 @ApiParam("Number of elements per page")
-                                                                @RequestParam("size") int size) {
-        Page<CustomerDTOV2> customerDTOList = customerServiceV2.findAllPaginatedV2(page, size);
+                                                                @RequestParam("size") int size,
+                                                                @ApiParam(value = "Sub-resources to embed: orders, photos")
+                                                                @RequestParam(value = "expand", required = false) List<String> expand) {
+        Page<CustomerDTOV2> customerDTOList = customerServiceV2.findAllPaginatedV2(page, size, CustomerExpand.parse(expand));
         return new ResponseEntity<>(setLinksForAllCustomers(customerDTOList), HttpStatus.OK);
     }
 
     @ApiOperation("Get customer by ID")
     @ApiResponses(
             value = {
+                    @ApiResponse(code = 400, message = "Unsupported expand value"),
                     @ApiResponse(code = 404, message = Constants.CUSTOMER_NOT_FOUND)
             }
     )
     @GetMapping("/v2/customers/{customerId}")
     public ResponseEntity<CustomerDTOV2> getCustomerByIdV2(@ApiParam(value = "Customer ID which should be found", required = true)
-                                                           @PathVariable("customerId") Long customerId) {
-        CustomerDTOV2 customerDTOV2 = customerServiceV2.findOneV2(customerId);
+                                                           @PathVariable("customerId") Long customerId,
+                                                           @ApiParam(value = "Sub-resources to embed: orders, photos")
+                                                           @RequestParam(value = "expand", required = false) List<String> expand) {
+        CustomerDTOV2 customerDTOV2 = customerServiceV2.findOneV2(customerId, CustomerExpand.parse(expand));
         return new ResponseEntity<>(setLinksForCustomer(customerDTOV2, customerId), HttpStatus.OK);
     }
 
@@ -17,6 +17,8 @@
 package org.sergei.rest.controller.v2;
 
 import io.swagger.annotations.*;
+import org.sergei.rest.controller.async.AsyncRequestExecutor;
+import org.sergei.rest.controller.async.Workload;
 import org.sergei.rest.dto.v2.OrderDTOV2;
 import org.sergei.rest.service.v2.OrderServiceV2;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,13 +26,14 @@ import org.springframework.data.domain.Page;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import java.util.List;
 
 import static org.sergei.rest.controller.hateoas.LinkUtil.*;
 
 /**
- * V2 of order controller
+ * V2 of order controller, order lists are loaded on the query executor
  *
  * @author Sergei Visotsky
  */
@@ -44,10 +47,12 @@ import static org.sergei.rest.controller.hateoas.LinkUtil.*;
 public class OrderControllerV2 {
 
     private final OrderServiceV2 orderServiceV2;
+    private final AsyncRequestExecutor asyncRequestExecutor;
 
     @Autowired
-    public OrderControllerV2(OrderServiceV2 orderServiceV2) {
+    public OrderControllerV2(OrderServiceV2 orderServiceV2, AsyncRequestExecutor asyncRequestExecutor) {
         this.orderServiceV2 = orderServiceV2;
+        this.asyncRequestExecutor = asyncRequestExecutor;
     }
 
     @ApiOperation("Get all order by customer ID")
@@ -57,10 +62,12 @@ public class OrderControllerV2 {
             }
     )
     @GetMapping("/v2/customers/{customerId}/orders")
-    public ResponseEntity getOrdersByCustomerIdV2(@ApiParam(value = "Customer ID whose orders should be found", required = true)
-                                                  @PathVariable("customerId") Long customerId) {
-        List<OrderDTOV2> orderDTOV2List = orderServiceV2.findAllByCustomerIdV2(customerId);
-        return new ResponseEntity<>(setLinksForAllOrders(orderDTOV2List), HttpStatus.OK);
+    public DeferredResult<ResponseEntity> getOrdersByCustomerIdV2(@ApiParam(value = "Customer ID whose orders should be found", required = true)
+                                                                  @PathVariable("customerId") Long customerId) {
+        return asyncRequestExecutor.execute(Workload.QUERY, () -> {
+            List<OrderDTOV2> orderDTOV2List = orderServiceV2.findAllByCustomerIdV2(customerId);
+            return new ResponseEntity<>(setLinksForAllOrders(orderDTOV2List), HttpStatus.OK);
+        });
     }
 
     @ApiOperation("Get all order by customer ID paginated")
@@ -70,14 +77,16 @@ public class OrderControllerV2 {
             }
     )
     @GetMapping(value = "/v2/customers/{customerId}/orders", params = {"page", "size"})
-    public ResponseEntity getOrdersByCustomerIdPaginatedV2(@ApiParam(value = "Customer ID whose orders should be found", required = true)
-                                                           @PathVariable("customerId") Long customerId,
-                                                           @ApiParam("Number of page")
-                                                           @RequestParam("page") int page,
-                                                           @ApiParam("Number of elements per page")
-                                                           @RequestParam("size") int size) {
-        Page<OrderDTOV2> orderDTOV2List = orderServiceV2.findAllByCustomerIdPaginatedV2(customerId, page, size);
-        return new ResponseEntity<>(setLinksForAllOrders(orderDTOV2List), HttpStatus.OK);
+    public DeferredResult<ResponseEntity> getOrdersByCustomerIdPaginatedV2(@ApiParam(value = "Customer ID whose orders should be found", required = true)
+                                                                           @PathVariable("customerId") Long customerId,
+                                                                           @ApiParam("Number of page")
+                                                                           @RequestParam("page") int page,
+                                                                           @ApiParam("Number of elements per page")
+                                                                           @RequestParam("size") int size) {
+        return asyncRequestExecutor.execute(Workload.QUERY, () -> {
+            Page<OrderDTOV2> orderDTOV2List = orderServiceV2.findAllByCustomerIdPaginatedV2(customerId, page, size);
+            return new ResponseEntity<>(setLinksForAllOrders(orderDTOV2List), HttpStatus.OK);
+        });
     }
 
     @ApiOperation("Get order by customer and order numbers")
@@ -102,9 +111,11 @@ public class OrderControllerV2 {
             }
     )
     @GetMapping("/v2/orders")
-    public ResponseEntity getOrdersByProductCodeV2(@ApiParam(value = "Code of the product which should be found", required = true)
-                                                   @RequestParam("prod-code") String productCode) {
-        List<OrderDTOV2> orderDTOV2List = orderServiceV2.findAllByProductCodeV2(productCode);
-        return new ResponseEntity<>(setServletResourceLinks(orderDTOV2List), HttpStatus.OK);
+    public DeferredResult<ResponseEntity> getOrdersByProductCodeV2(@ApiParam(value = "Code of the product which should be found", required = true)
+                                                                   @RequestParam("prod-code") String productCode) {
+        return asyncRequestExecutor.execute(Workload.QUERY, () -> {
+            List<OrderDTOV2> orderDTOV2List = orderServiceV2.findAllByProductCodeV2(productCode);
+            return new ResponseEntity<>(setServletResourceLinks(orderDTOV2List), HttpStatus.OK);
+        });
     }
 }
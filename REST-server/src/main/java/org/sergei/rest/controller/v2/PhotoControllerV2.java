@@ -19,12 +19,27 @@ package org.sergei.rest.controller.v2;
 import io.swagger.annotations.*;
 import org.sergei.rest.controller.PhotoController;
 import org.sergei.rest.dto.PhotoDTO;
+import org.sergei.rest.service.ThumbnailService;
+import org.sergei.rest.service.storage.PhotoFile;
 import org.sergei.rest.service.v2.PhotoServiceV2;
+import org.sergei.rest.util.FileDownloadUtil;
+import org.sergei.rest.util.PhotoArchiveUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * V2 of photo controller
@@ -40,11 +55,17 @@ import org.springframework.web.bind.annotation.*;
 @RequestMapping(value = "/api", produces = "application/json")
 public class PhotoControllerV2 {
 
+    // Content behind the checksum URL never changes, but it belongs to the customer, shared caches must not keep it
+    private static final String IMMUTABLE_CACHE_CONTROL =
+            CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate().getHeaderValue() + ", immutable";
+
     private final PhotoServiceV2 photoServiceV2;
+    private final ThumbnailService thumbnailService;
 
     @Autowired
-    public PhotoControllerV2(PhotoServiceV2 photoServiceV2) {
+    public PhotoControllerV2(PhotoServiceV2 photoServiceV2, ThumbnailService thumbnailService) {
         this.photoServiceV2 = photoServiceV2;
+        this.thumbnailService = thumbnailService;
     }
 
     @ApiOperation("Get all photos for the customer paginated")
@@ -63,4 +84,52 @@ public class PhotoControllerV2 {
         return new ResponseEntity<>(photoServiceV2.findAllPaginatedV2(customerId, page, size), HttpStatus.OK);
     }
 
+    @ApiOperation("Download photo content by its checksum, response never changes and may be cached forever by the client")
+    @ApiResponses(
+            value = {
+                    @ApiResponse(code = 400, message = "Unsupported thumbnail size"),
+                    @ApiResponse(code = 404, message = "Invalid customer ID or checksum")
+            }
+    )
+    @GetMapping(value = "/v2/customers/{customerId}/photos/content/{checksum:[0-9a-f]{64}}",
+            produces = {"image/jpeg", "image/png"})
+    public void downloadPhotoContent(@ApiParam(value = "Customer ID whose photo should be downloaded", required = true)
+                                     @PathVariable("customerId") Long customerId,
+                                     @ApiParam(value = "SHA-256 checksum of the photo content", required = true)
+                                     @PathVariable("checksum") String checksum,
+                                     @ApiParam("Maximum width and height of the thumbnail to download instead of the original")
+                                     @RequestParam(value = "size", required = false) Integer size,
+                                     HttpServletRequest request,
+                                     HttpServletResponse response) throws IOException {
+        PhotoFile photoFile = photoServiceV2.findPhotoFileByChecksum(customerId, checksum);
+        if (size != null) {
+            photoFile = thumbnailService.findThumbnail(photoFile, size);
+        }
+        MediaType contentType = FileDownloadUtil.mediaTypeOf(photoFile.getFileType(), photoFile.getFileName());
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, IMMUTABLE_CACHE_CONTROL);
+        FileDownloadUtil.writeFile(photoFile.getContent(), contentType, photoFile.getFileName(),
+                "\"" + photoFile.getChecksum() + "\"", request, response);
+    }
+
+    @ApiOperation("Download ZIP archive of all photos of the customer")
+    @ApiResponses(
+            value = {
+                    @ApiResponse(code = 404, message = "Invalid customer ID")
+            }
+    )
+    @GetMapping(value = "/v2/customers/{customerId}/photos/archive", produces = "application/zip")
+    public ResponseEntity<StreamingResponseBody> downloadPhotoArchive(@ApiParam(value = "Customer ID whose photos should be downloaded", required = true)
+                                                                      @PathVariable("customerId") Long customerId) {
+        // Photos are resolved before the response is committed so an invalid customer still gets 404
+        List<PhotoFile> photoFiles = photoServiceV2.findAllPhotoFiles(customerId);
+        ContentDisposition contentDisposition = ContentDisposition.builder("attachment")
+                .filename("customer-" + customerId + "-photos.zip")
+                .build();
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition.toString())
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(outputStream -> PhotoArchiveUtil.writeArchive(photoFiles, outputStream));
+    }
 }
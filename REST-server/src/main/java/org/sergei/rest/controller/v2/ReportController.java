@@ -19,6 +19,8 @@ package org.sergei.rest.controller.v2;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
+import org.sergei.rest.controller.async.AsyncRequestExecutor;
+import org.sergei.rest.controller.async.Workload;
 import org.sergei.rest.model.CustomerReport;
 import org.sergei.rest.repository.CustomerReportRepository;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,12 +33,15 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import java.util.List;
 
 import static org.sergei.rest.controller.hateoas.LinkUtil.setLinksForReport;
 
 /**
+ * Reports are aggregated by slow queries, so they are built on the report executor
+ *
  * @author Sergei Visotsky
  */
 @Api(
@@ -49,29 +54,36 @@ import static org.sergei.rest.controller.hateoas.LinkUtil.setLinksForReport;
 public class ReportController {
 
     private final CustomerReportRepository customerReportRepository;
+    private final AsyncRequestExecutor asyncRequestExecutor;
 
     @Autowired
-    public ReportController(CustomerReportRepository customerReportRepository) {
+    public ReportController(CustomerReportRepository customerReportRepository,
+                            AsyncRequestExecutor asyncRequestExecutor) {
         this.customerReportRepository = customerReportRepository;
+        this.asyncRequestExecutor = asyncRequestExecutor;
     }
 
     @ApiOperation("Get report for customer")
     @GetMapping(value = "/customers", params = "customerId")
-    public ResponseEntity<Resources> getReportForCustomer(@RequestParam Long customerId) {
-        List<CustomerReport> customerReport = customerReportRepository.findByCustomerId(customerId);
-        return new ResponseEntity<>(setLinksForReport(customerId, customerReport), HttpStatus.OK);
+    public DeferredResult<ResponseEntity<Resources>> getReportForCustomer(@RequestParam Long customerId) {
+        return asyncRequestExecutor.execute(Workload.REPORT, () -> {
+            List<CustomerReport> customerReport = customerReportRepository.findByCustomerId(customerId);
+            return new ResponseEntity<>(setLinksForReport(customerId, customerReport), HttpStatus.OK);
+        });
     }
 
     @ApiOperation("Get paginated report for customer")
     @GetMapping(value = "/customers", params = {"customerId", "page", "size"})
-    public ResponseEntity<Resources> getPaginatedReportForCustomer(@ApiParam("Customer ID to find report")
-                                                                   @RequestParam("customerId") Long customerId,
-                                                                   @ApiParam("Number of page")
-                                                                   @RequestParam("page") int page,
-                                                                   @ApiParam("Number of elements per page")
-                                                                   @RequestParam("size") int size) {
-        Page<CustomerReport> customerReport =
-                customerReportRepository.findPaginatedByCustomerId(customerId, PageRequest.of(page, size));
-        return new ResponseEntity<>(setLinksForReport(customerId, customerReport), HttpStatus.OK);
+    public DeferredResult<ResponseEntity<Resources>> getPaginatedReportForCustomer(@ApiParam("Customer ID to find report")
+                                                                                   @RequestParam("customerId") Long customerId,
+                                                                                   @ApiParam("Number of page")
+                                                                                   @RequestParam("page") int page,
+                                                                                   @ApiParam("Number of elements per page")
+                                                                                   @RequestParam("size") int size) {
+        return asyncRequestExecutor.execute(Workload.REPORT, () -> {
+            Page<CustomerReport> customerReport =
+                    customerReportRepository.findPaginatedByCustomerId(customerId, PageRequest.of(page, size));
+            return new ResponseEntity<>(setLinksForReport(customerId, customerReport), HttpStatus.OK);
+        });
     }
 }
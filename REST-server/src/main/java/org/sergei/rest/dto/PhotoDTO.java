@@ -48,4 +48,7 @@ public class PhotoDTO {
 
     @ApiModelProperty("Photo file size")
     private Long fileSize;
+
+    @ApiModelProperty("SHA-256 checksum of the photo content")
+    private String checksum;
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * @author Sergei Visotsky
+ */
+@ApiModel(value = "UploadSession", description = "Resumable chunked photo upload")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSessionDTO {
+
+    @ApiModelProperty("Upload session ID")
+    private String uploadId;
+
+    @ApiModelProperty("Customer ID who uploads the photo")
+    private Long customerId;
+
+    @ApiModelProperty("Photo file name")
+    private String fileName;
+
+    @ApiModelProperty("Total photo file size in bytes")
+    private Long fileSize;
+
+    @ApiModelProperty("Expected SHA-256 checksum of the photo content, verified on completion if provided")
+    private String checksum;
+
+    @ApiModelProperty("Number of bytes received so far")
+    private Long receivedBytes;
+
+    @ApiModelProperty("Received byte ranges, e.g. 0-1048575")
+    private List<String> receivedRanges;
+}
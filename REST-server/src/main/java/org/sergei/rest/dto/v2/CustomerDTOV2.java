@@ -16,14 +16,19 @@
 
 package org.sergei.rest.dto.v2;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import org.sergei.rest.dto.PhotoDTO;
 import org.springframework.hateoas.ResourceSupport;
 
+import java.util.List;
+
 /**
  * V2 of customer DTO
  *
@@ -47,4 +52,14 @@ public class CustomerDTOV2 extends ResourceSupport {
 
     @ApiModelProperty("Customer age")
     private Integer age;
+
+    @ApiModelProperty("Customer orders, present only if requested with expand=orders")
+    @JsonProperty("orders")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<OrderDTOV2> expandedOrders;
+
+    @ApiModelProperty("Customer photos, present only if requested with expand=photos")
+    @JsonProperty("photos")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<PhotoDTO> expandedPhotos;
 }
@@ -58,6 +58,34 @@ public class CustomResponseEntityExceptionHandler extends ResponseEntityExceptio
         return new ResponseEntity<>(errorDetailsDTO, HttpStatus.NOT_ACCEPTABLE);
     }
 
+    @ExceptionHandler(PayloadTooLargeException.class)
+    protected final ResponseEntity<ErrorDetailsDTO> handlePayloadTooLargeException(PayloadTooLargeException e,
+                                                                                   WebRequest request) {
+        ErrorDetailsDTO errorDetailsDTO = new ErrorDetailsDTO(new Date(), e.getMessage(), request.getDescription(false));
+        return new ResponseEntity<>(errorDetailsDTO, HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+
+    @ExceptionHandler(TooManyRequestsException.class)
+    protected final ResponseEntity<ErrorDetailsDTO> handleTooManyRequestsException(TooManyRequestsException e,
+                                                                                   WebRequest request) {
+        ErrorDetailsDTO errorDetailsDTO = new ErrorDetailsDTO(new Date(), e.getMessage(), request.getDescription(false));
+        return new ResponseEntity<>(errorDetailsDTO, HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    @ExceptionHandler(ServiceUnavailableException.class)
+    protected final ResponseEntity<ErrorDetailsDTO> handleServiceUnavailableException(ServiceUnavailableException e,
+                                                                                      WebRequest request) {
+        ErrorDetailsDTO errorDetailsDTO = new ErrorDetailsDTO(new Date(), e.getMessage(), request.getDescription(false));
+        return new ResponseEntity<>(errorDetailsDTO, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    @ExceptionHandler(BadRequestException.class)
+    protected final ResponseEntity<ErrorDetailsDTO> handleBadRequestException(BadRequestException e,
+                                                                              WebRequest request) {
+        ErrorDetailsDTO errorDetailsDTO = new ErrorDetailsDTO(new Date(), e.getMessage(), request.getDescription(false));
+        return new ResponseEntity<>(errorDetailsDTO, HttpStatus.BAD_REQUEST);
+    }
+
     @Override
     protected ResponseEntity<Object> handleExceptionInternal(Exception ex, Object body, HttpHeaders headers,
                                                              HttpStatus status, WebRequest request) {
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * @author Sergei Visotsky
+ */
+@ResponseStatus(HttpStatus.PAYLOAD_TOO_LARGE)
+public class PayloadTooLargeException extends RuntimeException {
+    public PayloadTooLargeException() {
+        super();
+    }
+
+    public PayloadTooLargeException(String message) {
+        super(message);
+    }
+
+    public PayloadTooLargeException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public PayloadTooLargeException(Throwable cause) {
+        super(cause);
+    }
+
+    protected PayloadTooLargeException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
+}
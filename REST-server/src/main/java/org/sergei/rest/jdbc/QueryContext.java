@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sergei.rest.jdbc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Statistics of the SQL statements executed while serving a single HTTP request.
+ * Bound to the request thread by {@link QueryCountingFilter} and filled by {@link QueryCountingDataSource}.
+ *
+ * @author Sergei Visotsky
+ */
+public final class QueryContext {
+
+    private static final ThreadLocal<QueryContext> CURRENT = new ThreadLocal<>();
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMERIC_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern IN_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+
+    private int statementCount;
+    private long elapsedNanos;
+    private final Map<String, Integer> statementShapes = new LinkedHashMap<>();
+    private volatile String handler;
+
+    private QueryContext() {
+    }
+
+    /**
+     * Bind new context to the current thread
+     *
+     * @return bound context
+     */
+    public static QueryContext begin() {
+        QueryContext context = new QueryContext();
+        CURRENT.set(context);
+        return context;
+    }
+
+    /**
+     * Bind context of a request to another thread handling the request, e.g. asynchronously
+     *
+     * @param context context of the request, {@code null} to unbind
+     */
+    public static void bind(QueryContext context) {
+        if (context == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(context);
+        }
+    }
+
+    /**
+     * @return context bound to the current thread or {@code null} if statements are not tracked
+     */
+    public static QueryContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Unbind context from the current thread
+     */
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Record executed statement
+     *
+     * @param sql          statement text, may be {@code null} for batches of plain statements
+     * @param elapsedNanos execution time
+     */
+    public synchronized void record(String sql, long elapsedNanos) {
+        this.statementCount++;
+        this.elapsedNanos += elapsedNanos;
+        this.statementShapes.merge(shapeOf(sql), 1, Integer::sum);
+    }
+
+    public synchronized int getStatementCount() {
+        return statementCount;
+    }
+
+    public synchronized long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return controller method serving the request or {@code null} if not resolved yet
+     */
+    public String getHandler() {
+        return handler;
+    }
+
+    public void setHandler(String handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Statements executed more than the given number of times
+     *
+     * @param threshold number of executions allowed for a single statement shape
+     * @return statement shape with its execution count
+     */
+    public synchronized Map<String, Integer> getRepeatedStatements(int threshold) {
+        Map<String, Integer> repeated = new LinkedHashMap<>();
+        statementShapes.forEach((shape, count) -> {
+            if (count > threshold) {
+                repeated.put(shape, count);
+            }
+        });
+        return repeated;
+    }
+
+    /**
+     * Replace literals and IN lists of different length with placeholders,
+     * so statements differing only by parameters share the same shape
+     *
+     * @param sql statement text
+     * @return statement shape
+     */
+    static String shapeOf(String sql) {
+        if (sql == null) {
+            return "<batch>";
+        }
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        shape = NUMERIC_LITERAL.matcher(shape).replaceAll("?");
+        return IN_LIST.matcher(shape).replaceAll("(?)");
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sergei.rest.jdbc;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Data source wrapper which reports every executed statement with its duration
+ * to the {@link QueryContext} bound to the current thread and to the {@link SlowQueryLog}
+ *
+ * @author Sergei Visotsky
+ */
+public class QueryCountingDataSource extends DelegatingDataSource {
+
+    private final SlowQueryLog slowQueryLog;
+
+    /**
+     * @param targetDataSource data source to wrap
+     * @param slowQueryLog     slow query log, {@code null} to disable it
+     */
+    public QueryCountingDataSource(DataSource targetDataSource, SlowQueryLog slowQueryLog) {
+        super(targetDataSource);
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrapConnection(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrapConnection(super.getConnection(username, password));
+    }
+
+    private Connection wrapConnection(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(QueryCountingDataSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionInvocationHandler(connection));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private final class ConnectionInvocationHandler implements InvocationHandler {
+
+        private final Connection connection;
+
+        private ConnectionInvocationHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = QueryCountingDataSource.invoke(connection, method, args);
+            switch (method.getName()) {
+                case "createStatement":
+                    return wrapStatement(Statement.class, result, null);
+                case "prepareStatement":
+                    return wrapStatement(PreparedStatement.class, result, (String) args[0]);
+                case "prepareCall":
+                    return wrapStatement(CallableStatement.class, result, (String) args[0]);
+                default:
+                    return result;
+            }
+        }
+
+        private Object wrapStatement(Class<?> statementType, Object statement, String sql) {
+            return Proxy.newProxyInstance(QueryCountingDataSource.class.getClassLoader(),
+                    new Class<?>[]{statementType}, new StatementInvocationHandler((Statement) statement, sql));
+        }
+    }
+
+    private final class StatementInvocationHandler implements InvocationHandler {
+
+        private final Statement statement;
+        private final String preparedSql;
+        private Map<Integer, Object> parameters;
+        private LoggedQuery pendingQuery;
+
+        private StatementInvocationHandler(Statement statement, String preparedSql) {
+            this.statement = statement;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            if (methodName.startsWith("execute")) {
+                return execute(method, args);
+            }
+            if (slowQueryLog != null && slowQueryLog.capturesParameters() && preparedSql != null) {
+                captureParameter(methodName, args);
+            }
+            if ("close".equals(methodName)) {
+                logPendingQuery();
+            }
+            return QueryCountingDataSource.invoke(statement, method, args);
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            logPendingQuery();
+            QueryContext context = QueryContext.current();
+            if (context == null && slowQueryLog == null) {
+                return QueryCountingDataSource.invoke(statement, method, args);
+            }
+            String sql = sqlOf(args);
+            Object result;
+            long elapsedNanos;
+            long start = System.nanoTime();
+            try {
+                result = QueryCountingDataSource.invoke(statement, method, args);
+            } finally {
+                elapsedNanos = System.nanoTime() - start;
+                if (context != null) {
+                    context.record(sql, elapsedNanos);
+                }
+            }
+            return logIfRequired(sql, context, result, elapsedNanos);
+        }
+
+        /**
+         * Result sets of logged queries are wrapped to count fetched rows,
+         * the entry is written once the result set or the statement is closed
+         */
+        private Object logIfRequired(String sql, QueryContext context, Object result, long elapsedNanos) {
+            if (slowQueryLog == null || !slowQueryLog.shouldLog(elapsedNanos)) {
+                return result;
+            }
+            LoggedQuery query = new LoggedQuery(sql, parameters != null ? new TreeMap<>(parameters) : null,
+                    elapsedNanos, context != null ? context.getHandler() : null);
+            if (result instanceof ResultSet) {
+                pendingQuery = query;
+                return Proxy.newProxyInstance(QueryCountingDataSource.class.getClassLoader(),
+                        new Class<?>[]{ResultSet.class}, new ResultSetInvocationHandler((ResultSet) result, query));
+            }
+            query.rows = rowsOf(result);
+            query.log();
+            return result;
+        }
+
+        private void captureParameter(String methodName, Object[] args) {
+            if ("clearParameters".equals(methodName)) {
+                parameters = null;
+            } else if (methodName.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                if (parameters == null) {
+                    parameters = new TreeMap<>();
+                }
+                parameters.put((Integer) args[0],
+                        "setNull".equals(methodName) ? null : slowQueryLog.captureParameter(args[1]));
+            }
+        }
+
+        private void logPendingQuery() {
+            if (pendingQuery != null) {
+                pendingQuery.log();
+                pendingQuery = null;
+            }
+        }
+
+        private String sqlOf(Object[] args) {
+            if (preparedSql != null) {
+                return preparedSql;
+            }
+            if (args != null && args.length > 0 && args[0] instanceof String) {
+                return (String) args[0];
+            }
+            return null;
+        }
+
+        private long rowsOf(Object result) {
+            if (result instanceof Number) {
+                return ((Number) result).longValue();
+            }
+            if (result instanceof int[]) {
+                long rows = 0;
+                for (int count : (int[]) result) {
+                    rows += Math.max(count, 0);
+                }
+                return rows;
+            }
+            return -1;
+        }
+    }
+
+    private static final class ResultSetInvocationHandler implements InvocationHandler {
+
+        private final ResultSet resultSet;
+        private final LoggedQuery query;
+
+        private ResultSetInvocationHandler(ResultSet resultSet, LoggedQuery query) {
+            this.resultSet = resultSet;
+            this.query = query;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = QueryCountingDataSource.invoke(resultSet, method, args);
+            if ("next".equals(method.getName()) && Boolean.TRUE.equals(result)) {
+                query.rows++;
+            } else if ("close".equals(method.getName())) {
+                query.log();
+            }
+            return result;
+        }
+    }
+
+    private final class LoggedQuery {
+
+        private final String sql;
+        private final Map<Integer, Object> parameters;
+        private final long elapsedNanos;
+        private final String handler;
+        private long rows;
+        private boolean logged;
+
+        private LoggedQuery(String sql, Map<Integer, Object> parameters, long elapsedNanos, String handler) {
+            this.sql = sql;
+            this.parameters = parameters;
+            this.elapsedNanos = elapsedNanos;
+            this.handler = handler;
+        }
+
+        private void log() {
+            if (!logged) {
+                logged = true;
+                slowQueryLog.log(sql, parameters, elapsedNanos, rows, handler);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sergei.rest.jdbc;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks SQL statements executed while serving a request, exposes them as response headers,
+ * records them as metrics per route template and warns about statements repeated within one request.
+ * Asynchronously handled request keeps its context in a request attribute and is reported
+ * once its asynchronous dispatch completes, including statements executed by the worker thread.
+ *
+ * @author Sergei Visotsky
+ */
+public class QueryCountingFilter extends OncePerRequestFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryCountingFilter.class);
+
+    static final String QUERY_COUNT_HEADER = "X-Query-Count";
+    static final String SERVER_TIMING_HEADER = "Server-Timing";
+    private static final String UNKNOWN_ROUTE = "UNKNOWN";
+    private static final String CONTEXT_ATTRIBUTE = QueryContext.class.getName();
+
+    private final MeterRegistry meterRegistry;
+    private final int repeatedStatementThreshold;
+
+    public QueryCountingFilter(MeterRegistry meterRegistry, int repeatedStatementThreshold) {
+        this.meterRegistry = meterRegistry;
+        this.repeatedStatementThreshold = repeatedStatementThreshold;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        QueryContext context = (QueryContext) request.getAttribute(CONTEXT_ATTRIBUTE);
+        if (context == null) {
+            context = QueryContext.begin();
+            request.setAttribute(CONTEXT_ATTRIBUTE, context);
+        } else {
+            QueryContext.bind(context);
+        }
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            QueryContext.end();
+            // Otherwise handling continues on another thread and is reported on the asynchronous dispatch
+            if (!request.isAsyncStarted()) {
+                if (!response.isCommitted() && !response.containsHeader(QUERY_COUNT_HEADER)) {
+                    response.setHeader(QUERY_COUNT_HEADER, String.valueOf(context.getStatementCount()));
+                    response.setHeader(SERVER_TIMING_HEADER, serverTiming(context));
+                }
+                report(request, context);
+            }
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    private void report(HttpServletRequest request, QueryContext context) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String route = pattern != null ? pattern.toString() : UNKNOWN_ROUTE;
+        String method = request.getMethod();
+
+        DistributionSummary.builder("rest.http.sql.statements")
+                .description("SQL statements executed per request")
+                .tags("method", method, "uri", route)
+                .register(meterRegistry)
+                .record(context.getStatementCount());
+        Timer.builder("rest.http.sql.time")
+                .description("Time spent executing SQL statements per request")
+                .tags("method", method, "uri", route)
+                .register(meterRegistry)
+                .record(context.getElapsedNanos(), TimeUnit.NANOSECONDS);
+
+        context.getRepeatedStatements(repeatedStatementThreshold).forEach((sql, count) ->
+                LOGGER.warn("Possible N+1 select in {} {}: statement executed {} times: {}", method, route, count, sql));
+    }
+
+    /**
+     * @param context statements executed within the request
+     * @return value of the Server-Timing header
+     */
+    static String serverTiming(QueryContext context) {
+        return String.format(Locale.ROOT, "db;dur=%.3f;desc=\"%d queries\"",
+                context.getElapsedNanos() / 1_000_000.0, context.getStatementCount());
+    }
+}
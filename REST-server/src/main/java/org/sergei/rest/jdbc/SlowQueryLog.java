@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sergei.rest.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.temporal.Temporal;
+import java.util.Date;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs statements exceeding the configured threshold plus a random sample of the rest.
+ * Entries go to a dedicated logger which is expected to be backed by an asynchronous appender.
+ * Bind parameters carry password hashes and token keys, so they are not captured at all unless
+ * their types or values are explicitly asked for.
+ *
+ * @author Sergei Visotsky
+ */
+public class SlowQueryLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SlowQueryLog.class);
+    private static final int MAX_PARAMETER_LENGTH = 100;
+
+    private final long thresholdNanos;
+    private final double sampleRate;
+    private final Parameters parameters;
+
+    /**
+     * @param thresholdMillis statements running longer are always logged
+     * @param sampleRate      share of the remaining statements to log, from 0 to 1
+     * @param parameters      what is logged of bind parameters
+     */
+    public SlowQueryLog(long thresholdMillis, double sampleRate, Parameters parameters) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.sampleRate = sampleRate;
+        this.parameters = parameters;
+    }
+
+    /**
+     * @return {@code true} if bind parameters should be captured for the log
+     */
+    boolean capturesParameters() {
+        return parameters != Parameters.NONE;
+    }
+
+    /**
+     * @param value bind parameter value
+     * @return what is kept of the value for the log entry, only its type unless values are logged
+     */
+    Object captureParameter(Object value) {
+        if (parameters == Parameters.VALUES || value == null) {
+            return value;
+        }
+        return value.getClass();
+    }
+
+    /**
+     * @param elapsedNanos statement execution time
+     * @return {@code true} if statement should be logged
+     */
+    boolean shouldLog(long elapsedNanos) {
+        if (!LOGGER.isInfoEnabled()) {
+            return false;
+        }
+        return elapsedNanos >= thresholdNanos
+                || (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    /**
+     * Write log entry
+     *
+     * @param sql          statement text
+     * @param parameters   bind parameters by index as captured, may be {@code null}
+     * @param elapsedNanos execution time
+     * @param rows         rows fetched or updated, negative if unknown
+     * @param handler      controller method statement originates from, may be {@code null}
+     */
+    void log(String sql, Map<Integer, Object> parameters, long elapsedNanos, long rows, String handler) {
+        String type = elapsedNanos >= thresholdNanos ? "SLOW" : "SAMPLED";
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        Object loggedRows = rows < 0 ? "n/a" : rows;
+        Object loggedHandler = handler != null ? handler : "n/a";
+        if (capturesParameters()) {
+            LOGGER.info("{} {} ms, rows: {}, handler: {}, sql: {}, parameters: {}",
+                    type, elapsedMillis, loggedRows, loggedHandler, sql, formatParameters(parameters));
+        } else {
+            LOGGER.info("{} {} ms, rows: {}, handler: {}, sql: {}", type, elapsedMillis, loggedRows, loggedHandler, sql);
+        }
+    }
+
+    private static String formatParameters(Map<Integer, Object> parameters) {
+        StringJoiner joiner = new StringJoiner(", ", "[", "]");
+        if (parameters != null) {
+            parameters.values().forEach(value -> joiner.add(formatParameter(value)));
+        }
+        return joiner.toString();
+    }
+
+    private static String formatParameter(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof Class) {
+            return "<" + ((Class<?>) value).getSimpleName() + ">";
+        }
+        if (value instanceof String) {
+            String text = (String) value;
+            return "'" + (text.length() > MAX_PARAMETER_LENGTH ? text.substring(0, MAX_PARAMETER_LENGTH) + "..." : text) + "'";
+        }
+        if (value instanceof Number || value instanceof Boolean || value instanceof Date || value instanceof Temporal) {
+            return value.toString();
+        }
+        // Streams, LOBs and byte arrays are not worth printing
+        return "<" + value.getClass().getSimpleName() + ">";
+    }
+
+    /**
+     * What is logged of bind parameters
+     */
+    public enum Parameters {
+        /**
+         * Nothing, parameters are not even captured
+         */
+        NONE,
+        /**
+         * Type of each parameter
+         */
+        TYPES,
+        /**
+         * Values, shortened if long, may expose password hashes, token keys and personal data
+         */
+        VALUES
+    }
+}
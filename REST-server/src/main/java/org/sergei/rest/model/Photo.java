@@ -28,7 +28,7 @@ import java.io.Serializable;
 @Data
 @NoArgsConstructor
 @Entity
-@Table(name = "photos")
+@Table(name = "photos", indexes = @Index(name = "idx_photos_checksum", columnList = "checksum"))
 public class Photo implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -55,6 +55,9 @@ public class Photo implements Serializable {
     @Column(name = "file_size", nullable = false)
     private Long fileSize;
 
+    @Column(name = "checksum", length = 64)
+    private String checksum;
+
     public Photo(Customer customer, String fileName, String fileUrl,
                  String fileType, Long fileSize) {
         this.customer = customer;
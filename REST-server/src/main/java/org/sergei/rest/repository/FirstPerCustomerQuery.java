@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.repository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Finds IDs of the first rows of each customer. Every customer gets its own {@code LIMIT} branch
+ * of a single {@code UNION ALL} statement, so the database reads no more than the limit per customer
+ * from the customer index. Window functions are not available in MySQL 5.7 and H2 1.4
+ * and {@code LIMIT} is not allowed in {@code IN} subqueries by MySQL.
+ *
+ * @author Sergei Visotsky
+ */
+final class FirstPerCustomerQuery {
+
+    private FirstPerCustomerQuery() {
+    }
+
+    /**
+     * @param entityManager entity manager to run the query with
+     * @param table         table with a customer_id column
+     * @param idColumn      primary key column the rows are ordered by
+     * @param customerIds   customers to find rows of
+     * @param limit         maximum number of rows per customer
+     * @return IDs of the first rows of each customer
+     */
+    static List<Long> findIds(EntityManager entityManager, String table, String idColumn,
+                              Collection<Long> customerIds, int limit) {
+        if (customerIds.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        int limitPosition = customerIds.size() + 1;
+        StringJoiner sql = new StringJoiner(" UNION ALL ");
+        for (int position = 1; position < limitPosition; position++) {
+            sql.add("(SELECT " + idColumn + " FROM " + table + " WHERE customer_id = ?" + position
+                    + " ORDER BY " + idColumn + " LIMIT ?" + limitPosition + ")");
+        }
+        Query query = entityManager.createNativeQuery(sql.toString());
+        int position = 1;
+        for (Long customerId : customerIds) {
+            query.setParameter(position++, customerId);
+        }
+        query.setParameter(limitPosition, limit);
+
+        List<Long> ids = new ArrayList<>();
+        for (Object id : query.getResultList()) {
+            ids.add(((Number) id).longValue());
+        }
+        return ids;
+    }
+}
@@ -22,6 +22,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -32,4 +33,7 @@ public interface OrderDetailsRepository extends JpaRepository<OrderDetails, Long
 
     @Query("SELECT o FROM OrderDetails o WHERE o.order.orderId = :orderId")
     List<OrderDetails> findAllByOrderId(@Param("orderId") Long orderId);
+
+    @Query("SELECT od FROM OrderDetails od JOIN FETCH od.order JOIN FETCH od.product WHERE od.order.orderId IN :orderIds")
+    List<OrderDetails> findAllByOrderIds(@Param("orderIds") Collection<Long> orderIds);
 }
@@ -31,7 +31,7 @@ import java.util.Optional;
 /**
  * @author Sergei Visotsky
  */
-public interface OrderRepository extends JpaRepository<Order, Long> {
+public interface OrderRepository extends JpaRepository<Order, Long>, OrderRepositoryCustom {
 
     @Query("SELECT o FROM Order o WHERE o.customer.customerId = :customerId")
     List<Order> findAllByCustomerId(@Param("customerId") Long customerId);
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.repository;
+
+import org.sergei.rest.model.Order;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @author Sergei Visotsky
+ */
+public interface OrderRepositoryCustom {
+
+    /**
+     * @param customerIds customers to find orders of
+     * @param limit       maximum number of orders per customer
+     * @return first orders of each customer by order ID with their customers fetched
+     */
+    List<Order> findFirstByCustomerIds(Collection<Long> customerIds, int limit);
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.repository;
+
+import org.sergei.rest.model.Order;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Sergei Visotsky
+ */
+public class OrderRepositoryImpl implements OrderRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<Order> findFirstByCustomerIds(Collection<Long> customerIds, int limit) {
+        List<Long> orderIds = FirstPerCustomerQuery.findIds(entityManager, "orders", "order_id", customerIds, limit);
+        if (orderIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return entityManager.createQuery(
+                "SELECT o FROM Order o JOIN FETCH o.customer WHERE o.orderId IN :orderIds ORDER BY o.orderId",
+                Order.class)
+                .setParameter("orderIds", orderIds)
+                .getResultList();
+    }
+}
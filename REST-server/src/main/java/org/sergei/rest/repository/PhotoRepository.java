@@ -24,6 +24,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -31,7 +32,7 @@ import java.util.Optional;
  * @author Sergei Visotsky
  */
 @Repository
-public interface PhotoRepository extends JpaRepository<Photo, Long> {
+public interface PhotoRepository extends JpaRepository<Photo, Long>, PhotoRepositoryCustom {
 
     @Query("SELECT p FROM Photo p WHERE p.customer.customerId = :customerId")
     List<Photo> findAllPhotosByCustomerId(@Param("customerId") Long customerId);
@@ -47,6 +48,19 @@ public interface PhotoRepository extends JpaRepository<Photo, Long> {
     Optional<Photo> findByCustomerIdAndPhotoId(@Param("customerId") Long customerId,
                                                @Param("photoId") Long photoId);
 
+    @Query("SELECT p FROM Photo p WHERE p.customer.customerId = :customerId AND p.checksum = :checksum")
+    List<Photo> findAllByCustomerIdAndChecksum(@Param("customerId") Long customerId,
+                                               @Param("checksum") String checksum);
+
+    @Query("SELECT COUNT(p) FROM Photo p WHERE p.checksum = :checksum")
+    long countByChecksum(@Param("checksum") String checksum);
+
+    @Query("SELECT DISTINCT p.checksum FROM Photo p WHERE p.checksum IN :checksums")
+    List<String> findReferencedChecksums(@Param("checksums") Collection<String> checksums);
+
+    @Query("SELECT DISTINCT p.fileName FROM Photo p WHERE p.checksum IS NULL AND p.fileName IN :fileNames")
+    List<String> findReferencedLegacyFileNames(@Param("fileNames") Collection<String> fileNames);
+
     @Query("SELECT p.fileUrl FROM Photo p WHERE p.customer.customerId = :customerId")
     List<String> findFileUrlByCustomerId(Long customerId);
 }
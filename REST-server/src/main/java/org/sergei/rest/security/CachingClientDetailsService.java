@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.security;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.security.oauth2.provider.ClientDetails;
+import org.springframework.security.oauth2.provider.ClientDetailsService;
+import org.springframework.security.oauth2.provider.NoSuchClientException;
+import org.springframework.security.oauth2.provider.client.JdbcClientDetailsService;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OAuth clients stored in the database, read through a local cache. Client is looked up on every
+ * token request and approval, while its details change rarely.
+ * Entry older than the refresh interval is reloaded in the background on next access, so a changed client
+ * takes effect after at most that time and a deleted one is dropped. Entries can be evicted immediately
+ * through {@link org.sergei.rest.actuator.ClientDetailsCacheEndpoint}.
+ * This is the primary client details service, the authorization server reads clients through it as well.
+ *
+ * @author Sergei Visotsky
+ */
+@Primary
+@Component
+public class CachingClientDetailsService implements ClientDetailsService {
+
+    private final LoadingCache<String, ClientDetails> clientDetailsCache;
+
+    @Autowired
+    public CachingClientDetailsService(DataSource dataSource, MeterRegistry meterRegistry,
+                                       @Value("${rest.oauth.client-cache.max-size:1000}") long maxSize,
+                                       @Value("${rest.oauth.client-cache.refresh-ms:60000}") long refreshMillis,
+                                       @Value("${rest.oauth.client-cache.ttl-ms:600000}") long ttlMillis) {
+        JdbcClientDetailsService delegate = new JdbcClientDetailsService(dataSource);
+        this.clientDetailsCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .refreshAfterWrite(refreshMillis, TimeUnit.MILLISECONDS)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build(new ClientDetailsLoader(delegate));
+        CaffeineCacheMetrics.monitor(meterRegistry, clientDetailsCache, "oauthClientDetails");
+    }
+
+    /**
+     * @param clientId client ID
+     * @return client details
+     * @throws NoSuchClientException if there is no such client, unknown clients are not cached
+     */
+    @Override
+    public ClientDetails loadClientByClientId(String clientId) {
+        return clientDetailsCache.get(clientId);
+    }
+
+    /**
+     * @param clientId client to be reloaded on next access
+     * @return whether the client was cached
+     */
+    public boolean evict(String clientId) {
+        return clientDetailsCache.asMap().remove(clientId) != null;
+    }
+
+    /**
+     * @return number of evicted clients
+     */
+    public long evictAll() {
+        long size = clientDetailsCache.estimatedSize();
+        clientDetailsCache.invalidateAll();
+        return size;
+    }
+
+    private static final class ClientDetailsLoader implements CacheLoader<String, ClientDetails> {
+
+        private final ClientDetailsService delegate;
+
+        private ClientDetailsLoader(ClientDetailsService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ClientDetails load(String clientId) {
+            return delegate.loadClientByClientId(clientId);
+        }
+
+        /**
+         * Client deleted meanwhile is dropped instead of keeping the stale entry
+         */
+        @Override
+        public ClientDetails reload(String clientId, ClientDetails oldValue) {
+            try {
+                return delegate.loadClientByClientId(clientId);
+            } catch (NoSuchClientException e) {
+                return null;
+            }
+        }
+    }
+}
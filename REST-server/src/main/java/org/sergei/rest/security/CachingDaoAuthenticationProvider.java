@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers successfully verified credentials for a short time, so repeated HTTP Basic requests
+ * do not pay for the deliberately slow password hash on every request.
+ * Credentials are keyed by HMAC-SHA256 of username and password under a random key generated per instance,
+ * so neither the password nor an offline-attackable hash of it is kept in memory.
+ * Entry is only accepted while the stored password hash is still the one it was verified against.
+ *
+ * @author Sergei Visotsky
+ */
+public class CachingDaoAuthenticationProvider extends DaoAuthenticationProvider {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int KEY_LENGTH = 32;
+
+    private final SecretKeySpec key;
+    private final Cache<String, VerifiedCredentials> verifiedCredentials;
+
+    public CachingDaoAuthenticationProvider(MeterRegistry meterRegistry, long maxSize, long ttlMillis) {
+        byte[] keyBytes = new byte[KEY_LENGTH];
+        new SecureRandom().nextBytes(keyBytes);
+        this.key = new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
+        this.verifiedCredentials = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verifiedCredentials, "verifiedCredentials");
+    }
+
+    /**
+     * Drop cached user and its verified credentials, e.g. once the password or roles change
+     *
+     * @param username username of the changed user
+     */
+    public void evict(String username) {
+        getUserCache().removeUserFromCache(username);
+        verifiedCredentials.asMap().values().removeIf(credentials -> credentials.username.equals(username));
+    }
+
+    @Override
+    protected void additionalAuthenticationChecks(UserDetails userDetails,
+                                                  UsernamePasswordAuthenticationToken authentication) {
+        if (authentication.getCredentials() == null) {
+            super.additionalAuthenticationChecks(userDetails, authentication);
+            return;
+        }
+        String credentialsKey = credentialsKey(userDetails.getUsername(), authentication.getCredentials().toString());
+        VerifiedCredentials verified = verifiedCredentials.getIfPresent(credentialsKey);
+        if (verified != null && verified.encodedPassword.equals(userDetails.getPassword())) {
+            return;
+        }
+        // Throws if the password does not match, so only successful verifications are cached
+        super.additionalAuthenticationChecks(userDetails, authentication);
+        verifiedCredentials.put(credentialsKey,
+                new VerifiedCredentials(userDetails.getUsername(), userDetails.getPassword()));
+    }
+
+    private String credentialsKey(String username, String password) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            // Username length prefix keeps different username and password splits apart
+            mac.update((username.length() + ":" + username).getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(HMAC_ALGORITHM + " is not available", e);
+        }
+    }
+
+    private static final class VerifiedCredentials {
+
+        private final String username;
+        private final String encodedPassword;
+
+        private VerifiedCredentials(String username, String encodedPassword) {
+            this.username = username;
+            this.encodedPassword = encodedPassword;
+        }
+    }
+}
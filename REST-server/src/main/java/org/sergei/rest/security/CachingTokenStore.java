@@ -0,0 +1,206 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache of access tokens and their authentications in front of another token store.
+ * Validating a request token then costs no query and no deserialization of the stored token.
+ * Tokens are cached for at most the configured time and never past their expiration.
+ * Cache is local to the instance: a token revoked through another instance is honored here once its entry expires.
+ *
+ * @author Sergei Visotsky
+ */
+public class CachingTokenStore implements TokenStore {
+
+    private final TokenStore delegate;
+    private final Cache<String, OAuth2AccessToken> accessTokens;
+    private final Cache<String, OAuth2Authentication> authentications;
+    private final Timer loadTimer;
+
+    public CachingTokenStore(TokenStore delegate, MeterRegistry meterRegistry, long maxSize, long ttlMillis) {
+        this.delegate = delegate;
+        this.accessTokens = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new TokenExpiry(TimeUnit.MILLISECONDS.toNanos(ttlMillis)))
+                .recordStats()
+                .build();
+        this.authentications = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, accessTokens, "oauthAccessToken");
+        CaffeineCacheMetrics.monitor(meterRegistry, authentications, "oauthAuthentication");
+        this.loadTimer = Timer.builder("rest.oauth.token.load")
+                .description("Reading and deserializing tokens from the delegate store on cache miss")
+                .register(meterRegistry);
+        // Every hit saves one load of the average duration
+        Gauge.builder("rest.oauth.token.load.saved", this,
+                store -> (store.accessTokens.stats().hitCount() + store.authentications.stats().hitCount())
+                        * store.loadTimer.mean(TimeUnit.SECONDS))
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public OAuth2AccessToken readAccessToken(String tokenValue) {
+        return accessTokens.get(tokenValue, key -> load(() -> delegate.readAccessToken(tokenValue)));
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(OAuth2AccessToken token) {
+        return readAuthentication(token.getValue());
+    }
+
+    /**
+     * Authentication is mutated once a request is authenticated, so every caller gets its own copy
+     */
+    @Override
+    public OAuth2Authentication readAuthentication(String token) {
+        OAuth2Authentication authentication = authentications.get(token,
+                key -> load(() -> delegate.readAuthentication(token)));
+        if (authentication == null) {
+            return null;
+        }
+        return new OAuth2Authentication(authentication.getOAuth2Request(), authentication.getUserAuthentication());
+    }
+
+    @Override
+    public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+        delegate.storeAccessToken(token, authentication);
+        evict(token.getValue());
+    }
+
+    @Override
+    public void removeAccessToken(OAuth2AccessToken token) {
+        delegate.removeAccessToken(token);
+        evict(token.getValue());
+    }
+
+    @Override
+    public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
+        delegate.storeRefreshToken(refreshToken, authentication);
+    }
+
+    @Override
+    public OAuth2RefreshToken readRefreshToken(String tokenValue) {
+        return delegate.readRefreshToken(tokenValue);
+    }
+
+    @Override
+    public OAuth2Authentication readAuthenticationForRefreshToken(OAuth2RefreshToken token) {
+        return delegate.readAuthenticationForRefreshToken(token);
+    }
+
+    @Override
+    public void removeRefreshToken(OAuth2RefreshToken token) {
+        delegate.removeRefreshToken(token);
+        evictByRefreshToken(token);
+    }
+
+    /**
+     * Called when the token is refreshed, access tokens issued with the refresh token are dropped
+     */
+    @Override
+    public void removeAccessTokenUsingRefreshToken(OAuth2RefreshToken refreshToken) {
+        delegate.removeAccessTokenUsingRefreshToken(refreshToken);
+        evictByRefreshToken(refreshToken);
+    }
+
+    @Override
+    public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
+        return delegate.getAccessToken(authentication);
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(String clientId, String userName) {
+        return delegate.findTokensByClientIdAndUserName(clientId, userName);
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
+        return delegate.findTokensByClientId(clientId);
+    }
+
+    private <T> T load(Supplier<T> loader) {
+        return loadTimer.record(loader);
+    }
+
+    private void evict(String tokenValue) {
+        accessTokens.invalidate(tokenValue);
+        authentications.invalidate(tokenValue);
+    }
+
+    private void evictByRefreshToken(OAuth2RefreshToken refreshToken) {
+        // Refresh is rare compared to validation, so the cache is scanned instead of indexing refresh tokens
+        accessTokens.asMap().values().stream()
+                .filter(token -> token.getRefreshToken() != null
+                        && refreshToken.getValue().equals(token.getRefreshToken().getValue()))
+                .map(OAuth2AccessToken::getValue)
+                .forEach(this::evict);
+    }
+
+    /**
+     * Token is cached for the configured time or until it expires, whichever comes first
+     */
+    private static final class TokenExpiry implements Expiry<String, OAuth2AccessToken> {
+
+        private final long ttlNanos;
+
+        private TokenExpiry(long ttlNanos) {
+            this.ttlNanos = ttlNanos;
+        }
+
+        @Override
+        public long expireAfterCreate(String key, OAuth2AccessToken token, long currentTime) {
+            Date expiration = token.getExpiration();
+            if (expiration == null) {
+                return ttlNanos;
+            }
+            long untilExpiration = TimeUnit.MILLISECONDS.toNanos(expiration.getTime() - System.currentTimeMillis());
+            return Math.max(0, Math.min(ttlNanos, untilExpiration));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, OAuth2AccessToken token, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, token, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, OAuth2AccessToken token, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Users are cached for a limited time, so authenticating a password grant or HTTP Basic request
+ * does not query the user and the roles every time. Unknown usernames are not cached.
+ * If the password does not match a cached user, the provider loads the user again before rejecting it.
+ *
+ * @author Sergei Visotsky
+ */
+public class CaffeineUserCache implements UserCache {
+
+    private final Cache<String, UserDetails> users;
+
+    public CaffeineUserCache(MeterRegistry meterRegistry, long maxSize, long ttlMillis) {
+        this.users = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, users, "apiUserDetails");
+    }
+
+    @Override
+    public UserDetails getUserFromCache(String username) {
+        return users.getIfPresent(username);
+    }
+
+    @Override
+    public void putUserInCache(UserDetails user) {
+        users.put(user.getUsername(), user);
+    }
+
+    @Override
+    public void removeUserFromCache(String username) {
+        users.invalidate(username);
+    }
+}
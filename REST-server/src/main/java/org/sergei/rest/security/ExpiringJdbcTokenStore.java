@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.security;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.oauth2.common.ExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.store.JdbcTokenStore;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * Database token store which records expiration of every stored token in its own column,
+ * so expired tokens can be found and purged without reading the serialized tokens.
+ *
+ * @author Sergei Visotsky
+ */
+public class ExpiringJdbcTokenStore extends JdbcTokenStore {
+
+    /**
+     * Expiration of tokens which never expire, the column is left empty only for tokens
+     * stored before it was introduced
+     */
+    public static final Timestamp NEVER = Timestamp.valueOf("9999-12-31 00:00:00");
+
+    private static final String UPDATE_ACCESS_TOKEN_EXPIRATION_SQL =
+            "update oauth_access_token set expiration = ? where token_id = ?";
+    private static final String UPDATE_REFRESH_TOKEN_EXPIRATION_SQL =
+            "update oauth_refresh_token set expiration = ? where token_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ExpiringJdbcTokenStore(DataSource dataSource) {
+        super(dataSource);
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @Override
+    public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+        super.storeAccessToken(token, authentication);
+        jdbcTemplate.update(UPDATE_ACCESS_TOKEN_EXPIRATION_SQL,
+                expirationOf(token), extractTokenKey(token.getValue()));
+    }
+
+    @Override
+    public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
+        super.storeRefreshToken(refreshToken, authentication);
+        jdbcTemplate.update(UPDATE_REFRESH_TOKEN_EXPIRATION_SQL,
+                expirationOf(refreshToken), extractTokenKey(refreshToken.getValue()));
+    }
+
+    /**
+     * @return expiration of the token as stored in the expiration column
+     */
+    public static Timestamp expirationOf(OAuth2AccessToken token) {
+        return toTimestamp(token.getExpiration());
+    }
+
+    /**
+     * @return expiration of the token as stored in the expiration column
+     */
+    public static Timestamp expirationOf(OAuth2RefreshToken token) {
+        return token instanceof ExpiringOAuth2RefreshToken
+                ? toTimestamp(((ExpiringOAuth2RefreshToken) token).getExpiration())
+                : NEVER;
+    }
+
+    private static Timestamp toTimestamp(Date expiration) {
+        return expiration != null ? new Timestamp(expiration.getTime()) : NEVER;
+    }
+}
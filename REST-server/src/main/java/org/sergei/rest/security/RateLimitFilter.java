@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.sergei.rest.dto.ErrorDetailsDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.provider.ClientDetails;
+import org.springframework.security.oauth2.provider.ClientDetailsService;
+import org.springframework.security.oauth2.provider.ClientRegistrationException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the request rate of every OAuth client and every user with token buckets, so one client
+ * flooding the API does not starve the others. Runs after authentication, requests without
+ * an authenticated principal are not limited.
+ * Client may get its own limits in {@code additional_information} of {@code oauth_client_details}, e.g.
+ * <pre>{"rate_limit": {"capacity": 500, "per_second": 100, "user_capacity": 50, "user_per_second": 10}}</pre>
+ * Users are limited per client, with the user limit of that client.
+ * Rejected request gets 429 Too Many Requests with Retry-After.
+ *
+ * @author Sergei Visotsky
+ */
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RateLimitFilter.class);
+
+    static final String RATE_LIMIT_KEY = "rate_limit";
+
+    private final ClientDetailsService clientDetailsService;
+    private final ObjectMapper objectMapper;
+    private final TokenBucket.Limit clientLimit;
+    private final TokenBucket.Limit userLimit;
+    private final Cache<String, TokenBucket> buckets;
+    private final Counter rejectedClientRequests;
+    private final Counter rejectedUserRequests;
+
+    public RateLimitFilter(ClientDetailsService clientDetailsService, ObjectMapper objectMapper,
+                           MeterRegistry meterRegistry, TokenBucket.Limit clientLimit, TokenBucket.Limit userLimit,
+                           long maxBuckets, long idleMillis) {
+        this.clientDetailsService = clientDetailsService;
+        this.objectMapper = objectMapper;
+        this.clientLimit = clientLimit;
+        this.userLimit = userLimit;
+        // Bucket idle for long is full again, so dropping it loses nothing
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxBuckets)
+                .expireAfterAccess(idleMillis, TimeUnit.MILLISECONDS)
+                .build();
+        this.rejectedClientRequests = Counter.builder("rest.ratelimit.rejected")
+                .description("Requests rejected for exceeding the rate limit")
+                .tag("limit", "client")
+                .register(meterRegistry);
+        this.rejectedUserRequests = Counter.builder("rest.ratelimit.rejected")
+                .description("Requests rejected for exceeding the rate limit")
+                .tag("limit", "user")
+                .register(meterRegistry);
+        Gauge.builder("rest.ratelimit.buckets", buckets, Cache::estimatedSize)
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        String clientId = null;
+        String username = authentication.getName();
+        if (authentication instanceof OAuth2Authentication) {
+            OAuth2Authentication oAuth2Authentication = (OAuth2Authentication) authentication;
+            clientId = oAuth2Authentication.getOAuth2Request().getClientId();
+            if (oAuth2Authentication.isClientOnly()) {
+                username = null;
+            }
+        }
+        Map<String, Object> clientLimits = clientLimits(clientId);
+
+        // User is checked first, so a user over the limit does not use up the budget of the whole client
+        if (username != null) {
+            String userKey = clientId != null ? "user:" + clientId + ":" + username : "user:" + username;
+            long waitNanos = tryConsume(userKey,
+                    limit(clientLimits, "user_capacity", "user_per_second", userLimit));
+            if (waitNanos > 0) {
+                rejectedUserRequests.increment();
+                reject(request, response, waitNanos);
+                return;
+            }
+        }
+        if (clientId != null) {
+            long waitNanos = tryConsume("client:" + clientId,
+                    limit(clientLimits, "capacity", "per_second", clientLimit));
+            if (waitNanos > 0) {
+                rejectedClientRequests.increment();
+                reject(request, response, waitNanos);
+                return;
+            }
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    private long tryConsume(String key, TokenBucket.Limit limit) {
+        if (!limit.isEnabled()) {
+            return 0;
+        }
+        TokenBucket bucket = buckets.get(key, k -> new TokenBucket(limit));
+        if (!bucket.getLimit().equals(limit)) {
+            // Limits of the client changed, start over with a full bucket
+            TokenBucket replacement = new TokenBucket(limit);
+            bucket = buckets.asMap().replace(key, bucket, replacement) ? replacement : buckets.get(key, k -> replacement);
+        }
+        return bucket.tryConsume();
+    }
+
+    /**
+     * Client details are read through the client cache, so this costs no query per request
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> clientLimits(String clientId) {
+        if (clientId == null) {
+            return null;
+        }
+        try {
+            ClientDetails clientDetails = clientDetailsService.loadClientByClientId(clientId);
+            Object limits = clientDetails.getAdditionalInformation().get(RATE_LIMIT_KEY);
+            return limits instanceof Map ? (Map<String, Object>) limits : null;
+        } catch (ClientRegistrationException e) {
+            LOGGER.debug("Client {} not found, default rate limit applied", clientId);
+            return null;
+        }
+    }
+
+    private static TokenBucket.Limit limit(Map<String, Object> clientLimits, String capacityKey, String perSecondKey,
+                                           TokenBucket.Limit defaultLimit) {
+        if (clientLimits == null) {
+            return defaultLimit;
+        }
+        Object capacity = clientLimits.get(capacityKey);
+        Object perSecond = clientLimits.get(perSecondKey);
+        return new TokenBucket.Limit(
+                capacity instanceof Number ? ((Number) capacity).longValue() : defaultLimit.getCapacity(),
+                perSecond instanceof Number ? ((Number) perSecond).longValue() : defaultLimit.getPerSecond());
+    }
+
+    private void reject(HttpServletRequest request, HttpServletResponse response, long waitNanos)
+            throws IOException {
+        long retryAfterSeconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), new ErrorDetailsDTO(new Date(),
+                "Rate limit exceeded, retry after " + retryAfterSeconds + " s", "uri=" + request.getRequestURI()));
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.security;
+
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.token.store.JwtTokenStore;
+
+/**
+ * Store of self-contained tokens: nothing is persisted, tokens removed on revocation or refresh
+ * are put on the revocation list of the converter instead.
+ * Revocation list is local to the instance.
+ *
+ * @author Sergei Visotsky
+ */
+public class RevocableJwtTokenStore extends JwtTokenStore {
+
+    private final SigningAccessTokenConverter tokenConverter;
+
+    public RevocableJwtTokenStore(SigningAccessTokenConverter tokenConverter) {
+        super(tokenConverter);
+        this.tokenConverter = tokenConverter;
+    }
+
+    public SigningAccessTokenConverter getTokenConverter() {
+        return tokenConverter;
+    }
+
+    @Override
+    public void removeAccessToken(OAuth2AccessToken token) {
+        super.removeAccessToken(token);
+        tokenConverter.revoke(token.getValue());
+    }
+
+    @Override
+    public void removeRefreshToken(OAuth2RefreshToken token) {
+        super.removeRefreshToken(token);
+        tokenConverter.revoke(token.getValue());
+    }
+}
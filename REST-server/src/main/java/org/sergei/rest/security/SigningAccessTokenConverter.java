@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.springframework.security.jwt.Jwt;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.crypto.sign.MacSigner;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.common.util.JsonParser;
+import org.springframework.security.oauth2.common.util.JsonParserFactory;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.store.JwtAccessTokenConverter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues self-contained tokens signed with HMAC-SHA256 and verifies them without any lookup.
+ * Every token names the key it is signed with in its {@code kid} header, so keys are rotated by adding
+ * a new key, making it active and removing the old one once tokens signed with it have expired.
+ * Revoked token IDs are remembered in memory until the tokens expire.
+ *
+ * @author Sergei Visotsky
+ */
+public class SigningAccessTokenConverter extends JwtAccessTokenConverter {
+
+    private static final String KEY_ID = "kid";
+    private static final int MIN_SECRET_LENGTH = 32;
+
+    private final JsonParser jsonParser = JsonParserFactory.create();
+    private final Map<String, MacSigner> keys = new LinkedHashMap<>();
+    private final String activeKeyId;
+    private final Cache<String, Long> revokedTokenIds;
+
+    /**
+     * @param keys        signing keys as comma separated {@code keyId:secret} pairs
+     * @param activeKeyId ID of the key new tokens are signed with
+     */
+    public SigningAccessTokenConverter(String keys, String activeKeyId) {
+        for (String key : keys.split(",")) {
+            int separator = key.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Signing key must be given as keyId:secret");
+            }
+            String secret = key.substring(separator + 1).trim();
+            if (secret.length() < MIN_SECRET_LENGTH) {
+                throw new IllegalArgumentException("Signing key secret must be at least " + MIN_SECRET_LENGTH
+                        + " characters long");
+            }
+            this.keys.put(key.substring(0, separator).trim(), new MacSigner(secret.getBytes(StandardCharsets.UTF_8)));
+        }
+        if (!this.keys.containsKey(activeKeyId)) {
+            throw new IllegalArgumentException("Active signing key " + activeKeyId + " is not configured");
+        }
+        this.activeKeyId = activeKeyId;
+        this.revokedTokenIds = Caffeine.newBuilder()
+                .expireAfter(new UntilExpiration())
+                .build();
+    }
+
+    /**
+     * Reject the token until it expires
+     *
+     * @param tokenValue encoded access or refresh token
+     */
+    public void revoke(String tokenValue) {
+        Map<String, Object> claims = verifiedClaims(tokenValue);
+        Object tokenId = claims.get(TOKEN_ID);
+        Object expiration = claims.get(EXP);
+        if (tokenId != null) {
+            long expiresAt = expiration instanceof Number
+                    ? TimeUnit.SECONDS.toMillis(((Number) expiration).longValue())
+                    : Long.MAX_VALUE;
+            revokedTokenIds.put(tokenId.toString(), expiresAt);
+        }
+    }
+
+    /**
+     * Secret keys are never published
+     */
+    @Override
+    public Map<String, String> getKey() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    protected String encode(OAuth2AccessToken accessToken, OAuth2Authentication authentication) {
+        String content;
+        try {
+            content = jsonParser.formatMap(getAccessTokenConverter().convertAccessToken(accessToken, authentication));
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot convert access token to JSON", e);
+        }
+        return JwtHelper.encode(content, keys.get(activeKeyId), Collections.singletonMap(KEY_ID, activeKeyId))
+                .getEncoded();
+    }
+
+    @Override
+    protected Map<String, Object> decode(String token) {
+        Map<String, Object> claims = verifiedClaims(token);
+        Object tokenId = claims.get(TOKEN_ID);
+        if (tokenId != null && revokedTokenIds.getIfPresent(tokenId.toString()) != null) {
+            throw new InvalidTokenException("Token has been revoked");
+        }
+        return claims;
+    }
+
+    private Map<String, Object> verifiedClaims(String token) {
+        try {
+            String keyId = JwtHelper.headers(token).get(KEY_ID);
+            MacSigner key = keyId != null ? keys.get(keyId) : null;
+            if (key == null) {
+                throw new InvalidTokenException("Token is signed with an unknown key");
+            }
+            Jwt jwt = JwtHelper.decodeAndVerify(token, key);
+            Map<String, Object> claims = jsonParser.parseMap(jwt.getClaims());
+            if (claims.get(EXP) instanceof Integer) {
+                claims.put(EXP, ((Integer) claims.get(EXP)).longValue());
+            }
+            getJwtClaimsSetVerifier().verify(claims);
+            return claims;
+        } catch (InvalidTokenException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new InvalidTokenException("Cannot convert access token to JSON", e);
+        }
+    }
+
+    /**
+     * Revoked token ID is kept until the token would expire anyway
+     */
+    private static final class UntilExpiration implements Expiry<String, Long> {
+
+        @Override
+        public long expireAfterCreate(String tokenId, Long expiresAt, long currentTime) {
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, expiresAt - System.currentTimeMillis()));
+        }
+
+        @Override
+        public long expireAfterUpdate(String tokenId, Long expiresAt, long currentTime, long currentDuration) {
+            return expireAfterCreate(tokenId, expiresAt, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String tokenId, Long expiresAt, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
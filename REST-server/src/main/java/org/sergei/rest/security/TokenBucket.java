@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.security;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket kept as a single timestamp, the moment the bucket would be full again, and updated
+ * with compare-and-set, so concurrent requests of the same client never block each other.
+ * Bucket starts full and holds at most {@code capacity} tokens, refilled at {@code perSecond} tokens a second.
+ *
+ * @author Sergei Visotsky
+ */
+public final class TokenBucket {
+
+    private final Limit limit;
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final AtomicLong fullAt;
+
+    public TokenBucket(Limit limit) {
+        this.limit = limit;
+        this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / limit.perSecond;
+        this.burstNanos = nanosPerToken * limit.capacity;
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    public Limit getLimit() {
+        return limit;
+    }
+
+    /**
+     * Take one token if there is one
+     *
+     * @return 0 if the token was taken, otherwise nanoseconds until the next token is available
+     */
+    public long tryConsume() {
+        while (true) {
+            long now = System.nanoTime();
+            long current = fullAt.get();
+            long next = Math.max(current, now) + nanosPerToken;
+            long overdraft = next - now - burstNanos;
+            if (overdraft > 0) {
+                return overdraft;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Bucket size and refill rate
+     */
+    @Getter
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    public static final class Limit {
+
+        private final long capacity;
+        private final long perSecond;
+
+        /**
+         * @return whether requests are limited at all
+         */
+        public boolean isEnabled() {
+            return capacity > 0 && perSecond > 0;
+        }
+    }
+}
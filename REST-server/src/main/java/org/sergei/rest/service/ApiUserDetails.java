@@ -24,6 +24,7 @@ import org.springframework.security.core.userdetails.UserDetails;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -59,7 +60,8 @@ public class ApiUserDetails implements UserDetails {
             }
             grantedAuthorities.add(new SimpleGrantedAuthority(name));
         }
-        return grantedAuthorities;
+        // Instance is cached and shared by concurrent authentications
+        return Collections.unmodifiableList(grantedAuthorities);
     }
 
     @Override
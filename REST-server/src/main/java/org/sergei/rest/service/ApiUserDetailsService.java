@@ -25,6 +25,8 @@ import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.stereotype.Service;
 
 /**
+ * Loaded users are cached by the authentication provider, see {@link org.sergei.rest.security.CaffeineUserCache}
+ *
  * @author Sergei Visotsky
  */
 @Service
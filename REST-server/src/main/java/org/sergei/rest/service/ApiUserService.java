@@ -18,6 +18,7 @@ package org.sergei.rest.service;
 
 import org.sergei.rest.repository.UserRepository;
 import org.sergei.rest.model.User;
+import org.sergei.rest.security.CachingDaoAuthenticationProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
@@ -32,16 +33,20 @@ public class ApiUserService {
 
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
+    private final CachingDaoAuthenticationProvider authenticationProvider;
 
     @Autowired
-    public ApiUserService(UserRepository userRepository, PasswordEncoder passwordEncoder) {
+    public ApiUserService(UserRepository userRepository, PasswordEncoder passwordEncoder,
+                          CachingDaoAuthenticationProvider authenticationProvider) {
         this.userRepository = userRepository;
         this.passwordEncoder = passwordEncoder;
+        this.authenticationProvider = authenticationProvider;
     }
 
     public User saveUser(User user) {
         user.setPassword(passwordEncoder.encode(user.getPassword()));
         userRepository.save(user);
+        authenticationProvider.evict(user.getUsername());
         return user;
     }
 
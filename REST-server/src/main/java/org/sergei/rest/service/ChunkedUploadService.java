@@ -0,0 +1,436 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.service;
+
+import org.sergei.rest.dto.PhotoDTO;
+import org.sergei.rest.dto.UploadSessionDTO;
+import org.sergei.rest.exceptions.BadRequestException;
+import org.sergei.rest.exceptions.FileStorageException;
+import org.sergei.rest.exceptions.PayloadTooLargeException;
+import org.sergei.rest.exceptions.ResourceNotFoundException;
+import org.sergei.rest.exceptions.TooManyRequestsException;
+import org.sergei.rest.repository.CustomerRepository;
+import org.sergei.rest.service.storage.StagedContent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resumable chunked uploads: client creates a session, sends byte ranges of the file in any order
+ * and completes the session once all bytes are received. Chunks are written at their offsets into
+ * a file preallocated to the full size, so a failed chunk is resent alone instead of the whole file.
+ * Sessions are kept in memory and expire after a period of inactivity. Open sessions per customer
+ * and the space preallocated by all of them are limited, so clients cannot fill the disk with sessions
+ * they never complete.
+ *
+ * @author Sergei Visotsky
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChunkedUploadService.class);
+
+    private static final String PART_FILE_SUFFIX = ".part";
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+    private static final Pattern CHECKSUM_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final int BUFFER_SIZE = 8192;
+
+    private final PhotoService photoService;
+    private final CustomerRepository customerRepository;
+    private final Path uploadLocation;
+    private final long maxFileSize;
+    private final long sessionTimeoutMillis;
+    private final int maxSessionsPerCustomer;
+    private final long maxPreallocatedBytes;
+    private final ConcurrentMap<String, UploadSession> sessions = new ConcurrentHashMap<>();
+    // Guarded by this
+    private final Map<Long, Integer> sessionsPerCustomer = new HashMap<>();
+    private long preallocatedBytes;
+
+    @Autowired
+    public ChunkedUploadService(PhotoService photoService, CustomerRepository customerRepository,
+                                @Value("${rest.photo.chunked.dir}") String uploadDir,
+                                @Value("${rest.photo.max-file-size:10000000}") long maxFileSize,
+                                @Value("${rest.photo.chunked.session-timeout-ms:86400000}") long sessionTimeoutMillis,
+                                @Value("${rest.photo.chunked.max-sessions-per-customer:10}") int maxSessionsPerCustomer,
+                                @Value("${rest.photo.chunked.max-preallocated-bytes:1073741824}") long maxPreallocatedBytes)
+            throws IOException {
+        this.photoService = photoService;
+        this.customerRepository = customerRepository;
+        this.uploadLocation = Paths.get(uploadDir).toAbsolutePath().normalize();
+        this.maxFileSize = maxFileSize;
+        this.sessionTimeoutMillis = sessionTimeoutMillis;
+        this.maxSessionsPerCustomer = maxSessionsPerCustomer;
+        this.maxPreallocatedBytes = maxPreallocatedBytes;
+        deleteStalePartFiles();
+    }
+
+    /**
+     * Create upload session preallocating the file
+     *
+     * @param customerId       customer who uploads the photo
+     * @param uploadSessionDTO file name, size and optionally expected checksum
+     * @return created session
+     */
+    public UploadSessionDTO createSession(Long customerId, UploadSessionDTO uploadSessionDTO) {
+        if (!customerRepository.existsById(customerId)) {
+            throw new ResourceNotFoundException(Constants.CUSTOMER_NOT_FOUND);
+        }
+        String fileName = uploadSessionDTO.getFileName();
+        Long fileSize = uploadSessionDTO.getFileSize();
+        String checksum = uploadSessionDTO.getChecksum();
+        if (!StringUtils.hasText(fileName) || fileSize == null || fileSize <= 0) {
+            throw new BadRequestException("File name and positive file size are required");
+        }
+        if (fileSize > maxFileSize) {
+            throw new PayloadTooLargeException("File exceeds maximum size of " + maxFileSize + " bytes");
+        }
+        if (checksum != null && !CHECKSUM_PATTERN.matcher(checksum).matches()) {
+            throw new BadRequestException("Checksum must be a lower case hex SHA-256");
+        }
+
+        reserve(customerId, fileSize);
+        String uploadId = UUID.randomUUID().toString();
+        Path partFile = uploadLocation.resolve(uploadId + PART_FILE_SUFFIX);
+        try {
+            Files.createDirectories(uploadLocation);
+            try (RandomAccessFile file = new RandomAccessFile(partFile.toFile(), "rw")) {
+                file.setLength(fileSize);
+            }
+        } catch (IOException e) {
+            release(customerId, fileSize);
+            deleteQuietly(partFile);
+            throw new FileStorageException("Cannot create upload", e);
+        }
+
+        UploadSession session = new UploadSession(uploadId, customerId, fileName, fileSize, checksum, partFile);
+        sessions.put(uploadId, session);
+        return session.toDTO();
+    }
+
+    /**
+     * Write chunk at its offset
+     *
+     * @param customerId   customer who uploads the photo
+     * @param uploadId     upload session ID
+     * @param contentRange chunk range as in {@code Content-Range: bytes 0-1048575/10000000}
+     * @param inputStream  chunk content, not closed by this method
+     * @return session with updated received ranges
+     */
+    public UploadSessionDTO writeChunk(Long customerId, String uploadId, String contentRange,
+                                       InputStream inputStream) {
+        UploadSession session = findSession(customerId, uploadId);
+        Matcher matcher = contentRange != null ? CONTENT_RANGE_PATTERN.matcher(contentRange) : null;
+        if (matcher == null || !matcher.matches()) {
+            throw new BadRequestException("Content-Range header in form of 'bytes start-end/size' is required");
+        }
+        long start = Long.parseLong(matcher.group(1));
+        long end = Long.parseLong(matcher.group(2));
+        if (start > end || end >= session.fileSize
+                || (!"*".equals(matcher.group(3)) && Long.parseLong(matcher.group(3)) != session.fileSize)) {
+            throw new BadRequestException("Content-Range does not fit file size " + session.fileSize);
+        }
+
+        // Chunks of a session are written concurrently, but never while it is completed or dropped
+        session.lock.readLock().lock();
+        try {
+            if (session.closed) {
+                throw new ResourceNotFoundException("Upload session not found");
+            }
+            writeChunk(session, start, end - start + 1, inputStream);
+            session.received(start, end + 1);
+        } finally {
+            session.lock.readLock().unlock();
+        }
+        return session.toDTO();
+    }
+
+    /**
+     * @param customerId customer who uploads the photo
+     * @param uploadId   upload session ID
+     * @return session with received ranges, so client knows which chunks to resend
+     */
+    public UploadSessionDTO findSessionStatus(Long customerId, String uploadId) {
+        return findSession(customerId, uploadId).toDTO();
+    }
+
+    /**
+     * Verify the received file and store it as a photo
+     *
+     * @param customerId      customer who uploads the photo
+     * @param uploadId        upload session ID
+     * @param fileDownloadUri file download uri created in REST controller
+     * @return stored photo
+     */
+    public PhotoDTO complete(Long customerId, String uploadId, String fileDownloadUri) {
+        UploadSession session = findSession(customerId, uploadId);
+        // Waits for chunks being written, chunks sent later find the session closed
+        session.lock.writeLock().lock();
+        try {
+            if (session.receivedBytes() != session.fileSize) {
+                throw new BadRequestException("Upload is incomplete, received " + session.receivedBytes()
+                        + " of " + session.fileSize + " bytes");
+            }
+            if (!remove(session)) {
+                throw new ResourceNotFoundException("Upload session not found");
+            }
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+
+        String checksum;
+        try {
+            checksum = checksumOf(session.partFile);
+        } catch (IOException e) {
+            deleteQuietly(session.partFile);
+            throw new FileStorageException("Cannot read upload", e);
+        }
+        if (session.checksum != null && !session.checksum.equals(checksum)) {
+            deleteQuietly(session.partFile);
+            throw new BadRequestException("Checksum mismatch, expected " + session.checksum + " but got " + checksum);
+        }
+
+        // Part file is handed over to the storage as is instead of being copied once more
+        StagedContent stagedContent = new StagedContent(session.partFile, checksum, session.fileSize);
+        return photoService.uploadStagedFile(customerId, fileDownloadUri, session.fileName, null, stagedContent);
+    }
+
+    /**
+     * Abort upload dropping received chunks
+     *
+     * @param customerId customer who uploads the photo
+     * @param uploadId   upload session ID
+     */
+    public void abort(Long customerId, String uploadId) {
+        UploadSession session = findSession(customerId, uploadId);
+        session.lock.writeLock().lock();
+        try {
+            if (remove(session)) {
+                deleteQuietly(session.partFile);
+            }
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop sessions not touched within the session timeout
+     */
+    @Scheduled(fixedDelayString = "${rest.photo.chunked.cleanup-interval-ms:600000}")
+    public void expireSessions() {
+        long expiredBefore = System.currentTimeMillis() - sessionTimeoutMillis;
+        for (UploadSession session : sessions.values()) {
+            // Session with a chunk being written is not idle, whatever its last access says
+            if (session.lastAccess < expiredBefore && session.lock.writeLock().tryLock()) {
+                try {
+                    if (remove(session)) {
+                        LOGGER.debug("Upload session {} expired", session.uploadId);
+                        deleteQuietly(session.partFile);
+                    }
+                } finally {
+                    session.lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Count the session in before its file is preallocated
+     */
+    private synchronized void reserve(Long customerId, long fileSize) {
+        int customerSessions = sessionsPerCustomer.getOrDefault(customerId, 0);
+        if (customerSessions >= maxSessionsPerCustomer) {
+            throw new TooManyRequestsException("Customer has " + customerSessions
+                    + " open uploads, complete or abort them first");
+        }
+        if (preallocatedBytes + fileSize > maxPreallocatedBytes) {
+            throw new PayloadTooLargeException("Open uploads take too much space, try again later");
+        }
+        sessionsPerCustomer.put(customerId, customerSessions + 1);
+        preallocatedBytes += fileSize;
+    }
+
+    private synchronized void release(Long customerId, long fileSize) {
+        sessionsPerCustomer.computeIfPresent(customerId, (id, count) -> count > 1 ? count - 1 : null);
+        preallocatedBytes -= fileSize;
+    }
+
+    /**
+     * Close the session, caller holds its write lock
+     *
+     * @return whether the session was still open and this call closed it
+     */
+    private boolean remove(UploadSession session) {
+        if (session.closed || !sessions.remove(session.uploadId, session)) {
+            return false;
+        }
+        session.closed = true;
+        release(session.customerId, session.fileSize);
+        return true;
+    }
+
+    private UploadSession findSession(Long customerId, String uploadId) {
+        UploadSession session = sessions.get(uploadId);
+        if (session == null || !session.customerId.equals(customerId)) {
+            throw new ResourceNotFoundException("Upload session not found");
+        }
+        session.lastAccess = System.currentTimeMillis();
+        return session;
+    }
+
+    private static void writeChunk(UploadSession session, long start, long count, InputStream inputStream) {
+        try (FileChannel channel = FileChannel.open(session.partFile, StandardOpenOption.WRITE)) {
+            ReadableByteChannel source = Channels.newChannel(inputStream);
+            long written = 0;
+            while (written < count) {
+                long transferred = channel.transferFrom(source, start + written, count - written);
+                if (transferred <= 0) {
+                    break;
+                }
+                written += transferred;
+            }
+            if (written < count || inputStream.read() != -1) {
+                throw new BadRequestException("Chunk length does not match Content-Range");
+            }
+        } catch (IOException e) {
+            throw new FileStorageException("Cannot write chunk", e);
+        }
+    }
+
+    /**
+     * Sessions live in memory only, part files left by a previous run cannot be resumed
+     */
+    private void deleteStalePartFiles() throws IOException {
+        if (!Files.isDirectory(uploadLocation)) {
+            return;
+        }
+        try (DirectoryStream<Path> partFiles = Files.newDirectoryStream(uploadLocation, "*" + PART_FILE_SUFFIX)) {
+            for (Path partFile : partFiles) {
+                deleteQuietly(partFile);
+            }
+        }
+    }
+
+    private static String checksumOf(Path file) throws IOException {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream inputStream = new DigestInputStream(Files.newInputStream(file), messageDigest)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (inputStream.read(buffer) != -1) {
+                // Digest is updated while reading
+            }
+        }
+        return String.format("%064x", new BigInteger(1, messageDigest.digest()));
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete upload file {}", file, e);
+        }
+    }
+
+    private static final class UploadSession {
+
+        private final String uploadId;
+        private final Long customerId;
+        private final String fileName;
+        private final long fileSize;
+        private final String checksum;
+        private final Path partFile;
+        // Received ranges by start offset, end offset exclusive, adjacent ranges are merged
+        private final TreeMap<Long, Long> ranges = new TreeMap<>();
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private volatile long lastAccess = System.currentTimeMillis();
+        private volatile boolean closed;
+
+        private UploadSession(String uploadId, Long customerId, String fileName, long fileSize,
+                              String checksum, Path partFile) {
+            this.uploadId = uploadId;
+            this.customerId = customerId;
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.checksum = checksum;
+            this.partFile = partFile;
+        }
+
+        private synchronized void received(long start, long end) {
+            Map.Entry<Long, Long> floor = ranges.floorEntry(start);
+            if (floor != null && floor.getValue() >= start) {
+                start = floor.getKey();
+                end = Math.max(end, floor.getValue());
+            }
+            Map.Entry<Long, Long> next = ranges.ceilingEntry(start);
+            while (next != null && next.getKey() <= end) {
+                end = Math.max(end, next.getValue());
+                ranges.remove(next.getKey());
+                next = ranges.ceilingEntry(start);
+            }
+            ranges.put(start, end);
+        }
+
+        private synchronized long receivedBytes() {
+            return ranges.entrySet().stream()
+                    .mapToLong(range -> range.getValue() - range.getKey())
+                    .sum();
+        }
+
+        private synchronized UploadSessionDTO toDTO() {
+            List<String> receivedRanges = new ArrayList<>(ranges.size());
+            ranges.forEach((start, end) -> receivedRanges.add(start + "-" + (end - 1)));
+            return new UploadSessionDTO(uploadId, customerId, fileName, fileSize, checksum,
+                    receivedBytes(), receivedRanges);
+        }
+    }
+}
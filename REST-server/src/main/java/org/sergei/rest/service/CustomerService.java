@@ -34,10 +34,12 @@ import java.util.List;
 public class CustomerService {
 
     protected final CustomerRepository customerRepository;
+    protected final PhotoCache photoCache;
 
     @Autowired
-    public CustomerService(CustomerRepository customerRepository) {
+    public CustomerService(CustomerRepository customerRepository, PhotoCache photoCache) {
         this.customerRepository = customerRepository;
+        this.photoCache = photoCache;
     }
 
     /***
@@ -122,6 +124,8 @@ public class CustomerService {
                         new ResourceNotFoundException(Constants.CUSTOMER_NOT_FOUND)
                 );
         customerRepository.delete(customer);
+        // Photos are deleted along with the customer
+        photoCache.evictCustomer(customerId);
         return ObjectMapperUtil.map(customer, CustomerDTO.class);
     }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.sergei.rest.security.ExpiringJdbcTokenStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.common.util.SerializationUtils;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes expired access and refresh tokens from the database token store, which never deletes them itself.
+ * Rows are deleted in small chunks with a pause in between, so no delete holds locks on the token tables
+ * for long. Tokens stored before their expiration was recorded in its own column get it filled in first.
+ *
+ * @author Sergei Visotsky
+ */
+@Service
+@ConditionalOnProperty(value = "rest.oauth.token-purge.enabled", havingValue = "true", matchIfMissing = true)
+public class ExpiredTokenPurger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExpiredTokenPurger.class);
+
+    // Unreadable token is due for deletion, the token store would reject it anyway
+    private static final Timestamp UNREADABLE = new Timestamp(0);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+    private final long pauseMillis;
+    private final Map<TokenTable, Counter> purgedRows = new EnumMap<>(TokenTable.class);
+    private final Map<TokenTable, AtomicLong> tableRows = new EnumMap<>(TokenTable.class);
+
+    @Autowired
+    public ExpiredTokenPurger(DataSource dataSource, MeterRegistry meterRegistry,
+                              @Value("${rest.oauth.token-purge.batch-size:500}") int batchSize,
+                              @Value("${rest.oauth.token-purge.pause-ms:100}") long pauseMillis) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+        for (TokenTable table : TokenTable.values()) {
+            purgedRows.put(table, Counter.builder("rest.oauth.token.purged")
+                    .description("Expired tokens deleted from the token store")
+                    .tag("table", table.tableName)
+                    .register(meterRegistry));
+            AtomicLong rows = new AtomicLong(-1);
+            tableRows.put(table, rows);
+            // Counted once per purge, not on every scrape
+            Gauge.builder("rest.oauth.token.rows", rows, count -> count.get() < 0 ? Double.NaN : count.get())
+                    .description("Rows of the token table after the last purge")
+                    .tag("table", table.tableName)
+                    .register(meterRegistry);
+        }
+    }
+
+    @Scheduled(initialDelayString = "${rest.oauth.token-purge.interval-ms:3600000}",
+            fixedDelayString = "${rest.oauth.token-purge.interval-ms:3600000}")
+    public void purge() {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        try {
+            for (TokenTable table : TokenTable.values()) {
+                fillExpiration(table);
+                purge(table, now);
+                tableRows.get(table).set(jdbcTemplate.queryForObject(table.countSql, Long.class));
+            }
+        } catch (DataAccessException e) {
+            LOGGER.warn("Expired token purge failed", e);
+        } catch (InterruptedException e) {
+            LOGGER.info("Expired token purge interrupted");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void purge(TokenTable table, Timestamp now) throws InterruptedException {
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update(table.deleteExpiredSql, now, batchSize);
+            purgedRows.get(table).increment(deleted);
+            pause();
+        } while (deleted >= batchSize);
+    }
+
+    private void fillExpiration(TokenTable table) throws InterruptedException {
+        // Rows without token id can neither be read by the token store nor updated by token id below
+        jdbcTemplate.update(table.expireWithoutTokenIdSql, UNREADABLE);
+        List<Object[]> expirations;
+        do {
+            expirations = new ArrayList<>();
+            for (Map<String, Object> row : jdbcTemplate.queryForList(table.selectWithoutExpirationSql, batchSize)) {
+                Timestamp expiration = table.expirationOf((byte[]) row.get("token"));
+                expirations.add(new Object[]{expiration, row.get("token_id")});
+            }
+            if (!expirations.isEmpty()) {
+                jdbcTemplate.batchUpdate(table.updateExpirationSql, expirations);
+                pause();
+            }
+        } while (expirations.size() >= batchSize);
+    }
+
+    private void pause() throws InterruptedException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+        if (pauseMillis > 0) {
+            Thread.sleep(pauseMillis);
+        }
+    }
+
+    private enum TokenTable {
+
+        ACCESS_TOKEN("oauth_access_token") {
+            @Override
+            Timestamp expirationOfToken(Object token) {
+                return ExpiringJdbcTokenStore.expirationOf((OAuth2AccessToken) token);
+            }
+        },
+        REFRESH_TOKEN("oauth_refresh_token") {
+            @Override
+            Timestamp expirationOfToken(Object token) {
+                return ExpiringJdbcTokenStore.expirationOf((OAuth2RefreshToken) token);
+            }
+        };
+
+        private final String tableName;
+        private final String deleteExpiredSql;
+        private final String expireWithoutTokenIdSql;
+        private final String selectWithoutExpirationSql;
+        private final String updateExpirationSql;
+        private final String countSql;
+
+        TokenTable(String tableName) {
+            this.tableName = tableName;
+            this.deleteExpiredSql = "delete from " + tableName + " where expiration < ? limit ?";
+            this.expireWithoutTokenIdSql = "update " + tableName + " set expiration = ?"
+                    + " where expiration is null and token_id is null";
+            this.selectWithoutExpirationSql = "select token_id, token from " + tableName
+                    + " where expiration is null and token_id is not null limit ?";
+            this.updateExpirationSql = "update " + tableName + " set expiration = ? where token_id = ?";
+            this.countSql = "select count(*) from " + tableName;
+        }
+
+        abstract Timestamp expirationOfToken(Object token);
+
+        private Timestamp expirationOf(byte[] serializedToken) {
+            try {
+                return expirationOfToken(SerializationUtils.deserialize(serializedToken));
+            } catch (IllegalArgumentException | ClassCastException e) {
+                return UNREADABLE;
+            }
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.sergei.rest.repository.PhotoRepository;
+import org.sergei.rest.service.storage.FileSystemPhotoStorage;
+import org.sergei.rest.service.storage.PhotoContent;
+import org.sergei.rest.service.storage.PhotoStorage;
+import org.sergei.rest.service.storage.SegmentPhotoStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+/**
+ * Reconciles files of the photo storage with the photos table. Photo rows may disappear without
+ * their files, e.g. when a customer is deleted together with photos, so stored files referenced by no
+ * photo are moved into quarantine and deleted once they stay there for the grace period.
+ * Files are checked in batches while the storage is being traversed, at a limited rate so
+ * the sweep does not compete with requests for disk and database.
+ * Contents of the segment storage are reconciled the same way, unreferenced ones are deleted
+ * right away since their records stay on disk until the segment is compacted.
+ *
+ * @author Sergei Visotsky
+ */
+@Service
+@ConditionalOnProperty(value = "rest.photo.sweeper.enabled", havingValue = "true", matchIfMissing = true)
+public class OrphanedPhotoSweeper {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OrphanedPhotoSweeper.class);
+
+    private final PhotoRepository photoRepository;
+    private final PhotoStorage photoStorage;
+    private final FileSystemPhotoStorage fileSystemStorage;
+    private final SegmentPhotoStorage segmentStorage;
+    private final int batchSize;
+    private final int filesPerSecond;
+    private final long minAgeMillis;
+    private final long gracePeriodMillis;
+
+    private final Counter quarantinedFiles;
+    private final Counter quarantinedBytes;
+    private final Counter reclaimedFiles;
+    private final Counter reclaimedBytes;
+    private final Counter deletedContents;
+    private final Counter deletedBytes;
+
+    @Autowired
+    public OrphanedPhotoSweeper(PhotoRepository photoRepository, PhotoStorage photoStorage,
+                                FileSystemPhotoStorage fileSystemStorage,
+                                Optional<SegmentPhotoStorage> segmentStorage, MeterRegistry meterRegistry,
+                                @Value("${rest.photo.sweeper.batch-size:100}") int batchSize,
+                                @Value("${rest.photo.sweeper.files-per-second:200}") int filesPerSecond,
+                                @Value("${rest.photo.sweeper.min-age-ms:3600000}") long minAgeMillis,
+                                @Value("${rest.photo.sweeper.grace-period-ms:604800000}") long gracePeriodMillis) {
+        this.photoRepository = photoRepository;
+        this.photoStorage = photoStorage;
+        this.fileSystemStorage = fileSystemStorage;
+        this.segmentStorage = segmentStorage.orElse(null);
+        this.batchSize = batchSize;
+        this.filesPerSecond = filesPerSecond;
+        this.minAgeMillis = minAgeMillis;
+        this.gracePeriodMillis = gracePeriodMillis;
+        this.quarantinedFiles = Counter.builder("rest.photo.sweeper.quarantined.files")
+                .description("Unreferenced photo files moved into quarantine")
+                .register(meterRegistry);
+        this.quarantinedBytes = Counter.builder("rest.photo.sweeper.quarantined.bytes")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.reclaimedFiles = Counter.builder("rest.photo.sweeper.reclaimed.files")
+                .description("Quarantined photo files deleted after the grace period")
+                .register(meterRegistry);
+        this.reclaimedBytes = Counter.builder("rest.photo.sweeper.reclaimed.bytes")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.deletedContents = Counter.builder("rest.photo.sweeper.deleted.contents")
+                .description("Unreferenced contents deleted from the segment storage")
+                .register(meterRegistry);
+        this.deletedBytes = Counter.builder("rest.photo.sweeper.deleted.bytes")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Quarantine unreferenced files, delete files quarantined longer than the grace period
+     * and delete unreferenced contents of the segment storage
+     */
+    @Scheduled(initialDelayString = "${rest.photo.sweeper.interval-ms:3600000}",
+            fixedDelayString = "${rest.photo.sweeper.interval-ms:3600000}")
+    public void sweep() {
+        long startTime = System.currentTimeMillis();
+        Throttle throttle = new Throttle(filesPerSecond);
+        List<StoredFile> batch = new ArrayList<>(batchSize);
+        try {
+            fileSystemStorage.forEachFile(file -> {
+                throttle.acquire();
+                batch.add(StoredFile.of(file));
+                if (batch.size() >= batchSize) {
+                    reconcile(batch, startTime);
+                    batch.clear();
+                }
+            });
+            reconcile(batch, startTime);
+
+            if (segmentStorage != null) {
+                sweepSegments(throttle, startTime);
+            }
+
+            fileSystemStorage.purgeQuarantine(startTime - gracePeriodMillis, size -> {
+                reclaimedFiles.increment();
+                reclaimedBytes.increment(size);
+            });
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.warn("Photo storage sweep failed", e);
+        } catch (SweepInterruptedException e) {
+            LOGGER.info("Photo storage sweep interrupted");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Files are first matched against the database in bulk, each unreferenced file is checked again
+     * holding the lock of its content so a concurrent upload of the same content is not lost
+     */
+    private void reconcile(List<StoredFile> batch, long startTime) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Set<String> checksums = new HashSet<>();
+        Set<String> fileNames = new HashSet<>();
+        for (StoredFile storedFile : batch) {
+            if (storedFile.checksum != null) {
+                checksums.add(storedFile.checksum);
+            } else {
+                fileNames.addAll(storedFile.fileNames);
+            }
+        }
+        Set<String> referenced = new HashSet<>();
+        if (!checksums.isEmpty()) {
+            referenced.addAll(photoRepository.findReferencedChecksums(checksums));
+        }
+        if (!fileNames.isEmpty()) {
+            referenced.addAll(photoRepository.findReferencedLegacyFileNames(fileNames));
+        }
+
+        for (StoredFile storedFile : batch) {
+            if (storedFile.checksum != null && !referenced.contains(storedFile.checksum)) {
+                photoStorage.withLock(storedFile.checksum, () -> {
+                    if (photoRepository.countByChecksum(storedFile.checksum) == 0) {
+                        quarantine(storedFile.file, startTime);
+                    }
+                    return null;
+                });
+            } else if (storedFile.checksum == null && Collections.disjoint(storedFile.fileNames, referenced)) {
+                // Photos are no longer stored by file name, so an unreferenced legacy file stays unreferenced
+                fileSystemStorage.withLock(storedFile.fileNames.get(storedFile.fileNames.size() - 1), () -> {
+                    quarantine(storedFile.file, startTime);
+                    return null;
+                });
+            }
+        }
+    }
+
+    private void sweepSegments(Throttle throttle, long startTime) {
+        List<String> batch = new ArrayList<>(batchSize);
+        segmentStorage.forEachContent((checksum, size, storedAt) -> {
+            // Recently stored content may belong to an upload whose metadata is not saved yet
+            if (storedAt > startTime - minAgeMillis) {
+                return;
+            }
+            throttle.acquire();
+            batch.add(checksum);
+            if (batch.size() >= batchSize) {
+                reconcileContents(batch);
+                batch.clear();
+            }
+        });
+        reconcileContents(batch);
+    }
+
+    private void reconcileContents(List<String> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Set<String> referenced = new HashSet<>(photoRepository.findReferencedChecksums(batch));
+        for (String checksum : batch) {
+            if (!referenced.contains(checksum)) {
+                photoStorage.withLock(checksum, () -> {
+                    if (photoRepository.countByChecksum(checksum) == 0) {
+                        delete(checksum);
+                    }
+                    return null;
+                });
+            }
+        }
+    }
+
+    private void delete(String checksum) {
+        PhotoContent content = segmentStorage.find(checksum);
+        if (content == null) {
+            return;
+        }
+        try {
+            long size = content.getSize();
+            segmentStorage.delete(checksum);
+            LOGGER.debug("Deleted unreferenced photo content {}", checksum);
+            deletedContents.increment();
+            deletedBytes.increment(size);
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete photo content {}", checksum, e);
+        }
+    }
+
+    private void quarantine(Path file, long startTime) {
+        try {
+            // Recently written file may belong to an upload whose metadata is not saved yet
+            if (Files.getLastModifiedTime(file).toMillis() > startTime - minAgeMillis) {
+                return;
+            }
+            long size = fileSystemStorage.quarantine(file);
+            if (size >= 0) {
+                LOGGER.debug("Quarantined unreferenced photo file {}", file);
+                quarantinedFiles.increment();
+                quarantinedBytes.increment(size);
+            }
+        } catch (NoSuchFileException e) {
+            // Deleted meanwhile
+        } catch (IOException e) {
+            LOGGER.warn("Could not quarantine {}", file, e);
+        }
+    }
+
+    /**
+     * Stored file with the content it belongs to: either the checksum or, for files stored by file name
+     * before content addressing, file names of photos which may reference it
+     */
+    private static final class StoredFile {
+
+        private final Path file;
+        private final String checksum;
+        private final List<String> fileNames;
+
+        private StoredFile(Path file, String checksum, List<String> fileNames) {
+            this.file = file;
+            this.checksum = checksum;
+            this.fileNames = fileNames;
+        }
+
+        private static StoredFile of(Path file) {
+            String fileName = file.getFileName().toString();
+            if (FileSystemPhotoStorage.CHECKSUM_PATTERN.matcher(fileName).matches()) {
+                return new StoredFile(file, fileName, Collections.emptyList());
+            }
+            Matcher thumbnail = FileSystemPhotoStorage.THUMBNAIL_PATTERN.matcher(fileName);
+            if (!thumbnail.matches()) {
+                return new StoredFile(file, null, Collections.singletonList(fileName));
+            }
+            String original = thumbnail.group(1);
+            if (FileSystemPhotoStorage.CHECKSUM_PATTERN.matcher(original).matches()) {
+                return new StoredFile(file, original, Collections.emptyList());
+            }
+            // Either thumbnail of a legacy photo or a legacy photo named like a thumbnail
+            List<String> fileNames = new ArrayList<>(2);
+            fileNames.add(fileName);
+            fileNames.add(original);
+            return new StoredFile(file, null, fileNames);
+        }
+    }
+
+    /**
+     * Spaces files evenly, so the sweep never visits more than the configured number of files per second
+     */
+    private static final class Throttle {
+
+        private final long intervalNanos;
+        private long nextPermit = System.nanoTime();
+
+        private Throttle(int permitsPerSecond) {
+            this.intervalNanos = permitsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / permitsPerSecond : 0;
+        }
+
+        private void acquire() {
+            if (intervalNanos == 0) {
+                return;
+            }
+            long waitNanos = nextPermit - System.nanoTime();
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    throw new SweepInterruptedException();
+                }
+            }
+            nextPermit = Math.max(nextPermit, System.nanoTime() - intervalNanos) + intervalNanos;
+        }
+    }
+
+    private static final class SweepInterruptedException extends RuntimeException {
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.sergei.rest.model.Photo;
+import org.sergei.rest.service.storage.CachedPhotoContent;
+import org.sergei.rest.service.storage.PhotoContent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * In-memory cache of downloaded photos: metadata keyed by customer and photo ID or file name,
+ * content keyed by checksum and bounded by its total size in bytes.
+ * Content cache admits a new entry only if it is requested more often than the entry it would evict,
+ * so one-off downloads do not push hot photos out. Content larger than the entry limit is never cached.
+ *
+ * @author Sergei Visotsky
+ */
+@Component
+public class PhotoCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PhotoCache.class);
+
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final long maxEntryBytes;
+    private final Cache<PhotoKey, PhotoMetadata> metadataCache;
+    private final Cache<String, CachedPhotoContent> contentCache;
+
+    @Autowired
+    public PhotoCache(MeterRegistry meterRegistry,
+                      @Value("${rest.photo.cache.max-bytes:67108864}") long maxBytes,
+                      @Value("${rest.photo.cache.max-entry-bytes:1048576}") long maxEntryBytes,
+                      @Value("${rest.photo.cache.metadata-max-entries:10000}") long metadataMaxEntries,
+                      @Value("${rest.photo.cache.metadata-ttl-ms:600000}") long metadataTtlMillis) {
+        this.maxEntryBytes = maxEntryBytes;
+        this.metadataCache = Caffeine.newBuilder()
+                .maximumSize(metadataMaxEntries)
+                .expireAfterWrite(metadataTtlMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        this.contentCache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String checksum, CachedPhotoContent content) ->
+                        (int) content.getSize() + ENTRY_OVERHEAD_BYTES)
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, metadataCache, "photoMetadata");
+        CaffeineCacheMetrics.monitor(meterRegistry, contentCache, "photoContent");
+        Gauge.builder("rest.photo.cache.hit.ratio", metadataCache, cache -> cache.stats().hitRate())
+                .tag("cache", "photoMetadata")
+                .register(meterRegistry);
+        Gauge.builder("rest.photo.cache.hit.ratio", contentCache, cache -> cache.stats().hitRate())
+                .tag("cache", "photoContent")
+                .register(meterRegistry);
+        Gauge.builder("rest.photo.cache.content.bytes", contentCache,
+                cache -> cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L))
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param customerId customer whose photo should be found
+     * @param photoId    photo ID
+     * @param loader     loads photo on cache miss, exception it throws is propagated
+     * @return photo metadata
+     */
+    public PhotoMetadata findById(Long customerId, Long photoId, Supplier<Photo> loader) {
+        return metadataCache.get(new PhotoKey(customerId, photoId, null), key -> PhotoMetadata.of(loader.get()));
+    }
+
+    /**
+     * @param customerId customer whose photo should be found
+     * @param fileName   photo file name
+     * @param loader     loads photo on cache miss, exception it throws is propagated
+     * @return photo metadata
+     */
+    public PhotoMetadata findByName(Long customerId, String fileName, Supplier<Photo> loader) {
+        return metadataCache.get(new PhotoKey(customerId, null, fileName), key -> PhotoMetadata.of(loader.get()));
+    }
+
+    /**
+     * Content is immutable for its checksum, so it is never invalidated as stale,
+     * only dropped once deleted to free memory
+     *
+     * @param checksum content checksum
+     * @param loader   finds stored content on cache miss
+     * @return cached copy of the content, stored content if it is too large to cache,
+     * {@code null} if there is no such content
+     */
+    public PhotoContent findContent(String checksum, Supplier<PhotoContent> loader) {
+        CachedPhotoContent cached = contentCache.getIfPresent(checksum);
+        if (cached != null) {
+            return cached;
+        }
+        PhotoContent content = loader.get();
+        if (content == null) {
+            return null;
+        }
+        try {
+            if (content.getSize() > maxEntryBytes) {
+                return content;
+            }
+            cached = CachedPhotoContent.copyOf(content);
+        } catch (IOException e) {
+            LOGGER.debug("Could not cache content {}", checksum, e);
+            return content;
+        }
+        contentCache.put(checksum, cached);
+        return cached;
+    }
+
+    /**
+     * Drop photo looked up by its ID and by its file name
+     */
+    public void evictPhoto(Long customerId, Long photoId, String fileName) {
+        metadataCache.invalidate(new PhotoKey(customerId, photoId, null));
+        metadataCache.invalidate(new PhotoKey(customerId, null, fileName));
+    }
+
+    /**
+     * Drop photo looked up by file name, so a newly uploaded file with the same name is found
+     */
+    public void evictFileName(Long customerId, String fileName) {
+        metadataCache.invalidate(new PhotoKey(customerId, null, fileName));
+    }
+
+    /**
+     * Drop all photos of the customer, e.g. when they are deleted together with the customer
+     */
+    public void evictCustomer(Long customerId) {
+        metadataCache.asMap().keySet().removeIf(key -> key.customerId.equals(customerId));
+    }
+
+    public void evictContent(String checksum) {
+        contentCache.invalidate(checksum);
+    }
+
+    /**
+     * Photo fields needed to find and serve its content
+     */
+    @Getter
+    @AllArgsConstructor
+    public static final class PhotoMetadata {
+
+        private final Long photoId;
+        private final String fileName;
+        private final String fileType;
+        private final String checksum;
+
+        private static PhotoMetadata of(Photo photo) {
+            return new PhotoMetadata(photo.getPhotoId(), photo.getFileName(), photo.getFileType(),
+                    photo.getChecksum());
+        }
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static final class PhotoKey {
+
+        private final Long customerId;
+        private final Long photoId;
+        private final String fileName;
+    }
+}
@@ -17,6 +17,7 @@
 package org.sergei.rest.service;
 
 import org.sergei.rest.dto.PhotoDTO;
+import org.sergei.rest.dto.PhotoUploadResultDTO;
 import org.sergei.rest.exceptions.FileNotFoundException;
 import org.sergei.rest.exceptions.FileStorageException;
 import org.sergei.rest.exceptions.ResourceNotFoundException;
@@ -24,24 +25,39 @@ import org.sergei.rest.model.Customer;
 import org.sergei.rest.model.Photo;
 import org.sergei.rest.repository.CustomerRepository;
 import org.sergei.rest.repository.PhotoRepository;
+import org.sergei.rest.service.PhotoCache.PhotoMetadata;
+import org.sergei.rest.service.storage.FilePhotoContent;
+import org.sergei.rest.service.storage.FileSystemPhotoStorage;
+import org.sergei.rest.service.storage.PhotoContent;
+import org.sergei.rest.service.storage.PhotoFile;
+import org.sergei.rest.service.storage.PhotoStorage;
+import org.sergei.rest.service.storage.StagedContent;
 import org.sergei.rest.util.ObjectMapperUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.multipart.commons.CommonsMultipartFile;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * @author Sergei Visotsky
@@ -51,16 +67,29 @@ public class PhotoService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PhotoService.class);
 
-    private static final String UPLOAD_DIR = "D:/Users/Sergei/Desktop/rest-api-multipart";
-    private final Path fileStorageLocation;
+    private final long maxFileSize;
     protected final PhotoRepository photoRepository;
     protected final CustomerRepository customerRepository;
+    protected final PhotoStorage photoStorage;
+    protected final FileSystemPhotoStorage fileSystemStorage;
+    protected final ThumbnailService thumbnailService;
+    protected final PhotoCache photoCache;
+    protected final Executor photoIoExecutor;
 
     @Autowired
-    public PhotoService(PhotoRepository photoRepository, CustomerRepository customerRepository) {
+    public PhotoService(PhotoRepository photoRepository, CustomerRepository customerRepository,
+                        PhotoStorage photoStorage, FileSystemPhotoStorage fileSystemStorage,
+                        ThumbnailService thumbnailService, PhotoCache photoCache,
+                        @Qualifier("photoIoExecutor") Executor photoIoExecutor,
+                        @Value("${rest.photo.max-file-size:10000000}") long maxFileSize) {
         this.photoRepository = photoRepository;
         this.customerRepository = customerRepository;
-        this.fileStorageLocation = Paths.get(UPLOAD_DIR).toAbsolutePath().normalize();
+        this.photoStorage = photoStorage;
+        this.fileSystemStorage = fileSystemStorage;
+        this.thumbnailService = thumbnailService;
+        this.photoCache = photoCache;
+        this.photoIoExecutor = photoIoExecutor;
+        this.maxFileSize = maxFileSize;
     }
 
     /**
@@ -101,105 +130,312 @@ public class PhotoService {
      */
     public PhotoDTO uploadFileByCustomerId(Long customerId, String fileDownloadUri,
                                            CommonsMultipartFile commonsMultipartFile) {
+        try (InputStream inputStream = commonsMultipartFile.getInputStream()) {
+            return uploadFile(customerId, fileDownloadUri, commonsMultipartFile.getOriginalFilename(),
+                    commonsMultipartFile.getContentType(), inputStream);
+        } catch (IOException e) {
+            throw new FileStorageException("Cannot store file", e);
+        }
+    }
 
-        String fileName = StringUtils.cleanPath(commonsMultipartFile.getOriginalFilename());
+    /**
+     * Method to upload file on the server streaming its content directly into the storage.
+     * Content is stored once per distinct SHA-256 checksum, uploads of the same content
+     * by any customer reference the already stored file.
+     *
+     * @param customerId       customer who uploads the file
+     * @param fileDownloadUri  file download uri created in REST controller
+     * @param originalFileName file name provided by the client
+     * @param contentType      content type provided by the client
+     * @param inputStream      file content, not closed by this method
+     * @return photo DTO response
+     */
+    public PhotoDTO uploadFile(Long customerId, String fileDownloadUri, String originalFileName,
+                               String contentType, InputStream inputStream) {
+        String fileName = validFileName(originalFileName, fileDownloadUri);
 
-        if (fileDownloadUri.length() > 150) {
-            throw new FileStorageException("Too long file name");
-        }
+        Customer customer = customerRepository.findById(customerId)
+                .orElseThrow(
+                        () -> new ResourceNotFoundException(Constants.CUSTOMER_NOT_FOUND)
+                );
 
-        // Filename recreation
+        StagedContent stagedContent;
         try {
-            // Check if file contains inappropriate symbols
-            if (fileName.contains("..")) {
-                throw new FileStorageException("Invalid path sequence");
-            }
-
-            // Store files on the server directory replacing existing if it exists
-            Path targetLocation = this.fileStorageLocation.resolve(fileName);
-            Files.copy(commonsMultipartFile.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
+            stagedContent = photoStorage.stage(inputStream, maxFileSize);
+        } catch (IOException e) {
+            throw new FileStorageException("Cannot store file", e);
+        }
+        return store(customer, fileDownloadUri, fileName, contentType, stagedContent);
+    }
 
-            Customer customer = customerRepository.findById(customerId)
+    /**
+     * Method to store content already written aside and save its metadata.
+     * Staged content is committed or discarded by this method.
+     *
+     * @param customerId       customer who uploads the file
+     * @param fileDownloadUri  file download uri created in REST controller
+     * @param originalFileName file name provided by the client
+     * @param contentType      content type provided by the client
+     * @param stagedContent    content with its size and checksum
+     * @return photo DTO response
+     */
+    public PhotoDTO uploadStagedFile(Long customerId, String fileDownloadUri, String originalFileName,
+                                     String contentType, StagedContent stagedContent) {
+        Customer customer;
+        String fileName;
+        try {
+            fileName = validFileName(originalFileName, fileDownloadUri);
+            customer = customerRepository.findById(customerId)
                     .orElseThrow(
                             () -> new ResourceNotFoundException(Constants.CUSTOMER_NOT_FOUND)
                     );
+        } catch (RuntimeException e) {
+            photoStorage.discard(stagedContent);
+            throw e;
+        }
+        return store(customer, fileDownloadUri, fileName, contentType, stagedContent);
+    }
 
+    /**
+     * Commit staged content and save its metadata, staged content is discarded if it was not committed
+     */
+    private PhotoDTO store(Customer customer, String fileDownloadUri, String fileName, String contentType,
+                           StagedContent stagedContent) {
+        try {
             Photo photo = new Photo();
 
             photo.setCustomer(customer);
-            photo.setFileName(commonsMultipartFile.getOriginalFilename());
+            photo.setFileName(fileName);
             photo.setFileUrl(fileDownloadUri);
-            photo.setFileType(commonsMultipartFile.getContentType());
-            photo.setFileSize(commonsMultipartFile.getSize());
-
-            // Save file metadata into a database
-            Photo savedPhoto = photoRepository.save(photo);
+            photo.setFileType(resolveContentType(fileName, contentType));
+            photo.setFileSize(stagedContent.getSize());
+            photo.setChecksum(stagedContent.getChecksum());
+
+            // Content and its reference appear together, so concurrent deletion cannot drop the content in between
+            Photo savedPhoto = photoStorage.withLock(stagedContent.getChecksum(), () -> {
+                try {
+                    photoStorage.commit(stagedContent);
+                } catch (IOException e) {
+                    throw new FileStorageException("Cannot store file", e);
+                }
+                // Save file metadata into a database
+                return photoRepository.save(photo);
+            });
+            photoCache.evictFileName(customer.getCustomerId(), fileName);
+
+            thumbnailService.generateAllAsync(toPhotoFile(savedPhoto));
 
             PhotoDTO savedPhotoDTO = ObjectMapperUtil.map(savedPhoto, PhotoDTO.class);
             savedPhotoDTO.setCustomerId(savedPhoto.getCustomer().getCustomerId());
 
             return savedPhotoDTO;
-        } catch (IOException e) {
-            throw new FileStorageException("Cannot store file");
+        } finally {
+            photoStorage.discard(stagedContent);
         }
     }
 
     /**
-     * Method to download file from the server by file name
+     * Method to upload several files at once. Files are written concurrently on the photo I/O executor,
+     * metadata of all stored files is saved in a single transaction. Failure of a file does not
+     * affect the others, it is reported in the result of that file. If the transaction fails,
+     * every file in it is reported as failed and its content is released.
      *
-     * @param customerId get customer number from the REST controller
-     * @param fileName   get file name from the RESt controller
-     * @return Resource
-     * @throws MalformedURLException throws in case of invalid uri
+     * @param customerId             customer who uploads the files
+     * @param fileDownloadUriBuilder builds file download uri from the file name, called on the caller thread
+     * @param files                  uploaded files
+     * @return upload result of every file in the order of the files
      */
-    public Resource downloadFileAsResourceByName(Long customerId, String fileName) throws MalformedURLException {
-        // Get filename by customer number written in database
-        Photo photo = photoRepository.findPhotoByCustomerIdAndFileName(customerId, fileName)
+    public List<PhotoUploadResultDTO> uploadFilesByCustomerId(Long customerId,
+                                                              Function<String, String> fileDownloadUriBuilder,
+                                                              CommonsMultipartFile[] files) {
+        Customer customer = customerRepository.findById(customerId)
                 .orElseThrow(
                         () -> new ResourceNotFoundException(Constants.CUSTOMER_NOT_FOUND)
                 );
 
-        Path filePath = this.fileStorageLocation.resolve(photo.getFileName()).normalize();
-        Resource resource = new UrlResource(filePath.toUri());
+        PhotoUploadResultDTO[] results = new PhotoUploadResultDTO[files.length];
+        String[] fileDownloadUris = new String[files.length];
+        List<CompletableFuture<StagedContent>> stagedContents = new ArrayList<>(files.length);
+        for (int i = 0; i < files.length; i++) {
+            CommonsMultipartFile file = files[i];
+            String fileName = file.getOriginalFilename();
+            try {
+                fileDownloadUris[i] = fileDownloadUriBuilder.apply(fileName);
+                fileName = validFileName(fileName, fileDownloadUris[i]);
+                stagedContents.add(CompletableFuture.supplyAsync(() -> stage(file), photoIoExecutor));
+            } catch (RuntimeException e) {
+                results[i] = failedUpload(fileName, e);
+                stagedContents.add(null);
+            }
+        }
 
-        // Check if file exists
-        if (resource.exists()) {
-            return resource;
-        } else {
-            throw new FileNotFoundException(Constants.FILE_NOT_FOUND);
+        Map<Integer, Photo> photos = new LinkedHashMap<>();
+        Map<Integer, StagedContent> committable = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < files.length; i++) {
+                if (results[i] != null) {
+                    continue;
+                }
+                String fileName = StringUtils.cleanPath(files[i].getOriginalFilename());
+                try {
+                    StagedContent stagedContent = stagedContents.get(i).join();
+                    committable.put(i, stagedContent);
+
+                    Photo photo = new Photo();
+                    photo.setCustomer(customer);
+                    photo.setFileName(fileName);
+                    photo.setFileUrl(fileDownloadUris[i]);
+                    photo.setFileType(resolveContentType(fileName, files[i].getContentType()));
+                    photo.setFileSize(stagedContent.getSize());
+                    photo.setChecksum(stagedContent.getChecksum());
+                    photos.put(i, photo);
+                } catch (CompletionException e) {
+                    results[i] = failedUpload(fileName, e.getCause());
+                }
+            }
+
+            if (!photos.isEmpty()) {
+                Set<String> checksums = committable.values().stream()
+                        .map(StagedContent::getChecksum)
+                        .collect(Collectors.toSet());
+                List<Photo> savedPhotos = photoStorage.withLocks(checksums, () -> {
+                    List<Photo> stored = new ArrayList<>(photos.size());
+                    for (Iterator<Map.Entry<Integer, Photo>> it = photos.entrySet().iterator(); it.hasNext(); ) {
+                        Map.Entry<Integer, Photo> entry = it.next();
+                        try {
+                            photoStorage.commit(committable.get(entry.getKey()));
+                            stored.add(entry.getValue());
+                        } catch (IOException e) {
+                            results[entry.getKey()] = failedUpload(entry.getValue().getFileName(),
+                                    new FileStorageException("Cannot store file", e));
+                            it.remove();
+                        }
+                    }
+                    // Save metadata of all files into a database in one batched transaction
+                    try {
+                        return photoRepository.saveAll(stored);
+                    } catch (RuntimeException e) {
+                        photos.forEach((index, photo) -> results[index] = failedUpload(photo.getFileName(), e));
+                        photos.clear();
+                        releaseUnreferenced(stored);
+                        return Collections.<Photo>emptyList();
+                    }
+                });
+
+                Iterator<Photo> savedPhoto = savedPhotos.iterator();
+                for (Integer index : photos.keySet()) {
+                    Photo photo = savedPhoto.next();
+                    photoCache.evictFileName(customer.getCustomerId(), photo.getFileName());
+                    thumbnailService.generateAllAsync(toPhotoFile(photo));
+
+                    PhotoDTO photoDTO = ObjectMapperUtil.map(photo, PhotoDTO.class);
+                    photoDTO.setCustomerId(customer.getCustomerId());
+                    results[index] = new PhotoUploadResultDTO(photo.getFileName(), HttpStatus.CREATED.value(),
+                            photoDTO, null);
+                }
+            }
+        } finally {
+            // Files which were not committed are dropped, including those still being written
+            stagedContents.stream()
+                    .filter(Objects::nonNull)
+                    .forEach(stagedContent -> stagedContent.thenAccept(photoStorage::discard));
         }
+
+        return Arrays.asList(results);
     }
 
     /**
-     * Method to download file from the server by file ID
+     * Delete committed content of photos whose metadata was not saved, unless other photos reference it.
+     * Caller must hold the locks of the content.
+     */
+    private void releaseUnreferenced(List<Photo> photos) {
+        photos.stream().map(Photo::getChecksum).distinct().forEach(checksum -> {
+            try {
+                if (photoRepository.countByChecksum(checksum) == 0) {
+                    photoStorage.delete(checksum);
+                }
+            } catch (IOException | RuntimeException e) {
+                // Left to the orphaned photo sweeper
+                LOGGER.warn("Could not release content {}", checksum, e);
+            }
+        });
+    }
+
+    /**
+     * Method to find photo file by file name
+     *
+     * @param customerId get customer number from the REST controller
+     * @param fileName   get file name from the RESt controller
+     * @return photo file to be downloaded
+     */
+    public PhotoFile findPhotoFileByName(Long customerId, String fileName) {
+        // Get filename by customer number written in database
+        PhotoMetadata photo = photoCache.findByName(customerId, fileName,
+                () -> photoRepository.findPhotoByCustomerIdAndFileName(customerId, fileName)
+                        .orElseThrow(
+                                () -> new ResourceNotFoundException(Constants.CUSTOMER_NOT_FOUND)
+                        ));
+        return toCachedPhotoFile(photo.getFileName(), photo.getFileType(), photo.getChecksum());
+    }
+
+    /**
+     * Method to find photo file by file ID
      *
      * @param customerId get customer number from the REST controller
      * @param photoId    get photo IR from the REST controller
-     * @return Returns resource
-     * @throws MalformedURLException throws in case of invalid uri
+     * @return photo file to be downloaded
      */
-    public Resource downloadFileAsResourceByFileId(Long customerId, Long photoId) throws MalformedURLException {
+    public PhotoFile findPhotoFileById(Long customerId, Long photoId) {
         // Get filename by customer id written in database
-        Photo photo = photoRepository.findByCustomerIdAndPhotoId(customerId, photoId)
+        PhotoMetadata photo = photoCache.findById(customerId, photoId,
+                () -> photoRepository.findByCustomerIdAndPhotoId(customerId, photoId)
+                        .orElseThrow(
+                                () -> new ResourceNotFoundException(Constants.CUSTOMER_NOT_FOUND)
+                        ));
+        return toCachedPhotoFile(photo.getFileName(), photo.getFileType(), photo.getChecksum());
+    }
+
+    /**
+     * Method to find photo file by content checksum
+     *
+     * @param customerId customer whose photo should be found
+     * @param checksum   SHA-256 checksum of the photo content
+     * @return photo file to be downloaded
+     */
+    public PhotoFile findPhotoFileByChecksum(Long customerId, String checksum) {
+        Photo photo = photoRepository.findAllByCustomerIdAndChecksum(customerId, checksum).stream()
+                .findFirst()
                 .orElseThrow(
-                        () -> new ResourceNotFoundException(Constants.CUSTOMER_NOT_FOUND)
+                        () -> new ResourceNotFoundException(Constants.PHOTO_NOT_FOUND)
                 );
+        return toCachedPhotoFile(photo.getFileName(), photo.getFileType(), photo.getChecksum());
+    }
 
-        String responseFileName = photo.getFileName();
-
-        Path filePath = this.fileStorageLocation.resolve(responseFileName).normalize();
-        Resource resource = new UrlResource(filePath.toUri());
-
-        // Check if file exists
-        if (resource.exists()) {
-            return resource;
-        } else {
-            throw new FileNotFoundException(Constants.FILE_NOT_FOUND);
+    /**
+     * Method to find files of all photos of the customer, photos whose content is missing are skipped
+     *
+     * @param customerId customer whose photos should be found
+     * @return photo files in the order of upload
+     */
+    public List<PhotoFile> findAllPhotoFiles(Long customerId) {
+        Customer customer = customerRepository.findById(customerId)
+                .orElseThrow(
+                        () -> new ResourceNotFoundException(Constants.CUSTOMER_NOT_FOUND)
+                );
+        List<PhotoFile> photoFiles = new ArrayList<>();
+        for (Photo photo : photoRepository.findAllPhotosByCustomerId(customer.getCustomerId())) {
+            try {
+                photoFiles.add(toPhotoFile(photo));
+            } catch (FileNotFoundException e) {
+                LOGGER.warn("Content of photo {} is missing", photo.getPhotoId());
+            }
         }
+        return photoFiles;
     }
 
     /**
-     * Method to perform file deletion by customer number and photo ID
+     * Method to perform file deletion by customer number and photo ID.
+     * Content is deleted from the storage once no photo references it.
      *
      * @param customerId get customer number from the REST controller
      * @param photoId    get photo IR from the REST controller
@@ -213,14 +449,128 @@ public class PhotoService {
                 );
 
         PhotoDTO photoDTO = ObjectMapperUtil.map(photo, PhotoDTO.class);
-        String responseFileName = photo.getFileName();
-
-        // Delete photo from the file storage
-        Path targetLocation = this.fileStorageLocation.resolve(responseFileName);
-        Files.deleteIfExists(targetLocation);
+        String checksum = photo.getChecksum();
+
+        if (checksum == null) {
+            // Photo stored by file name before content addressing
+            fileSystemStorage.withLock(photo.getFileName(), () -> {
+                Path filePath = fileSystemStorage.locateLegacy(photo.getFileName());
+                try {
+                    fileSystemStorage.deleteLegacy(photo.getFileName());
+                } catch (IOException e) {
+                    throw new FileStorageException("Cannot delete file", e);
+                }
+                thumbnailService.deleteThumbnails(new PhotoFile(new FilePhotoContent(filePath),
+                        photo.getFileName(), photo.getFileType(), null));
+                photoRepository.delete(photo);
+                return null;
+            });
+            photoCache.evictPhoto(customerId, photoId, photo.getFileName());
+            return photoDTO;
+        }
 
-        photoRepository.delete(photo); // Delete file metadata from the database
+        photoStorage.withLock(checksum, () -> {
+            photoRepository.delete(photo); // Delete file metadata from the database
+            if (photoRepository.countByChecksum(checksum) == 0) {
+                PhotoContent content = photoStorage.find(checksum);
+                try {
+                    photoStorage.delete(checksum);
+                    photoCache.evictContent(checksum);
+                    if (content != null) {
+                        thumbnailService.deleteThumbnails(new PhotoFile(content,
+                                photo.getFileName(), photo.getFileType(), checksum));
+                    }
+                } catch (IOException e) {
+                    throw new FileStorageException("Cannot delete file", e);
+                }
+            }
+            return null;
+        });
+        // Evicted once deleted, so a concurrent lookup cannot cache the photo again
+        photoCache.evictPhoto(customerId, photoId, photo.getFileName());
 
         return photoDTO;
     }
+
+    private String validFileName(String originalFileName, String fileDownloadUri) {
+        String fileName = StringUtils.cleanPath(originalFileName);
+
+        if (fileDownloadUri.length() > 150) {
+            throw new FileStorageException("Too long file name");
+        }
+
+        // Check if file contains inappropriate symbols
+        if (fileName.contains("..")) {
+            throw new FileStorageException("Invalid path sequence");
+        }
+        return fileName;
+    }
+
+    /**
+     * Content type is derived from the file name, type provided by the client is used only
+     * if the name does not tell it. Stored type is served on download as is.
+     */
+    private static String resolveContentType(String fileName, String clientContentType) {
+        Optional<MediaType> mediaType = MediaTypeFactory.getMediaType(fileName);
+        if (!mediaType.isPresent() && clientContentType != null) {
+            try {
+                mediaType = Optional.of(MediaType.parseMediaType(clientContentType));
+            } catch (InvalidMediaTypeException e) {
+                LOGGER.debug("Invalid content type {} of {}", clientContentType, fileName);
+            }
+        }
+        return mediaType.orElse(MediaType.APPLICATION_OCTET_STREAM).toString();
+    }
+
+    private StagedContent stage(CommonsMultipartFile file) {
+        try (InputStream inputStream = file.getInputStream()) {
+            return photoStorage.stage(inputStream, maxFileSize);
+        } catch (IOException e) {
+            throw new FileStorageException("Cannot store file", e);
+        }
+    }
+
+    /**
+     * Failed file is reported with the status its exception is mapped to
+     */
+    private static PhotoUploadResultDTO failedUpload(String fileName, Throwable e) {
+        ResponseStatus responseStatus = AnnotatedElementUtils.findMergedAnnotation(e.getClass(), ResponseStatus.class);
+        HttpStatus status = responseStatus != null ? responseStatus.code() : HttpStatus.INTERNAL_SERVER_ERROR;
+        LOGGER.debug("Upload of {} failed", fileName, e);
+        return new PhotoUploadResultDTO(fileName, status.value(), null, e.getMessage());
+    }
+
+    /**
+     * Content addressed photos are served from the cache, files of photos stored by file name are not cached
+     */
+    private PhotoFile toCachedPhotoFile(String fileName, String fileType, String checksum) {
+        PhotoContent content;
+        if (checksum != null) {
+            content = photoCache.findContent(checksum, () -> photoStorage.find(checksum));
+        } else {
+            Path filePath = fileSystemStorage.locateLegacy(fileName);
+            content = Files.exists(filePath) ? new FilePhotoContent(filePath) : null;
+        }
+
+        if (content == null) {
+            throw new FileNotFoundException(Constants.FILE_NOT_FOUND);
+        }
+        return new PhotoFile(content, fileName, fileType, checksum);
+    }
+
+    private PhotoFile toPhotoFile(Photo photo) {
+        PhotoContent content;
+        if (photo.getChecksum() != null) {
+            content = photoStorage.find(photo.getChecksum());
+        } else {
+            Path filePath = fileSystemStorage.locateLegacy(photo.getFileName());
+            content = Files.exists(filePath) ? new FilePhotoContent(filePath) : null;
+        }
+
+        // Check if file exists
+        if (content == null) {
+            throw new FileNotFoundException(Constants.FILE_NOT_FOUND);
+        }
+        return new PhotoFile(content, photo.getFileName(), photo.getFileType(), photo.getChecksum());
+    }
 }
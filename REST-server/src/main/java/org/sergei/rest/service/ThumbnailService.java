@@ -0,0 +1,329 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sergei.rest.service;
+
+import org.sergei.rest.exceptions.BadRequestException;
+import org.sergei.rest.exceptions.FileStorageException;
+import org.sergei.rest.service.storage.FilePhotoContent;
+import org.sergei.rest.service.storage.FileSystemPhotoStorage;
+import org.sergei.rest.service.storage.PhotoContent;
+import org.sergei.rest.service.storage.PhotoFile;
+import org.sergei.rest.service.storage.PhotoStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Generates downscaled photo variants stored next to the original file,
+ * variants of contents not stored as files are kept where the file system storage would put the content.
+ * Variants are generated in background after upload and on demand if missing,
+ * concurrent requests for the same missing variant share a single generation.
+ * Variant is put in place holding the lock of its original and only if the original still exists,
+ * so a variant finished after deletion of its photo is not left behind.
+ * Image dimensions are checked before decoding, images over the pixel limit get no variants
+ * and the rest is decoded subsampled close to the variant size rather than at full size.
+ *
+ * @author Sergei Visotsky
+ */
+@Service
+public class ThumbnailService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ThumbnailService.class);
+
+    private static final String PNG = "png";
+    private static final String JPEG = "jpg";
+    private static final long GENERATION_TIMEOUT_SECONDS = 30;
+
+    private final TaskExecutor thumbnailExecutor;
+    private final FileSystemPhotoStorage fileSystemStorage;
+    private final PhotoStorage photoStorage;
+    private final List<Integer> sizes;
+    private final long maxPixels;
+    private final ConcurrentMap<Path, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ThumbnailService(@Qualifier("thumbnailExecutor") TaskExecutor thumbnailExecutor,
+                            FileSystemPhotoStorage fileSystemStorage,
+                            PhotoStorage photoStorage,
+                            @Value("${rest.photo.thumbnail.sizes:64,256}") List<Integer> sizes,
+                            @Value("${rest.photo.thumbnail.max-pixels:50000000}") long maxPixels) {
+        this.thumbnailExecutor = thumbnailExecutor;
+        this.fileSystemStorage = fileSystemStorage;
+        this.photoStorage = photoStorage;
+        this.sizes = sizes;
+        this.maxPixels = maxPixels;
+    }
+
+    /**
+     * Queue generation of all configured variants, variants which cannot be queued are generated on demand
+     *
+     * @param photoFile original photo
+     */
+    public void generateAllAsync(PhotoFile photoFile) {
+        if (!isImage(photoFile)) {
+            return;
+        }
+        for (Integer size : sizes) {
+            Path variant = variantPath(photoFile, size);
+            if (!Files.exists(variant)) {
+                generate(photoFile, variant, size, false);
+            }
+        }
+    }
+
+    /**
+     * Find photo variant generating it if missing
+     *
+     * @param photoFile original photo
+     * @param size      maximum width and height of the variant
+     * @return photo variant
+     */
+    public PhotoFile findThumbnail(PhotoFile photoFile, int size) {
+        if (!sizes.contains(size)) {
+            throw new BadRequestException("Unsupported thumbnail size, supported sizes: " + sizes);
+        }
+        if (!isImage(photoFile)) {
+            throw new BadRequestException("Thumbnail is not available for this file");
+        }
+
+        Path variant = variantPath(photoFile, size);
+        if (!Files.exists(variant)) {
+            try {
+                generate(photoFile, variant, size, true)
+                        .get(GENERATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FileStorageException("Thumbnail generation interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ImageTooLargeException) {
+                    throw new BadRequestException("Thumbnail is not available for images larger than "
+                            + maxPixels + " pixels");
+                }
+                throw new FileStorageException("Cannot generate thumbnail", e);
+            } catch (TimeoutException e) {
+                throw new FileStorageException("Cannot generate thumbnail", e);
+            }
+        }
+
+        String fileName = StringUtils.stripFilenameExtension(photoFile.getFileName())
+                + "_" + size + "." + formatOf(photoFile);
+        String checksum = photoFile.getChecksum() != null ? photoFile.getChecksum() + "-" + size : null;
+        return new PhotoFile(new FilePhotoContent(variant), fileName, "image/" + (PNG.equals(formatOf(photoFile)) ? PNG : "jpeg"), checksum);
+    }
+
+    /**
+     * Delete all variants of the photo
+     *
+     * @param photoFile original photo
+     */
+    public void deleteThumbnails(PhotoFile photoFile) {
+        Path original = originalPath(photoFile);
+        for (Integer size : sizes) {
+            for (String format : new String[]{PNG, JPEG}) {
+                try {
+                    Files.deleteIfExists(variantPath(original, size, format));
+                } catch (IOException e) {
+                    LOGGER.warn("Could not delete thumbnail of {}", original, e);
+                }
+            }
+        }
+    }
+
+    private CompletableFuture<Path> generate(PhotoFile original, Path variant, int size, boolean onDemand) {
+        CompletableFuture<Path> future = new CompletableFuture<>();
+        CompletableFuture<Path> existing = inFlight.putIfAbsent(variant, future);
+        if (existing != null) {
+            return existing;
+        }
+        future.whenComplete((path, e) -> inFlight.remove(variant, future));
+
+        try {
+            thumbnailExecutor.execute(() -> render(original, variant, size, future));
+        } catch (TaskRejectedException e) {
+            if (onDemand) {
+                // Pool is saturated, requester generates variant itself
+                render(original, variant, size, future);
+            } else {
+                LOGGER.debug("Thumbnail queue is full, {} will be generated on demand", variant);
+                future.completeExceptionally(e);
+            }
+        }
+        return future;
+    }
+
+    private void render(PhotoFile original, Path variant, int size, CompletableFuture<Path> future) {
+        try {
+            BufferedImage image = read(original.getContent(), variant, size);
+            double scale = Math.min(1.0, Math.min((double) size / image.getWidth(), (double) size / image.getHeight()));
+            int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+            int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+            String format = variant.getFileName().toString().endsWith(PNG) ? PNG : JPEG;
+
+            BufferedImage thumbnail = new BufferedImage(width, height,
+                    PNG.equals(format) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = thumbnail.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(image, 0, 0, width, height, null);
+            } finally {
+                graphics.dispose();
+            }
+
+            // Written aside and moved in place, so readers never see partially written variant
+            Files.createDirectories(variant.getParent());
+            Path tempFile = Files.createTempFile(variant.getParent(), ".thumbnail-", ".tmp");
+            try {
+                ImageIO.write(thumbnail, format, tempFile.toFile());
+                IOException failure = withOriginalLock(original, () -> {
+                    if (!exists(original)) {
+                        return new NoSuchFileException(variant.toString(), null, "Original was deleted");
+                    }
+                    try {
+                        Files.move(tempFile, variant, StandardCopyOption.ATOMIC_MOVE,
+                                StandardCopyOption.REPLACE_EXISTING);
+                        return null;
+                    } catch (IOException e) {
+                        return e;
+                    }
+                });
+                if (failure != null) {
+                    throw failure;
+                }
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            future.complete(variant);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Cannot generate thumbnail {}", variant, e);
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Decode image subsampled to at least twice the variant size, which is enough for smooth downscaling
+     */
+    private BufferedImage read(PhotoContent original, Path variant, int size) throws IOException {
+        try (InputStream inputStream = original.openStream();
+             ImageInputStream imageStream = ImageIO.createImageInputStream(inputStream)) {
+            Iterator<ImageReader> readers = imageStream != null
+                    ? ImageIO.getImageReaders(imageStream)
+                    : Collections.emptyIterator();
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + variant);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageStream, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    throw new ImageTooLargeException(variant + " is " + width + "x" + height + " pixels");
+                }
+                int subsampling = Math.max(1, Math.min(width, height) / (2 * size));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Originals are deleted holding the lock of their content, or of their file name if stored before
+     * content addressing
+     */
+    private <T> T withOriginalLock(PhotoFile original, Supplier<T> action) {
+        return original.getChecksum() != null
+                ? photoStorage.withLock(original.getChecksum(), action)
+                : fileSystemStorage.withLock(original.getFileName(), action);
+    }
+
+    private boolean exists(PhotoFile original) {
+        return original.getChecksum() != null
+                ? photoStorage.find(original.getChecksum()) != null
+                : Files.exists(original.getContent().getFile());
+    }
+
+    private Path variantPath(PhotoFile photoFile, int size) {
+        return variantPath(originalPath(photoFile), size, formatOf(photoFile));
+    }
+
+    private Path originalPath(PhotoFile photoFile) {
+        Path file = photoFile.getContent().getFile();
+        return file != null ? file : fileSystemStorage.resolve(photoFile.getChecksum());
+    }
+
+    private static Path variantPath(Path original, int size, String format) {
+        return original.resolveSibling(original.getFileName() + "." + size + "." + format);
+    }
+
+    /**
+     * Variants of PNG images keep transparency, everything else is stored as JPEG
+     */
+    private static String formatOf(PhotoFile photoFile) {
+        return MediaTypeFactory.getMediaType(photoFile.getFileName())
+                .filter(MediaType.IMAGE_PNG::equals)
+                .map(mediaType -> PNG)
+                .orElse(JPEG);
+    }
+
+    private static boolean isImage(PhotoFile photoFile) {
+        return MediaTypeFactory.getMediaType(photoFile.getFileName())
+                .map(mediaType -> "image".equals(mediaType.getType()))
+                .orElse(false);
+    }
+
+    private static final class ImageTooLargeException extends IOException {
+
+        private ImageTooLargeException(String message) {
+            super(message);
+        }
+    }
+}
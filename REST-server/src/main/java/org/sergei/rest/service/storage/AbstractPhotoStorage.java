@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.service.storage;
+
+import org.sergei.rest.exceptions.PayloadTooLargeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Staging of uploaded content and striped content locks shared by the storage backends.
+ * Locks are local to the JVM, storage must not be shared by several instances. They are held during
+ * file I/O, so they are explicit locks rather than monitors which would pin virtual threads to their carrier.
+ *
+ * @author Sergei Visotsky
+ */
+public abstract class AbstractPhotoStorage implements PhotoStorage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractPhotoStorage.class);
+
+    protected static final String TEMP_FILE_PREFIX = ".upload-";
+    protected static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String CHECKSUM_ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 8192;
+    private static final int LOCK_STRIPES = 64;
+
+    private final Path stagingLocation;
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    protected AbstractPhotoStorage(Path stagingLocation) {
+        this.stagingLocation = stagingLocation;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public StagedContent stage(InputStream inputStream, long maxSize) throws IOException {
+        Files.createDirectories(stagingLocation);
+        Path tempFile = Files.createTempFile(stagingLocation, TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX);
+        try {
+            MessageDigest messageDigest = newMessageDigest();
+            long size;
+            try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+                size = copy(new DigestInputStream(inputStream, messageDigest), outputStream, maxSize);
+            }
+            return new StagedContent(tempFile, toHex(messageDigest.digest()), size);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(tempFile);
+            throw e;
+        }
+    }
+
+    @Override
+    public void discard(StagedContent stagedContent) {
+        deleteQuietly(stagedContent.getTempFile());
+    }
+
+    @Override
+    public <T> T withLock(String checksum, Supplier<T> action) {
+        ReentrantLock lock = locks[stripeOf(checksum)];
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Locks are always taken in the same order, so concurrent callers cannot deadlock.
+     */
+    @Override
+    public <T> T withLocks(Collection<String> checksums, Supplier<T> action) {
+        int[] stripes = checksums.stream()
+                .mapToInt(AbstractPhotoStorage::stripeOf)
+                .distinct()
+                .sorted()
+                .toArray();
+        return withStripes(stripes, 0, action);
+    }
+
+    private <T> T withStripes(int[] stripes, int index, Supplier<T> action) {
+        if (index == stripes.length) {
+            return action.get();
+        }
+        ReentrantLock lock = locks[stripes[index]];
+        lock.lock();
+        try {
+            return withStripes(stripes, index + 1, action);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int stripeOf(String checksum) {
+        return (checksum.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES;
+    }
+
+    /**
+     * Copy stream content rejecting it as soon as it exceeds maximum size
+     */
+    private static long copy(InputStream inputStream, OutputStream outputStream, long maxSize) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            size += read;
+            if (size > maxSize) {
+                throw new PayloadTooLargeException("File exceeds maximum size of " + maxSize + " bytes");
+            }
+            outputStream.write(buffer, 0, read);
+        }
+        return size;
+    }
+
+    protected static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance(CHECKSUM_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(CHECKSUM_ALGORITHM + " is not supported", e);
+        }
+    }
+
+    protected static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete temporary file {}", file, e);
+        }
+    }
+
+    protected static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.service.storage;
+
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * Content copied into memory
+ *
+ * @author Sergei Visotsky
+ */
+public class CachedPhotoContent implements PhotoContent {
+
+    private final byte[] bytes;
+    private final long lastModified;
+
+    private CachedPhotoContent(byte[] bytes, long lastModified) {
+        this.bytes = bytes;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Read the whole content into memory
+     *
+     * @param content stored content
+     * @return copy of the content
+     * @throws IOException in case content cannot be read
+     */
+    public static CachedPhotoContent copyOf(PhotoContent content) throws IOException {
+        long lastModified = content.getLastModified();
+        try (InputStream inputStream = content.openStream()) {
+            return new CachedPhotoContent(StreamUtils.copyToByteArray(inputStream), lastModified);
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return bytes.length;
+    }
+
+    @Override
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public InputStream openStream() {
+        return new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public void writeTo(WritableByteChannel channel, long position, long count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, (int) position, (int) count);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public Path getFile() {
+        return null;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.service.storage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Content stored as a standalone file
+ *
+ * @author Sergei Visotsky
+ */
+public class FilePhotoContent implements PhotoContent {
+
+    private final Path file;
+
+    public FilePhotoContent(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return Files.size(file);
+    }
+
+    @Override
+    public long getLastModified() throws IOException {
+        return Files.getLastModifiedTime(file).toMillis();
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        return Files.newInputStream(file);
+    }
+
+    @Override
+    public void writeTo(WritableByteChannel channel, long position, long count) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long end = position + count;
+            while (position < end) {
+                long transferred = fileChannel.transferTo(position, end - position, channel);
+                if (transferred == 0) {
+                    throw new EOFException("File " + file + " ended at " + position + " of " + end + " bytes");
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    @Override
+    public Path getFile() {
+        return file;
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sergei.rest.service.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Photo storage keeping every content in its own file.
+ * Files are spread over two levels of directories named by the first hex digits of the checksum,
+ * e.g. {@code ab/cd/abcd...}, files stored in the root directory by former versions are still
+ * read until {@link #migrate(MigrationListener)} moves them.
+ * Also holds files of photos stored by file name before content addressing.
+ *
+ * @author Sergei Visotsky
+ */
+@Component
+public class FileSystemPhotoStorage extends AbstractPhotoStorage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileSystemPhotoStorage.class);
+
+    public static final String UPLOAD_DIR = "D:/Users/Sergei/Desktop/rest-api-multipart";
+    public static final Pattern CHECKSUM_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    public static final Pattern THUMBNAIL_PATTERN = Pattern.compile("(.+)\\.\\d+\\.(png|jpg)");
+    private static final int SHARD_LEVELS = 2;
+    private static final int SHARD_WIDTH = 2;
+    private static final Pattern SHARD_PATTERN = Pattern.compile("[0-9a-f]{" + SHARD_WIDTH + "}");
+    private static final String QUARANTINE_DIR = ".quarantine";
+
+    private final Path storageLocation;
+    private final Path quarantineLocation;
+
+    @Autowired
+    public FileSystemPhotoStorage(@Value("${rest.photo.upload-dir:" + UPLOAD_DIR + "}") String uploadDir) {
+        this(Paths.get(uploadDir).toAbsolutePath().normalize());
+    }
+
+    private FileSystemPhotoStorage(Path storageLocation) {
+        super(storageLocation);
+        this.storageLocation = storageLocation;
+        this.quarantineLocation = storageLocation.resolve(QUARANTINE_DIR);
+    }
+
+    @Override
+    public void commit(StagedContent stagedContent) throws IOException {
+        Path target = resolve(stagedContent.getChecksum());
+        if (Files.exists(target) || Files.exists(storageLocation.resolve(stagedContent.getChecksum()))) {
+            deleteQuietly(stagedContent.getTempFile());
+            return;
+        }
+        Files.createDirectories(target.getParent());
+        try {
+            try {
+                move(stagedContent.getTempFile(), target);
+            } catch (AtomicMoveNotSupportedException e) {
+                // Staged on another file system, e.g. part file of a chunked upload, so it is copied next to the target
+                copyAndMove(stagedContent.getTempFile(), target);
+            }
+        } catch (FileAlreadyExistsException e) {
+            deleteQuietly(stagedContent.getTempFile());
+        }
+    }
+
+    void move(Path source, Path target) throws IOException {
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void copyAndMove(Path source, Path target) throws IOException {
+        Path copy = Files.createTempFile(storageLocation, TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX);
+        try {
+            Files.copy(source, copy, StandardCopyOption.REPLACE_EXISTING);
+            move(copy, target);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(copy);
+            throw e;
+        }
+        deleteQuietly(source);
+    }
+
+    /**
+     * @param checksum content checksum
+     * @return path of the content in the sharded layout
+     */
+    public Path resolve(String checksum) {
+        return shardOf(checksum).resolve(checksum);
+    }
+
+    /**
+     * @param fileName file name of a photo stored before content addressing
+     * @return path of the file in the sharded layout
+     */
+    public Path resolveLegacy(String fileName) {
+        Path fileNamePath = Paths.get(fileName).getFileName();
+        return shardOf(toHex(newMessageDigest().digest(fileNamePath.toString().getBytes(StandardCharsets.UTF_8))))
+                .resolve(fileNamePath);
+    }
+
+    /**
+     * Content is looked up in the root directory if it has not been migrated yet
+     */
+    @Override
+    public PhotoContent find(String checksum) {
+        Path file = locate(checksum);
+        return Files.exists(file) ? new FilePhotoContent(file) : null;
+    }
+
+    /**
+     * Find content falling back to the root directory if it has not been migrated yet
+     *
+     * @param checksum content checksum
+     * @return path of the content, sharded path if content does not exist
+     */
+    public Path locate(String checksum) {
+        return locate(resolve(checksum), storageLocation.resolve(checksum));
+    }
+
+    /**
+     * Find file of a photo stored before content addressing falling back to the root directory
+     *
+     * @param fileName file name
+     * @return path of the file, sharded path if file does not exist
+     */
+    public Path locateLegacy(String fileName) {
+        return locate(resolveLegacy(fileName), storageLocation.resolve(fileName).normalize());
+    }
+
+    @Override
+    public void delete(String checksum) throws IOException {
+        Files.deleteIfExists(resolve(checksum));
+        Files.deleteIfExists(storageLocation.resolve(checksum));
+    }
+
+    /**
+     * Delete file of a photo stored before content addressing
+     *
+     * @param fileName file name
+     * @throws IOException in case file cannot be deleted
+     */
+    public void deleteLegacy(String fileName) throws IOException {
+        Files.deleteIfExists(resolveLegacy(fileName));
+        Files.deleteIfExists(storageLocation.resolve(fileName).normalize());
+    }
+
+    /**
+     * Move files stored in the root directory into the sharded layout.
+     * Safe to run while the storage is in use: every file is moved holding its lock and
+     * readers fall back to the root directory until the file is moved.
+     * Thumbnails are moved next to their originals.
+     *
+     * @param listener notified of every moved file and every failure
+     * @throws IOException in case the root directory cannot be listed
+     */
+    public void migrate(MigrationListener listener) throws IOException {
+        if (!Files.isDirectory(storageLocation)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(storageLocation, Files::isRegularFile)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                // Temporary files are written into the root directory and never moved
+                if (fileName.startsWith(".")) {
+                    continue;
+                }
+                try {
+                    migrateFile(file, fileName);
+                    listener.moved(file);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.warn("Could not migrate {}", file, e);
+                    listener.failed(file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Visit every stored file, both in the sharded layout and not migrated yet, including thumbnails.
+     * Directories are streamed so they are never listed into memory as a whole,
+     * temporary files and directories other than shards are skipped.
+     *
+     * @param action action invoked with every file, may move the file away
+     * @throws IOException in case a directory cannot be listed
+     */
+    public void forEachFile(Consumer<Path> action) throws IOException {
+        if (Files.isDirectory(storageLocation)) {
+            forEachFile(storageLocation, 0, action);
+        }
+    }
+
+    private void forEachFile(Path directory, int level, Consumer<Path> action) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (name.startsWith(".")) {
+                    continue;
+                }
+                if (level < SHARD_LEVELS && SHARD_PATTERN.matcher(name).matches() && Files.isDirectory(entry)) {
+                    forEachFile(entry, level + 1, action);
+                } else if ((level == 0 || level == SHARD_LEVELS) && Files.isRegularFile(entry)) {
+                    action.accept(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Move stored file into the quarantine directory keeping its relative path, so it can be put back by hand.
+     * Modification time of the quarantined file is set to the time of quarantine.
+     * Caller must hold the lock of the file content.
+     *
+     * @param file stored file
+     * @return size of the file, {@code -1} if the file does not exist anymore
+     * @throws IOException in case file cannot be moved
+     */
+    public long quarantine(Path file) throws IOException {
+        Path target = quarantineLocation.resolve(storageLocation.relativize(file));
+        try {
+            long size = Files.size(file);
+            Files.createDirectories(target.getParent());
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+            return size;
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Delete files quarantined before the given time
+     *
+     * @param quarantinedBefore time in milliseconds since the epoch
+     * @param deleted           notified with the size of every deleted file
+     * @throws IOException in case the quarantine directory cannot be listed
+     */
+    public void purgeQuarantine(long quarantinedBefore, LongConsumer deleted) throws IOException {
+        if (!Files.isDirectory(quarantineLocation)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(quarantineLocation)) {
+            files.filter(Files::isRegularFile).forEach(file -> {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < quarantinedBefore) {
+                        long size = Files.size(file);
+                        Files.delete(file);
+                        deleted.accept(size);
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn("Could not delete quarantined file {}", file, e);
+                }
+            });
+        }
+    }
+
+    private void migrateFile(Path file, String fileName) throws IOException {
+        Matcher thumbnail = THUMBNAIL_PATTERN.matcher(fileName);
+        String original = thumbnail.matches() && isStored(thumbnail.group(1)) ? thumbnail.group(1) : fileName;
+        Path target = (CHECKSUM_PATTERN.matcher(original).matches() ? resolve(original) : resolveLegacy(original))
+                .resolveSibling(fileName);
+
+        IOException failure = withLock(original, () -> {
+            try {
+                Files.createDirectories(target.getParent());
+                if (Files.exists(target)) {
+                    // Same content was committed into the sharded layout meanwhile
+                    Files.deleteIfExists(file);
+                } else {
+                    Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+                }
+                return null;
+            } catch (NoSuchFileException e) {
+                // Deleted meanwhile, nothing to migrate
+                return null;
+            } catch (IOException e) {
+                return e;
+            }
+        });
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Whether the original of a possible thumbnail is stored in either layout
+     */
+    private boolean isStored(String fileName) {
+        if (Files.exists(storageLocation.resolve(fileName))) {
+            return true;
+        }
+        return CHECKSUM_PATTERN.matcher(fileName).matches()
+                ? Files.exists(resolve(fileName))
+                : Files.exists(resolveLegacy(fileName));
+    }
+
+    /**
+     * Sharded location is checked again after the root directory,
+     * so a file moved by concurrent migration is not missed
+     */
+    private static Path locate(Path sharded, Path root) {
+        if (Files.exists(sharded)) {
+            return sharded;
+        }
+        if (Files.exists(root)) {
+            return root;
+        }
+        return sharded;
+    }
+
+    private Path shardOf(String hex) {
+        Path shard = storageLocation;
+        for (int level = 0; level < SHARD_LEVELS; level++) {
+            shard = shard.resolve(hex.substring(level * SHARD_WIDTH, (level + 1) * SHARD_WIDTH));
+        }
+        return shard;
+    }
+
+    /**
+     * Progress callback of {@link #migrate(MigrationListener)}
+     */
+    public interface MigrationListener {
+
+        void moved(Path file);
+
+        void failed(Path file, Exception e);
+    }
+}
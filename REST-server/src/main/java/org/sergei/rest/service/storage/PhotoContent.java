@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.service.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * Stored photo content independent of the storage backend
+ *
+ * @author Sergei Visotsky
+ */
+public interface PhotoContent {
+
+    /**
+     * @return content size in bytes
+     */
+    long getSize() throws IOException;
+
+    /**
+     * @return time the content was stored in milliseconds since the epoch
+     */
+    long getLastModified() throws IOException;
+
+    /**
+     * @return stream reading the whole content, to be closed by the caller
+     */
+    InputStream openStream() throws IOException;
+
+    /**
+     * Write part of the content
+     *
+     * @param channel  target channel
+     * @param position first byte to write
+     * @param count    number of bytes to write
+     * @throws IOException in case content cannot be read or written
+     */
+    void writeTo(WritableByteChannel channel, long position, long count) throws IOException;
+
+    /**
+     * @return file holding exactly this content, {@code null} if content is not a standalone file
+     */
+    Path getFile();
+}
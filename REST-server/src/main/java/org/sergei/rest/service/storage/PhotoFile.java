@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sergei.rest.service.storage;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Stored photo content resolved for download
+ *
+ * @author Sergei Visotsky
+ */
+@Getter
+@AllArgsConstructor
+public class PhotoFile {
+
+    private final PhotoContent content;
+    private final String fileName;
+    private final String fileType;
+
+    /**
+     * SHA-256 of the content, {@code null} for photos stored by file name before content addressing
+     */
+    private final String checksum;
+}
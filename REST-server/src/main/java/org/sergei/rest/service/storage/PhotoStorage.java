@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.service.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.function.Supplier;
+
+/**
+ * Content addressed photo storage: every distinct content is stored once under its SHA-256 checksum.
+ * Reference counting is up to the caller which must hold {@link #withLock(String, Supplier)} while
+ * checking references and committing or deleting content, so those steps do not interleave.
+ * Backend is selected by {@code rest.photo.storage}.
+ *
+ * @author Sergei Visotsky
+ */
+public interface PhotoStorage {
+
+    /**
+     * Write content aside computing its size and checksum on the fly
+     *
+     * @param inputStream content, not closed by this method
+     * @param maxSize     maximum allowed size in bytes
+     * @return staged content which should be either committed or discarded
+     * @throws IOException in case content cannot be written
+     */
+    StagedContent stage(InputStream inputStream, long maxSize) throws IOException;
+
+    /**
+     * Make staged content available under its checksum.
+     * If the same content is already stored the staged copy is dropped.
+     *
+     * @param stagedContent content to commit
+     * @throws IOException in case content cannot be stored
+     */
+    void commit(StagedContent stagedContent) throws IOException;
+
+    /**
+     * Drop staged content if it was not committed
+     *
+     * @param stagedContent content to discard
+     */
+    void discard(StagedContent stagedContent);
+
+    /**
+     * @param checksum content checksum
+     * @return stored content, {@code null} if there is no such content
+     */
+    PhotoContent find(String checksum);
+
+    /**
+     * Delete content, caller must ensure it is no longer referenced
+     *
+     * @param checksum content checksum
+     * @throws IOException in case content cannot be deleted
+     */
+    void delete(String checksum) throws IOException;
+
+    /**
+     * Run action holding the lock of the given content
+     *
+     * @param checksum content checksum
+     * @param action   action to run
+     * @param <T>      action result type
+     * @return action result
+     */
+    <T> T withLock(String checksum, Supplier<T> action);
+
+    /**
+     * Run action holding the locks of all given contents
+     *
+     * @param checksums content checksums
+     * @param action    action to run
+     * @param <T>       action result type
+     * @return action result
+     */
+    <T> T withLocks(Collection<String> checksums, Supplier<T> action);
+}
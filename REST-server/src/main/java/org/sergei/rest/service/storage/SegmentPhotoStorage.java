@@ -0,0 +1,619 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.service.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Photo storage packing contents into large append-only segment files, which saves an inode
+ * and a directory entry per photo for small photos such as avatars.
+ * Every record holds its checksum and length, so the in-memory offset index is rebuilt by scanning
+ * the segments on startup. Records are forced to disk before their commit returns.
+ * Deleted records are listed in a sidecar file of their segment and segments with little
+ * live content left are compacted in background.
+ * Contents are read through memory mapped windows of a fixed size, each mapped once.
+ *
+ * @author Sergei Visotsky
+ */
+@Primary
+@Component
+@ConditionalOnProperty(name = "rest.photo.storage", havingValue = "segment")
+public class SegmentPhotoStorage extends AbstractPhotoStorage implements DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SegmentPhotoStorage.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String DELETED_SUFFIX = ".del";
+    private static final int RECORD_MAGIC = 0x50484f54;
+    private static final int CHECKSUM_BYTES = 32;
+    // Magic, store time, checksum and content length
+    private static final int HEADER_SIZE = 4 + 8 + CHECKSUM_BYTES + 8;
+    private static final int BUFFER_SIZE = 65536;
+
+    private final Path segmentLocation;
+    private final long maxSegmentSize;
+    private final int mapWindowSize;
+    private final double compactionThreshold;
+    private final ConcurrentMap<String, Entry> index = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private volatile Segment activeSegment;
+
+    @Autowired
+    public SegmentPhotoStorage(@Value("${rest.photo.segment.dir}") String segmentDir,
+                               @Value("${rest.photo.segment.max-size:268435456}") long maxSegmentSize,
+                               @Value("${rest.photo.segment.compaction-threshold:0.5}") double compactionThreshold,
+                               @Value("${rest.photo.segment.map-window-size:33554432}") int mapWindowSize)
+            throws IOException {
+        this(Paths.get(segmentDir).toAbsolutePath().normalize(), maxSegmentSize, compactionThreshold, mapWindowSize);
+    }
+
+    private SegmentPhotoStorage(Path segmentLocation, long maxSegmentSize, double compactionThreshold,
+                                int mapWindowSize) throws IOException {
+        super(segmentLocation);
+        this.segmentLocation = segmentLocation;
+        // Compacted segments are mapped as a whole which limits them to 2 GB
+        this.maxSegmentSize = Math.min(maxSegmentSize, Integer.MAX_VALUE);
+        this.mapWindowSize = mapWindowSize;
+        this.compactionThreshold = compactionThreshold;
+        load();
+    }
+
+    @Override
+    public void commit(StagedContent stagedContent) throws IOException {
+        try {
+            if (index.containsKey(stagedContent.getChecksum())) {
+                return;
+            }
+            try (FileChannel source = FileChannel.open(stagedContent.getTempFile(), StandardOpenOption.READ)) {
+                Entry entry = append(stagedContent.getChecksum(), source, 0, stagedContent.getSize(),
+                        System.currentTimeMillis());
+                index.put(stagedContent.getChecksum(), entry);
+            }
+        } finally {
+            discard(stagedContent);
+        }
+    }
+
+    @Override
+    public PhotoContent find(String checksum) {
+        Entry entry = index.get(checksum);
+        return entry != null ? new SegmentContent(entry) : null;
+    }
+
+    @Override
+    public void delete(String checksum) throws IOException {
+        Entry entry = index.remove(checksum);
+        if (entry != null) {
+            entry.segment.liveBytes.addAndGet(-entry.recordSize());
+            entry.segment.markDeleted(entry.offset);
+        }
+    }
+
+    /**
+     * Visit every stored content. Index is traversed while in use, so contents stored
+     * or deleted meanwhile may or may not be visited.
+     *
+     * @param visitor visitor invoked with every content, may delete the content
+     */
+    public void forEachContent(ContentVisitor visitor) {
+        index.forEach((checksum, entry) -> visitor.visit(checksum, entry.length, entry.timestamp));
+    }
+
+    /**
+     * Rewrite live records of segments whose live content dropped below the compaction threshold
+     * into the active segment and drop those segments. Readers of the dropped segments keep
+     * their mappings, so downloads in progress are not affected.
+     */
+    @Scheduled(fixedDelayString = "${rest.photo.segment.compaction-interval-ms:60000}")
+    public void compact() {
+        for (Segment segment : segments.values()) {
+            if (segment != activeSegment && segment.liveBytes.get() < segment.size * compactionThreshold) {
+                try {
+                    compact(segment);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.warn("Could not compact segment {}", segment.file, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+    }
+
+    private void compact(Segment segment) throws IOException {
+        long position = 0;
+        while (position < segment.size) {
+            RecordHeader header = segment.readHeader(position);
+            if (header == null) {
+                throw new IOException("Invalid record at " + position);
+            }
+            long offset = position;
+            IOException failure = withLock(header.checksum, () -> {
+                Entry current = index.get(header.checksum);
+                if (current == null || current.segment != segment || current.offset != offset) {
+                    return null;
+                }
+                try {
+                    index.put(header.checksum, append(header.checksum, segment.channel,
+                            offset + HEADER_SIZE, header.length, header.timestamp));
+                    return null;
+                } catch (IOException e) {
+                    return e;
+                }
+            });
+            if (failure != null) {
+                throw failure;
+            }
+            position += HEADER_SIZE + header.length;
+        }
+
+        segment.seal();
+        segments.remove(segment.id);
+        segment.channel.close();
+        // List of deleted records must outlive the segment, otherwise they come back when deleting it fails
+        deleteFile(segment.file);
+        deleteFile(segment.deletedFile);
+        LOGGER.info("Compacted segment {}", segment.file);
+    }
+
+    void deleteFile(Path file) throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Append record to the active segment starting a new one once the active is full
+     */
+    private Entry append(String checksum, FileChannel source, long position, long length,
+                         long timestamp) throws IOException {
+        appendLock.lock();
+        try {
+            Segment segment = activeSegment;
+            if (segment == null || (segment.size > 0 && segment.size + HEADER_SIZE + length > maxSegmentSize)) {
+                if (segment != null) {
+                    segment.full = true;
+                }
+                segment = createSegment(segments.isEmpty() ? 0 : segments.lastKey() + 1);
+                activeSegment = segment;
+            }
+
+            long offset = segment.size;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(RECORD_MAGIC).putLong(timestamp).put(fromHex(checksum)).putLong(length);
+            header.flip();
+            while (header.hasRemaining()) {
+                segment.channel.write(header, offset + header.position());
+            }
+
+            segment.channel.position(offset + HEADER_SIZE);
+            long transferred = 0;
+            while (transferred < length) {
+                long count = source.transferTo(position + transferred, length - transferred, segment.channel);
+                if (count == 0) {
+                    throw new EOFException("Source ended after " + transferred + " of " + length + " bytes");
+                }
+                transferred += count;
+            }
+            // Records moved by compaction must be durable too before their old segment is deleted
+            segment.channel.force(false);
+
+            Entry entry = new Entry(segment, offset, length, timestamp);
+            segment.size = offset + entry.recordSize();
+            segment.liveBytes.addAndGet(entry.recordSize());
+            return entry;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Rebuild the index from segments, records of later segments win over copies left by
+     * interrupted compaction, torn record at the end of a segment is cut off.
+     * Only the last record of each segment is verified against its checksum, it is the one
+     * a crash may have left with a complete header but incomplete content.
+     */
+    private void load() throws IOException {
+        Files.createDirectories(segmentLocation);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(segmentLocation,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                long id = Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(),
+                        fileName.length() - SEGMENT_SUFFIX.length()));
+                segments.put(id, openSegment(id, file));
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(segmentLocation,
+                SEGMENT_PREFIX + "*" + DELETED_SUFFIX)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                Path segmentFile = file.resolveSibling(
+                        fileName.substring(0, fileName.length() - DELETED_SUFFIX.length()) + SEGMENT_SUFFIX);
+                // Left behind by compaction interrupted right after deleting its segment
+                if (!Files.exists(segmentFile)) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        for (Segment segment : segments.values()) {
+            Set<Long> deleted = segment.readDeleted();
+            long length = segment.channel.size();
+            List<Entry> entries = new ArrayList<>();
+            List<String> checksums = new ArrayList<>();
+            long position = 0;
+            while (position + HEADER_SIZE <= length) {
+                RecordHeader header = segment.readHeader(position);
+                if (header == null || position + HEADER_SIZE + header.length > length) {
+                    break;
+                }
+                Entry entry = new Entry(segment, position, header.length, header.timestamp);
+                entries.add(entry);
+                checksums.add(header.checksum);
+                position += entry.recordSize();
+            }
+            int last = entries.size() - 1;
+            if (last >= 0 && !segment.hasContent(entries.get(last), checksums.get(last))) {
+                position = entries.remove(last).offset;
+                checksums.remove(last);
+            }
+
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                if (!deleted.contains(entry.offset)) {
+                    Entry replaced = index.put(checksums.get(i), entry);
+                    if (replaced != null) {
+                        replaced.segment.liveBytes.addAndGet(-replaced.recordSize());
+                    }
+                    segment.liveBytes.addAndGet(entry.recordSize());
+                }
+            }
+            if (position < length) {
+                LOGGER.warn("Segment {} is truncated to {} bytes dropping incomplete record", segment.file, position);
+                segment.channel.truncate(position);
+            }
+            segment.size = position;
+        }
+
+        if (!segments.isEmpty()) {
+            activeSegment = segments.lastEntry().getValue();
+            for (Segment segment : segments.headMap(activeSegment.id).values()) {
+                segment.full = true;
+            }
+        }
+        LOGGER.info("Loaded {} photos from {} segments", index.size(), segments.size());
+    }
+
+    private Segment createSegment(long id) throws IOException {
+        Segment segment = openSegment(id, segmentLocation.resolve(SEGMENT_PREFIX + id + SEGMENT_SUFFIX));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private Segment openSegment(long id, Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return new Segment(id, file, file.resolveSibling(SEGMENT_PREFIX + id + DELETED_SUFFIX), channel,
+                mapWindowSize);
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((Character.digit(hex.charAt(i * 2), 16) << 4) + Character.digit(hex.charAt(i * 2 + 1), 16));
+        }
+        return bytes;
+    }
+
+    private static final class Segment {
+
+        private final long id;
+        private final Path file;
+        private final Path deletedFile;
+        private final FileChannel channel;
+        private final int windowSize;
+        private final AtomicLong liveBytes = new AtomicLong();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ConcurrentMap<Long, MappedByteBuffer> windows = new ConcurrentHashMap<>();
+        private volatile long size;
+        // No more records are appended once the segment is full
+        private volatile boolean full;
+        private volatile MappedByteBuffer sealed;
+
+        private Segment(long id, Path file, Path deletedFile, FileChannel channel, int windowSize) {
+            this.id = id;
+            this.file = file;
+            this.deletedFile = deletedFile;
+            this.channel = channel;
+            this.windowSize = windowSize;
+        }
+
+        /**
+         * Records within a window whose content no longer changes are read through the window,
+         * which is mapped once. Records crossing a window boundary and records in the window
+         * still being appended to get a mapping of their own, released once they are read.
+         */
+        private ByteBuffer slice(long offset, long length) throws IOException {
+            MappedByteBuffer buffer = sealed;
+            long bufferStart = 0;
+            if (buffer == null) {
+                long windowStart = offset - offset % windowSize;
+                long windowEnd = Math.min(windowStart + windowSize, size);
+                if (offset + length <= windowEnd && (windowStart + windowSize <= size || full)) {
+                    buffer = window(windowStart, windowEnd);
+                    bufferStart = windowStart;
+                } else {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                    bufferStart = offset;
+                }
+            }
+            ByteBuffer slice = buffer.duplicate();
+            slice.position((int) (offset - bufferStart));
+            slice.limit((int) (offset - bufferStart + length));
+            return slice.slice();
+        }
+
+        private MappedByteBuffer window(long start, long end) throws IOException {
+            MappedByteBuffer window = windows.get(start);
+            if (window != null) {
+                return window;
+            }
+            lock.lock();
+            try {
+                window = windows.get(start);
+                if (window == null) {
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                    windows.put(start, window);
+                }
+                return window;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Map the whole segment once before it is closed, so readers which found a record of it
+         * just before the record was moved can still read it
+         */
+        private void seal() throws IOException {
+            lock.lock();
+            try {
+                sealed = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                windows.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return record header, {@code null} if there is no valid record at the position
+         */
+        private RecordHeader readHeader(long position) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, position + header.position()) < 0) {
+                    return null;
+                }
+            }
+            header.flip();
+            if (header.getInt() != RECORD_MAGIC) {
+                return null;
+            }
+            long timestamp = header.getLong();
+            byte[] checksum = new byte[CHECKSUM_BYTES];
+            header.get(checksum);
+            long length = header.getLong();
+            return length < 0 ? null : new RecordHeader(toHex(checksum), timestamp, length);
+        }
+
+        /**
+         * @return whether content of the record matches its checksum
+         */
+        private boolean hasContent(Entry entry, String checksum) throws IOException {
+            MessageDigest messageDigest = newMessageDigest();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long position = entry.offset + HEADER_SIZE;
+            long end = position + entry.length;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    return false;
+                }
+                buffer.flip();
+                messageDigest.update(buffer);
+                position += read;
+            }
+            return toHex(messageDigest.digest()).equals(checksum);
+        }
+
+        private void markDeleted(long offset) throws IOException {
+            ByteBuffer record = ByteBuffer.allocate(Long.BYTES).putLong(offset);
+            record.flip();
+            lock.lock();
+            try (FileChannel deleted = FileChannel.open(deletedFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                while (record.hasRemaining()) {
+                    deleted.write(record);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Set<Long> readDeleted() throws IOException {
+            Set<Long> deleted = new HashSet<>();
+            if (Files.exists(deletedFile)) {
+                ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(deletedFile));
+                while (records.remaining() >= Long.BYTES) {
+                    deleted.add(records.getLong());
+                }
+            }
+            return deleted;
+        }
+    }
+
+    private static final class RecordHeader {
+
+        private final String checksum;
+        private final long timestamp;
+        private final long length;
+
+        private RecordHeader(String checksum, long timestamp, long length) {
+            this.checksum = checksum;
+            this.timestamp = timestamp;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Callback of {@link #forEachContent(ContentVisitor)}
+     */
+    public interface ContentVisitor {
+
+        void visit(String checksum, long size, long storedAt);
+    }
+
+    private static final class Entry {
+
+        private final Segment segment;
+        private final long offset;
+        private final long length;
+        private final long timestamp;
+
+        private Entry(Segment segment, long offset, long length, long timestamp) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.timestamp = timestamp;
+        }
+
+        private long recordSize() {
+            return HEADER_SIZE + length;
+        }
+    }
+
+    private static final class SegmentContent implements PhotoContent {
+
+        private final Entry entry;
+
+        private SegmentContent(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public long getSize() {
+            return entry.length;
+        }
+
+        @Override
+        public long getLastModified() {
+            return entry.timestamp;
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return new ByteBufferInputStream(content());
+        }
+
+        @Override
+        public void writeTo(WritableByteChannel channel, long position, long count) throws IOException {
+            ByteBuffer content = content();
+            content.position((int) position);
+            content.limit((int) (position + count));
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+        }
+
+        @Override
+        public Path getFile() {
+            return null;
+        }
+
+        private ByteBuffer content() throws IOException {
+            return entry.segment.slice(entry.offset + HEADER_SIZE, entry.length);
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -32,9 +32,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.sergei.rest.util.ObjectMapperUtil.map;
 import static org.sergei.rest.util.ObjectMapperUtil.mapAllPages;
@@ -164,6 +163,42 @@ public class ServiceComponent {
         return orderDTOList;
     }
 
+    /**
+     * Util method to map orders with their details using one query for all order details
+     *
+     * @param orders Gets list of the order entities
+     * @return List of the order DTOs in the same order as entities
+     */
+    public List<OrderDTOV2> findOrdersWithDetailsBatchedV2(List<Order> orders) {
+        if (orders.isEmpty()) {
+            return new LinkedList<>();
+        }
+        List<Long> orderIds = orders.stream()
+                .map(Order::getOrderId)
+                .collect(Collectors.toList());
+        Map<Long, List<OrderDetailsDTO>> detailsByOrderId = new HashMap<>();
+        orderDetailsRepository.findAllByOrderIds(orderIds).forEach(orderDetails -> {
+                    OrderDetailsDTO orderDetailsDTO = map(orderDetails, OrderDetailsDTO.class);
+                    orderDetailsDTO.setProductCode(orderDetails.getProduct().getProductCode());
+                    detailsByOrderId
+                            .computeIfAbsent(orderDetails.getOrder().getOrderId(), id -> new ArrayList<>())
+                            .add(orderDetailsDTO);
+                }
+        );
+
+        List<OrderDTOV2> orderDTOList = new LinkedList<>();
+        orders.forEach(order -> {
+                    OrderDTOV2 orderDTOV2 = map(order, OrderDTOV2.class);
+                    orderDTOV2.setCustomerId(order.getCustomer().getCustomerId());
+                    orderDTOV2.setOrderDetailsDTO(
+                            detailsByOrderId.getOrDefault(order.getOrderId(), new ArrayList<>())
+                    );
+                    orderDTOList.add(orderDTOV2);
+                }
+        );
+        return orderDTOList;
+    }
+
     private List<OrderDetailsDTO> setOrderDetailsDTOToPojo(Long orderId) {
         List<OrderDetails> orderDetailsList =
                 orderDetailsRepository.findAllByOrderId(orderId);
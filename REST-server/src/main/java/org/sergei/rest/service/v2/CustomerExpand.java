@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.service.v2;
+
+import org.sergei.rest.exceptions.BadRequestException;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Sub-resources which can be embedded into the customer response using {@code ?expand=}
+ *
+ * @author Sergei Visotsky
+ */
+public enum CustomerExpand {
+
+    ORDERS("orders"),
+    PHOTOS("photos");
+
+    private final String paramName;
+
+    CustomerExpand(String paramName) {
+        this.paramName = paramName;
+    }
+
+    public String getParamName() {
+        return paramName;
+    }
+
+    /**
+     * Parse values of the {@code expand} request parameter.
+     * Only direct sub-resources are supported so nested paths (e.g. {@code orders.details}) are rejected.
+     *
+     * @param values raw parameter values, may be {@code null}
+     * @return set of requested expansions
+     */
+    public static Set<CustomerExpand> parse(Collection<String> values) {
+        Set<CustomerExpand> expand = EnumSet.noneOf(CustomerExpand.class);
+        if (values == null) {
+            return expand;
+        }
+        for (String value : values) {
+            String name = value.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            expand.add(fromParamName(name));
+        }
+        return expand;
+    }
+
+    private static CustomerExpand fromParamName(String name) {
+        for (CustomerExpand customerExpand : values()) {
+            if (customerExpand.paramName.equalsIgnoreCase(name)) {
+                return customerExpand;
+            }
+        }
+        throw new BadRequestException("Unsupported expand value: " + name);
+    }
+}
@@ -16,20 +16,29 @@
 
 package org.sergei.rest.service.v2;
 
+import org.sergei.rest.dto.PhotoDTO;
 import org.sergei.rest.dto.v2.CustomerDTOV2;
+import org.sergei.rest.dto.v2.OrderDTOV2;
+import org.sergei.rest.exceptions.BadRequestException;
 import org.sergei.rest.exceptions.ResourceNotFoundException;
 import org.sergei.rest.model.Customer;
+import org.sergei.rest.model.Photo;
 import org.sergei.rest.repository.CustomerRepository;
+import org.sergei.rest.repository.OrderRepository;
+import org.sergei.rest.repository.PhotoRepository;
 import org.sergei.rest.service.Constants;
 import org.sergei.rest.service.CustomerService;
+import org.sergei.rest.service.PhotoCache;
+import org.sergei.rest.service.util.ServiceComponent;
 import org.sergei.rest.util.ObjectMapperUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.sergei.rest.util.ObjectMapperUtil.map;
 
@@ -41,17 +50,34 @@ import static org.sergei.rest.util.ObjectMapperUtil.map;
 @Service
 public class CustomerServiceV2 extends CustomerService {
 
-    public CustomerServiceV2(CustomerRepository customerRepository) {
-        super(customerRepository);
+    private final OrderRepository orderRepository;
+    private final PhotoRepository photoRepository;
+    private final ServiceComponent serviceComponent;
+
+    @Value("${rest.expand.max-items:50}")
+    private int maxExpandedItems;
+
+    @Value("${rest.expand.max-customers:100}")
+    private int maxExpandedCustomers;
+
+    @Autowired
+    public CustomerServiceV2(CustomerRepository customerRepository, PhotoCache photoCache,
+                             OrderRepository orderRepository, PhotoRepository photoRepository,
+                             ServiceComponent serviceComponent) {
+        super(customerRepository, photoCache);
+        this.orderRepository = orderRepository;
+        this.photoRepository = photoRepository;
+        this.serviceComponent = serviceComponent;
     }
 
     /**
-     * Get all customers
+     * Get all customers, expanded in chunks so every chunk stays within the limit of expanded customers
      *
+     * @param expand sub-resources which should be embedded into each customer
      * @return List of customer DTOs list
      */
-    public List<CustomerDTOV2> findAllV2() {
-        List<CustomerDTOV2> customerDTOList = new LinkedList<>();
+    public List<CustomerDTOV2> findAllV2(Set<CustomerExpand> expand) {
+        List<CustomerDTOV2> customerDTOList = new ArrayList<>();
 
         List<Customer> customers = customerRepository.findAll();
 
@@ -65,31 +91,41 @@ public class CustomerServiceV2 extends CustomerService {
             customerDTOList.add(customerDTOV2);
         });
 
+        for (int from = 0; from < customerDTOList.size(); from += maxExpandedCustomers) {
+            expand(customerDTOList.subList(from, Math.min(from + maxExpandedCustomers, customerDTOList.size())),
+                    expand);
+        }
         return customerDTOList;
     }
 
     /**
      * Get all customers paginated
      *
+     * @param expand sub-resources which should be embedded into each customer
      * @return List of customer DTOs list
      */
-    public Page<CustomerDTOV2> findAllPaginatedV2(int page, int size) {
+    public Page<CustomerDTOV2> findAllPaginatedV2(int page, int size, Set<CustomerExpand> expand) {
         Page<Customer> customers = customerRepository.findAll(PageRequest.of(page, size));
-        return ObjectMapperUtil.mapAllPages(customers, CustomerDTOV2.class);
+        Page<CustomerDTOV2> customerDTOS = ObjectMapperUtil.mapAllPages(customers, CustomerDTOV2.class);
+        expand(customerDTOS.getContent(), expand);
+        return customerDTOS;
     }
 
     /**
      * Get customer by id
      *
      * @param customerId get customer number param from REST controller
+     * @param expand     sub-resources which should be embedded into the customer
      * @return Customer DTO response
      */
-    public CustomerDTOV2 findOneV2(Long customerId) {
+    public CustomerDTOV2 findOneV2(Long customerId, Set<CustomerExpand> expand) {
         Customer customer = customerRepository.findById(customerId)
                 .orElseThrow(() ->
                         new ResourceNotFoundException(Constants.CUSTOMER_NOT_FOUND)
                 );
-        return map(customer, CustomerDTOV2.class);
+        CustomerDTOV2 customerDTOV2 = map(customer, CustomerDTOV2.class);
+        expand(Collections.singletonList(customerDTOV2), expand);
+        return customerDTOV2;
     }
 
     /**
@@ -116,4 +152,49 @@ public class CustomerServiceV2 extends CustomerService {
 
         return map(customerRepository.save(customer), CustomerDTOV2.class);
     }
+
+    /**
+     * Embed requested sub-resources into the customers.
+     * Each sub-resource is loaded for all customers at once instead of a query per customer,
+     * number of customers and number of embedded elements per customer are limited by configuration,
+     * the latter in the query itself so elements beyond the limit are never read.
+     *
+     * @param customers customers to be expanded
+     * @param expand    sub-resources which should be embedded
+     */
+    private void expand(List<CustomerDTOV2> customers, Set<CustomerExpand> expand) {
+        if (expand.isEmpty() || customers.isEmpty()) {
+            return;
+        }
+        if (customers.size() > maxExpandedCustomers) {
+            throw new BadRequestException("Expansion is limited to " + maxExpandedCustomers +
+                    " customers, use pagination");
+        }
+        List<Long> customerIds = customers.stream()
+                .map(CustomerDTOV2::getCustomerId)
+                .collect(Collectors.toList());
+
+        if (expand.contains(CustomerExpand.ORDERS)) {
+            List<OrderDTOV2> orders = serviceComponent.findOrdersWithDetailsBatchedV2(
+                    orderRepository.findFirstByCustomerIds(customerIds, maxExpandedItems)
+            );
+            Map<Long, List<OrderDTOV2>> ordersByCustomerId = orders.stream()
+                    .collect(Collectors.groupingBy(OrderDTOV2::getCustomerId));
+            customers.forEach(customer -> customer.setExpandedOrders(
+                    ordersByCustomerId.getOrDefault(customer.getCustomerId(), new LinkedList<>()))
+            );
+        }
+        if (expand.contains(CustomerExpand.PHOTOS)) {
+            List<Photo> photos = photoRepository.findFirstPhotosByCustomerIds(customerIds, maxExpandedItems);
+            Map<Long, List<PhotoDTO>> photosByCustomerId = new HashMap<>();
+            photos.forEach(photo -> {
+                PhotoDTO photoDTO = map(photo, PhotoDTO.class);
+                photoDTO.setCustomerId(photo.getCustomer().getCustomerId());
+                photosByCustomerId.computeIfAbsent(photoDTO.getCustomerId(), id -> new LinkedList<>()).add(photoDTO);
+            });
+            customers.forEach(customer -> customer.setExpandedPhotos(
+                    photosByCustomerId.getOrDefault(customer.getCustomerId(), new LinkedList<>()))
+            );
+        }
+    }
 }
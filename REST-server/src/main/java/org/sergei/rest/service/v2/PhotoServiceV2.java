@@ -23,12 +23,20 @@ import org.sergei.rest.model.Photo;
 import org.sergei.rest.repository.CustomerRepository;
 import org.sergei.rest.repository.PhotoRepository;
 import org.sergei.rest.service.Constants;
+import org.sergei.rest.service.PhotoCache;
 import org.sergei.rest.service.PhotoService;
+import org.sergei.rest.service.ThumbnailService;
+import org.sergei.rest.service.storage.FileSystemPhotoStorage;
+import org.sergei.rest.service.storage.PhotoStorage;
 import org.sergei.rest.util.ObjectMapperUtil;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.Executor;
+
 /**
  * V2 of photo service
  *
@@ -37,8 +45,13 @@ import org.springframework.stereotype.Service;
 @Service
 public class PhotoServiceV2 extends PhotoService {
 
-    public PhotoServiceV2(PhotoRepository photoRepository, CustomerRepository customerRepository) {
-        super(photoRepository, customerRepository);
+    public PhotoServiceV2(PhotoRepository photoRepository, CustomerRepository customerRepository,
+                          PhotoStorage photoStorage, FileSystemPhotoStorage fileSystemStorage,
+                          ThumbnailService thumbnailService, PhotoCache photoCache,
+                          @Qualifier("photoIoExecutor") Executor photoIoExecutor,
+                          @Value("${rest.photo.max-file-size:10000000}") long maxFileSize) {
+        super(photoRepository, customerRepository, photoStorage, fileSystemStorage, thumbnailService, photoCache,
+                photoIoExecutor, maxFileSize);
     }
 
     /**
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sergei.rest.util;
+
+import org.sergei.rest.service.storage.PhotoContent;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes files into the HTTP response honoring conditional and range requests.
+ * Content stored as a standalone file is handed over to the connector via sendfile when it is supported,
+ * otherwise it is written by {@link PhotoContent#writeTo(java.nio.channels.WritableByteChannel, long, long)}.
+ *
+ * @author Sergei Visotsky
+ */
+public final class FileDownloadUtil {
+
+    private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+    private static final String BYTES = "bytes";
+
+    /**
+     * Hide from public usage.
+     */
+    private FileDownloadUtil() {
+    }
+
+    /**
+     * Write file into the response.
+     * Responds with 304 or 412 to conditional requests, with 206 to a single satisfiable range
+     * and with 416 to unsatisfiable ranges. Multiple ranges are served as the full file.
+     *
+     * @param content     content to be sent
+     * @param contentType content type of the file
+     * @param fileName    file name for the content disposition
+     * @param eTag        strong entity tag, derived from the content size and modification time if {@code null}
+     * @param request     current request
+     * @param response    current response
+     * @throws IOException in case file cannot be read or response cannot be written
+     */
+    public static void writeFile(PhotoContent content, MediaType contentType, String fileName, String eTag,
+                                 HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long length = content.getSize();
+        long lastModified = content.getLastModified();
+        String entityTag = eTag != null ? eTag : eTagOf(length, lastModified);
+
+        // Sets ETag and Last-Modified, answers If-None-Match, If-Modified-Since, If-Match and If-Unmodified-Since
+        if (new ServletWebRequest(request, response).checkNotModified(entityTag, lastModified)) {
+            return;
+        }
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, BYTES);
+        response.setContentType(contentType.toString());
+        // File name comes from the client, it is encoded so it cannot break out of the header
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder("attachment")
+                .filename(fileName, StandardCharsets.UTF_8)
+                .build()
+                .toString());
+
+        long start = 0;
+        long end = length - 1;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && isIfRangeSatisfied(request, entityTag, lastModified)) {
+            List<HttpRange> ranges = parseRanges(rangeHeader);
+            if (ranges.size() == 1 && !isSatisfiable(ranges.get(0), length)) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES + " */" + length);
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+            if (ranges.size() == 1) {
+                HttpRange range = ranges.get(0);
+                start = range.getRangeStart(length);
+                end = range.getRangeEnd(length);
+                response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES + " " + start + "-" + end + "/" + length);
+            }
+        }
+
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+        if (HttpMethod.HEAD.matches(request.getMethod()) || count == 0) {
+            return;
+        }
+
+        // Only standalone files can be handed over to the connector
+        if (content.getFile() != null && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, content.getFile().toFile().getCanonicalPath());
+            request.setAttribute(SENDFILE_START_ATTRIBUTE, start);
+            request.setAttribute(SENDFILE_END_ATTRIBUTE, end + 1);
+            return;
+        }
+
+        content.writeTo(Channels.newChannel(response.getOutputStream()), start, count);
+    }
+
+    /**
+     * Strong entity tag built from the content size and modification time
+     *
+     * @param size         content size
+     * @param lastModified content modification time
+     * @return quoted entity tag
+     */
+    public static String eTagOf(long size, long lastModified) {
+        return "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    /**
+     * Content type of a stored file, resolved from the file name for files stored without valid type
+     *
+     * @param fileType stored content type, may be {@code null}
+     * @param fileName file name
+     * @return content type of the file
+     */
+    public static MediaType mediaTypeOf(String fileType, String fileName) {
+        if (fileType != null) {
+            try {
+                return MediaType.parseMediaType(fileType);
+            } catch (InvalidMediaTypeException e) {
+                // Fall through to the type derived from the file name
+            }
+        }
+        return MediaTypeFactory.getMediaType(fileName).orElse(MediaType.APPLICATION_OCTET_STREAM);
+    }
+
+    /**
+     * Range is only applied if the representation has not changed since the client got the validator
+     */
+    private static boolean isIfRangeSatisfied(HttpServletRequest request, String eTag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(eTag);
+        }
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+        try {
+            // HTTP dates have second precision
+            return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Malformed range headers are ignored and the full file is sent
+     */
+    private static List<HttpRange> parseRanges(String rangeHeader) {
+        try {
+            return HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    private static boolean isSatisfiable(HttpRange range, long length) {
+        try {
+            return length > 0 && range.getRangeStart(length) < length;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.util;
+
+import org.sergei.rest.service.storage.PhotoContent;
+import org.sergei.rest.service.storage.PhotoFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes photos into a ZIP archive one by one through a single fixed size buffer,
+ * so memory use does not depend on the number or size of the photos.
+ * Already compressed images are stored as is, the rest is deflated.
+ *
+ * @author Sergei Visotsky
+ */
+public final class PhotoArchiveUtil {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PhotoArchiveUtil.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Set<MediaType> COMPRESSED_TYPES = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList(MediaType.IMAGE_JPEG, MediaType.IMAGE_PNG)));
+
+    /**
+     * Hide from public usage.
+     */
+    private PhotoArchiveUtil() {
+    }
+
+    /**
+     * Write archive of the photos. Photos whose content disappeared meanwhile are skipped.
+     * Writing stops with an exception once the client disconnects or the writing thread is interrupted,
+     * e.g. when the asynchronous request times out.
+     *
+     * @param photoFiles   photos to be archived
+     * @param outputStream stream archive is written to, left open
+     * @throws IOException in case content cannot be read or the client went away
+     */
+    public static void writeArchive(List<PhotoFile> photoFiles, OutputStream outputStream) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        Set<String> entryNames = new HashSet<>();
+        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+
+        for (PhotoFile photoFile : photoFiles) {
+            checkNotCancelled();
+            PhotoContent content = photoFile.getContent();
+            ZipEntry entry = new ZipEntry(entryName(photoFile.getFileName(), entryNames));
+            InputStream inputStream;
+            try {
+                entry.setTime(content.getLastModified());
+                if (isCompressed(photoFile)) {
+                    // Stored entry header carries size and CRC, which costs one extra read of the content
+                    long size = content.getSize();
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(size);
+                    entry.setCompressedSize(size);
+                    entry.setCrc(crcOf(content, buffer));
+                }
+                inputStream = content.openStream();
+            } catch (NoSuchFileException e) {
+                LOGGER.debug("Photo {} deleted while archiving", photoFile.getFileName());
+                continue;
+            }
+
+            try (InputStream in = inputStream) {
+                zipOutputStream.putNextEntry(entry);
+                copy(in, zipOutputStream, buffer);
+                zipOutputStream.closeEntry();
+            }
+        }
+        zipOutputStream.finish();
+        zipOutputStream.flush();
+    }
+
+    private static boolean isCompressed(PhotoFile photoFile) {
+        MediaType mediaType = FileDownloadUtil.mediaTypeOf(photoFile.getFileType(), photoFile.getFileName());
+        return COMPRESSED_TYPES.contains(new MediaType(mediaType.getType(), mediaType.getSubtype()));
+    }
+
+    private static long crcOf(PhotoContent content, byte[] buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream inputStream = content.openStream()) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                checkNotCancelled();
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void copy(InputStream inputStream, OutputStream outputStream, byte[] buffer) throws IOException {
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            checkNotCancelled();
+            outputStream.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Archive entry names must be unique, repeated names get a counter before the extension
+     */
+    private static String entryName(String fileName, Set<String> entryNames) {
+        String name = fileName;
+        for (int i = 1; !entryNames.add(name); i++) {
+            String extension = StringUtils.getFilenameExtension(fileName);
+            name = extension == null
+                    ? fileName + " (" + i + ")"
+                    : StringUtils.stripFilenameExtension(fileName) + " (" + i + ")." + extension;
+        }
+        return name;
+    }
+
+    private static void checkNotCancelled() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Archive writing cancelled");
+        }
+    }
+}
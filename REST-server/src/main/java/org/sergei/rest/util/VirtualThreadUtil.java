@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads of Java 21 from code compiled for Java 8, so the same build runs on both
+ *
+ * @author Sergei Visotsky
+ */
+public final class VirtualThreadUtil {
+
+    /**
+     * Hide from public usage.
+     */
+    private VirtualThreadUtil() {
+    }
+
+    /**
+     * @param namePrefix thread name prefix followed by a counter
+     * @return factory of virtual threads
+     * @throws IllegalStateException if the runtime has no virtual threads
+     */
+    public static ThreadFactory threadFactory(String namePrefix) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads require Java 21 or later", e);
+        }
+    }
+
+    /**
+     * @param namePrefix thread name prefix followed by a counter
+     * @return executor starting a new virtual thread for every task
+     * @throws IllegalStateException if the runtime has no virtual threads
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        ThreadFactory threadFactory = threadFactory(namePrefix);
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads require Java 21 or later", e);
+        }
+    }
+}
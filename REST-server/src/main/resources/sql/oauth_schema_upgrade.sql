@@ -0,0 +1,14 @@
+-- Applied on every start after oauth_schema.sql, statements failing because the column
+-- or index already exists are skipped, any other failure stops the startup.
+
+alter table rest_services.oauth_access_token add column expiration DATETIME NULL;
+alter table rest_services.oauth_refresh_token add column expiration DATETIME NULL;
+
+create index oauth_access_token_token_id_idx on rest_services.oauth_access_token (token_id);
+create index oauth_access_token_client_user_idx on rest_services.oauth_access_token (client_id, user_name);
+create index oauth_access_token_user_name_idx on rest_services.oauth_access_token (user_name);
+create index oauth_access_token_refresh_token_idx on rest_services.oauth_access_token (refresh_token);
+create index oauth_access_token_expiration_idx on rest_services.oauth_access_token (expiration);
+
+create index oauth_refresh_token_token_id_idx on rest_services.oauth_refresh_token (token_id);
+create index oauth_refresh_token_expiration_idx on rest_services.oauth_refresh_token (expiration);
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.actuator;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.sergei.rest.RestServerApplication;
+import org.sergei.rest.testconfig.ResourceServerConfiguration;
+import org.sergei.rest.testconfig.WebSecurityConfigTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Test for {@link ClientDetailsCacheEndpoint}
+ *
+ * @author Sergei Visotsky
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = RestServerApplication.class)
+@TestPropertySource(
+        locations = "classpath:application-test.properties",
+        // Own database, the default one is still held by the cached context of other tests
+        properties = "spring.datasource.url=jdbc:h2:mem:clientcachedb"
+)
+@AutoConfigureMockMvc
+@ContextConfiguration(classes = {ResourceServerConfiguration.class, WebSecurityConfigTest.class})
+@EnableJpaRepositories(basePackages = "org.sergei.rest.repository")
+@EntityScan(basePackages = "org.sergei.rest.model")
+public class ClientDetailsCacheEndpointTest {
+
+    private static final String BASE_URL = "/actuator/clientdetailscache";
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Test
+    public void evictAllAnonymously_thenReturnUnauthorized() throws Exception {
+        mvc.perform(delete(BASE_URL))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    public void evictClientAnonymously_thenReturnUnauthorized() throws Exception {
+        mvc.perform(delete(BASE_URL + "/client"))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    @WithMockUser(username = "user", authorities = {"ROLE_USER"})
+    public void evictAllAsUser_thenReturnForbidden() throws Exception {
+        mvc.perform(delete(BASE_URL))
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    @WithMockUser(username = "admin", authorities = {"ROLE_ADMIN"})
+    public void evictAllAsAdmin_thenReturnOk() throws Exception {
+        mvc.perform(delete(BASE_URL))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.evicted").value(0));
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.aop;
+
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.aspectj.lang.reflect.SourceLocation;
+import org.aspectj.runtime.internal.AroundClosure;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark measuring the per invocation overhead of {@link PerformanceAspect}
+ * compared to a direct call of the same method.
+ * <p>
+ * Run with {@code mvn test-compile} followed by launching {@link #main(String[])}
+ * with the test classpath.
+ *
+ * @author Sergei Visotsky
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PerformanceAspectBenchmark {
+
+    private ServiceStub target;
+    private PerformanceAspect performanceAspect;
+    private ProceedingJoinPoint joinPoint;
+
+    @Setup
+    public void setUp() {
+        target = new ServiceStub();
+        performanceAspect = new PerformanceAspect(new PrometheusMeterRegistry(PrometheusConfig.DEFAULT));
+        joinPoint = new JoinPointStub(target);
+    }
+
+    @Benchmark
+    public Object directCall() {
+        return target.findOne();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object directCallContended() {
+        return target.findOne();
+    }
+
+    @Benchmark
+    public Object timedCall() throws Throwable {
+        return performanceAspect.measureTime(joinPoint);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object timedCallContended() throws Throwable {
+        return performanceAspect.measureTime(joinPoint);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PerformanceAspectBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+    /**
+     * Stands for the advised service bean
+     */
+    static class ServiceStub {
+        private long counter;
+
+        Long findOne() {
+            return ++counter;
+        }
+    }
+
+    /**
+     * Minimal join point which only provides what {@link PerformanceAspect} reads
+     */
+    static class JoinPointStub implements ProceedingJoinPoint {
+
+        private final ServiceStub target;
+        private final Signature signature = new SignatureStub();
+
+        JoinPointStub(ServiceStub target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object proceed() {
+            return target.findOne();
+        }
+
+        @Override
+        public Object proceed(Object[] args) {
+            return proceed();
+        }
+
+        @Override
+        public Object getTarget() {
+            return target;
+        }
+
+        @Override
+        public Signature getSignature() {
+            return signature;
+        }
+
+        @Override
+        public void set$AroundClosure(AroundClosure arc) {
+            // Not used by the benchmark
+        }
+
+        @Override
+        public Object getThis() {
+            return target;
+        }
+
+        @Override
+        public Object[] getArgs() {
+            return new Object[0];
+        }
+
+        @Override
+        public SourceLocation getSourceLocation() {
+            return null;
+        }
+
+        @Override
+        public String getKind() {
+            return METHOD_EXECUTION;
+        }
+
+        @Override
+        public StaticPart getStaticPart() {
+            return null;
+        }
+
+        @Override
+        public String toShortString() {
+            return signature.toShortString();
+        }
+
+        @Override
+        public String toLongString() {
+            return signature.toLongString();
+        }
+    }
+
+    static class SignatureStub implements Signature {
+
+        @Override
+        public String getName() {
+            return "findOne";
+        }
+
+        @Override
+        public int getModifiers() {
+            return 0;
+        }
+
+        @Override
+        public Class getDeclaringType() {
+            return ServiceStub.class;
+        }
+
+        @Override
+        public String getDeclaringTypeName() {
+            return ServiceStub.class.getName();
+        }
+
+        @Override
+        public String toShortString() {
+            return "ServiceStub.findOne()";
+        }
+
+        @Override
+        public String toLongString() {
+            return "Long ServiceStub.findOne()";
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+import org.sergei.rest.RestServerApplication;
+import org.sergei.rest.model.User;
+import org.sergei.rest.model.UserRoles;
+import org.sergei.rest.service.ApiUserService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+import org.springframework.security.oauth2.provider.client.JdbcClientDetailsService;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test comparing throughput and latency of request handling on platform threads
+ * with the {@code virtual-threads} profile. The application is started once per profile
+ * on random ports, a client and a user are created and a fixed number of concurrent clients call
+ * the same endpoint with the user's access token for the given time.
+ * <p>
+ * Must run on Java 21: build with {@code mvn test-compile} on Java 21 and launch {@link #main(String[])}
+ * with the test classpath, optionally passing the request path, number of clients and duration in seconds.
+ * The test H2 database answers without blocking, so for representative numbers point
+ * {@code spring.datasource.*} system properties to a MySQL database with production like data.
+ *
+ * @author Sergei Visotsky
+ */
+public class VirtualThreadConfigBenchmark {
+
+    private static final String PLATFORM_THREADS = "platform-threads";
+    private static final String VIRTUAL_THREADS = "virtual-threads";
+    private static final long WARMUP_SECONDS = 5;
+    private static final String CLIENT_ID = "loadtest";
+    private static final String CLIENT_SECRET = "loadtestSecret";
+    private static final String USERNAME = "loadtest";
+    private static final String PASSWORD = "loadtestPassword";
+
+    public static void main(String[] args) throws Exception {
+        String path = args.length > 0 ? args[0] : "/api/v1/products";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        long durationSeconds = args.length > 2 ? Long.parseLong(args[2]) : 30;
+
+        // Every client keeps its connection alive
+        System.setProperty("http.maxConnections", String.valueOf(clients));
+        SSLSocketFactory socketFactory = trustingSocketFactory();
+
+        List<Result> results = new ArrayList<>();
+        for (String profile : new String[]{PLATFORM_THREADS, VIRTUAL_THREADS}) {
+            try (ServletWebServerApplicationContext context = start(profile)) {
+                String baseUrl = "https://localhost:" + context.getWebServer().getPort();
+                String authorization = "Bearer " + authorize(context, baseUrl, socketFactory);
+                Client client = new Client(new URL(baseUrl + path), socketFactory, authorization);
+                run(client, clients, WARMUP_SECONDS);
+                results.add(new Result(profile, run(client, clients, durationSeconds), durationSeconds));
+            }
+        }
+
+        System.out.printf("%nGET %s, %d clients, %d s%n", path, clients, durationSeconds);
+        System.out.printf("%-18s %12s %10s %10s %10s %8s%n", "profile", "requests/s", "p50 ms", "p99 ms", "max ms",
+                "errors");
+        results.forEach(Result::print);
+        // Await threads of closed Tomcat servers are not always stopped on recent Java versions
+        System.exit(0);
+    }
+
+    private static ServletWebServerApplicationContext start(String profile) {
+        return (ServletWebServerApplicationContext) new SpringApplicationBuilder(RestServerApplication.class)
+                .profiles(profile)
+                // Arguments override application properties, unlike default properties of the builder
+                .run("--spring.config.additional-location=classpath:application-test.properties",
+                        "--spring.jpa.properties.hibernate.show_sql=false",
+                        // OAuth tables are created in the schema the application reads them from on MySQL
+                        "--spring.datasource.url=jdbc:h2:mem:loadtest;"
+                                + "INIT=CREATE SCHEMA IF NOT EXISTS rest_services\\;SET SCHEMA rest_services",
+                        "--spring.datasource.initialization-mode=never",
+                        "--server.port=0",
+                        "--server.http.port=0",
+                        "--server.ssl.key-store=classpath:tls/keystore.p12",
+                        "--logging.level.root=warn",
+                        "--logging.level.org.sergei.rest=warn");
+    }
+
+    /**
+     * @return latency of successful requests in microseconds and the number of failed requests
+     */
+    private static Latencies run(Client client, int clients, long durationSeconds)
+            throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<Latencies>> futures = new ArrayList<>(clients);
+            for (int i = 0; i < clients; i++) {
+                futures.add(executor.submit(() -> {
+                    Latencies latencies = new Latencies();
+                    byte[] buffer = new byte[8192];
+                    while (System.nanoTime() < deadline) {
+                        long startTime = System.nanoTime();
+                        if (client.call(buffer)) {
+                            latencies.histogram.recordValue(
+                                    TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
+                        } else {
+                            latencies.errors++;
+                        }
+                    }
+                    return latencies;
+                }));
+            }
+            Latencies total = new Latencies();
+            for (Future<Latencies> future : futures) {
+                Latencies latencies = future.get();
+                total.histogram.add(latencies.histogram);
+                total.errors += latencies.errors;
+            }
+            return total;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Create client and user of the load test, the user gets an access token the same way as real users do
+     *
+     * @return access token
+     */
+    private static String authorize(ServletWebServerApplicationContext context, String baseUrl,
+                                    SSLSocketFactory socketFactory) throws IOException {
+        PasswordEncoder passwordEncoder = context.getBean(PasswordEncoder.class);
+        BaseClientDetails clientDetails = new BaseClientDetails(CLIENT_ID, null, "read,write", "password", null);
+        clientDetails.setClientSecret(passwordEncoder.encode(CLIENT_SECRET));
+        clientDetails.setAccessTokenValiditySeconds((int) TimeUnit.HOURS.toSeconds(1));
+        new JdbcClientDetailsService(context.getBean(DataSource.class)).addClientDetails(clientDetails);
+        context.getBean(ApiUserService.class).saveUser(
+                new User(USERNAME, PASSWORD, Collections.singletonList(new UserRoles("USER"))));
+
+        HttpsURLConnection connection = (HttpsURLConnection) new URL(baseUrl + "/oauth/token").openConnection();
+        connection.setSSLSocketFactory(socketFactory);
+        connection.setHostnameVerifier((hostname, session) -> true);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty(HttpHeaders.AUTHORIZATION, "Basic " + Base64.getEncoder().encodeToString(
+                (CLIENT_ID + ":" + CLIENT_SECRET).getBytes(StandardCharsets.UTF_8)));
+        connection.setRequestProperty(HttpHeaders.CONTENT_TYPE, "application/x-www-form-urlencoded");
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(("grant_type=password&username=" + USERNAME + "&password=" + PASSWORD)
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        try (InputStream inputStream = connection.getInputStream()) {
+            return new ObjectMapper().readValue(inputStream, Map.class).get("access_token").toString();
+        }
+    }
+
+    /**
+     * Server uses a self-signed certificate
+     */
+    private static SSLSocketFactory trustingSocketFactory() throws GeneralSecurityException {
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, new TrustManager[]{new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+        return sslContext.getSocketFactory();
+    }
+
+    /**
+     * Calls the endpoint, the connection is kept alive between calls of the same thread
+     */
+    private static final class Client {
+
+        private final URL url;
+        private final SSLSocketFactory socketFactory;
+        private final String authorization;
+
+        private Client(URL url, SSLSocketFactory socketFactory, String authorization) {
+            this.url = url;
+            this.socketFactory = socketFactory;
+            this.authorization = authorization;
+        }
+
+        private boolean call(byte[] buffer) {
+            try {
+                HttpsURLConnection connection = (HttpsURLConnection) url.openConnection();
+                connection.setSSLSocketFactory(socketFactory);
+                connection.setHostnameVerifier((hostname, session) -> true);
+                connection.setRequestProperty(HttpHeaders.AUTHORIZATION, authorization);
+                connection.setConnectTimeout(10000);
+                connection.setReadTimeout(60000);
+                int status = connection.getResponseCode();
+                // Body is read to the end, so the connection is reused
+                try (InputStream inputStream = status < 400
+                        ? connection.getInputStream()
+                        : connection.getErrorStream()) {
+                    while (inputStream != null && inputStream.read(buffer) != -1) {
+                        // Discard
+                    }
+                }
+                return status < 400;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    private static final class Latencies {
+
+        private final Histogram histogram = new Histogram(3);
+        private long errors;
+    }
+
+    private static final class Result {
+
+        private final String profile;
+        private final Latencies latencies;
+        private final long durationSeconds;
+
+        private Result(String profile, Latencies latencies, long durationSeconds) {
+            this.profile = profile;
+            this.latencies = latencies;
+            this.durationSeconds = durationSeconds;
+        }
+
+        private void print() {
+            Histogram histogram = latencies.histogram;
+            System.out.printf("%-18s %12.1f %10.2f %10.2f %10.2f %8d%n", profile,
+                    (double) histogram.getTotalCount() / durationSeconds,
+                    histogram.getValueAtPercentile(50) / 1000.0,
+                    histogram.getValueAtPercentile(99) / 1000.0,
+                    histogram.getMaxValue() / 1000.0,
+                    latencies.errors);
+        }
+    }
+}
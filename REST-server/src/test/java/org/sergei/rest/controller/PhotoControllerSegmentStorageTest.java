@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.controller;
+
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.sergei.rest.RestServerApplication;
+import org.sergei.rest.model.Customer;
+import org.sergei.rest.repository.CustomerRepository;
+import org.sergei.rest.repository.PhotoRepository;
+import org.sergei.rest.service.storage.PhotoStorage;
+import org.sergei.rest.service.storage.SegmentPhotoStorage;
+import org.sergei.rest.testconfig.ResourceServerConfiguration;
+import org.sergei.rest.testconfig.WebSecurityConfigTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Test for {@link PhotoController} backed by {@link SegmentPhotoStorage}
+ *
+ * @author Sergei Visotsky
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = RestServerApplication.class)
+@TestPropertySource(
+        locations = "classpath:application-test.properties",
+        properties = {
+                // Own database, the default one is still held by the cached context of other tests
+                "spring.datasource.url=jdbc:h2:mem:segmentdb",
+                "rest.photo.storage=segment",
+                "rest.photo.segment.dir=" + PhotoControllerSegmentStorageTest.SEGMENT_DIR,
+                // Every photo gets its own segment so deleted ones can be compacted
+                "rest.photo.segment.max-size=64"
+        }
+)
+@AutoConfigureMockMvc
+@WithMockUser(username = "admin", authorities = {"ROLE_ADMIN"})
+@ContextConfiguration(classes = {ResourceServerConfiguration.class, WebSecurityConfigTest.class})
+@EnableJpaRepositories(basePackages = "org.sergei.rest.repository")
+@EntityScan(basePackages = "org.sergei.rest.model")
+public class PhotoControllerSegmentStorageTest {
+
+    static final String SEGMENT_DIR = "target/test-segments";
+    private static final String BASE_URL = "/api/v1/customers";
+    private static final String PHOTO_URI = "/photo";
+    private static final String BOUNDARY = "photoBoundary";
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private PhotoRepository photoRepository;
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @Autowired
+    private PhotoStorage photoStorage;
+
+    @BeforeClass
+    public static void cleanSegments() throws IOException {
+        FileSystemUtils.deleteRecursively(Paths.get(SEGMENT_DIR));
+    }
+
+    @After
+    public void tearDown() {
+        photoRepository.deleteAll();
+        customerRepository.deleteAll();
+    }
+
+    @Test
+    public void uploadDownloadAndCompact() throws Exception {
+        assertTrue(photoStorage instanceof SegmentPhotoStorage);
+        Customer customer = setupCustomer();
+        byte[] firstContent = "first segment photo".getBytes(StandardCharsets.UTF_8);
+        byte[] secondContent = "second segment photo".getBytes(StandardCharsets.UTF_8);
+
+        upload(customer, "first.jpg", firstContent);
+        upload(customer, "second.jpg", secondContent);
+        assertEquals(2, segmentCount());
+
+        mvc.perform(get(BASE_URL + "/" + customer.getCustomerId() + PHOTO_URI + "/first.jpg"))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(firstContent));
+        mvc.perform(
+                get(BASE_URL + "/" + customer.getCustomerId() + PHOTO_URI + "/second.jpg")
+                        .header(HttpHeaders.RANGE, "bytes=7-13"))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().bytes("segment".getBytes(StandardCharsets.UTF_8)));
+
+        Long firstPhotoId = photoRepository.findPhotoByCustomerIdAndFileName(customer.getCustomerId(), "first.jpg")
+                .get().getPhotoId();
+        mvc.perform(delete(BASE_URL + "/" + customer.getCustomerId() + PHOTO_URI + "/" + firstPhotoId))
+                .andExpect(status().isNoContent());
+
+        ((SegmentPhotoStorage) photoStorage).compact();
+        assertEquals(1, segmentCount());
+
+        mvc.perform(get(BASE_URL + "/" + customer.getCustomerId() + PHOTO_URI + "/second.jpg"))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(secondContent));
+    }
+
+    private void upload(Customer customer, String fileName, byte[] content) throws Exception {
+        byte[] body = ("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: image/jpeg\r\n\r\n"
+                + new String(content, StandardCharsets.UTF_8)
+                + "\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        mvc.perform(
+                post(BASE_URL + "/" + customer.getCustomerId() + "/photos/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(body))
+                .andExpect(status().isCreated());
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(SEGMENT_DIR))) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".dat")).count();
+        }
+    }
+
+    private Customer setupCustomer() {
+        Customer customer = new Customer();
+
+        customer.setFirstName("John");
+        customer.setLastName("Smith");
+        customer.setAge(20);
+
+        return customerRepository.save(customer);
+    }
+}
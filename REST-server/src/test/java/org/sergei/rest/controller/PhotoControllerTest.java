@@ -16,13 +16,20 @@
 
 package org.sergei.rest.controller;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.sergei.rest.RestServerApplication;
+import org.sergei.rest.model.Customer;
+import org.sergei.rest.model.Photo;
+import org.sergei.rest.repository.CustomerRepository;
 import org.sergei.rest.repository.PhotoRepository;
+import org.sergei.rest.service.OrphanedPhotoSweeper;
+import org.sergei.rest.service.storage.FileSystemPhotoStorage;
 import org.sergei.rest.testconfig.ResourceServerConfiguration;
 import org.sergei.rest.testconfig.WebSecurityConfigTest;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,18 +37,44 @@ import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.http.HttpHeaders;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultMatcher;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
-import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StreamUtils;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 /**
  * Test for {@link PhotoController}
@@ -60,6 +93,8 @@ public class PhotoControllerTest {
 
     private static final String BASE_URL = "/api/v1/customers";
     private static final String PHOTO_URI = "/photo";
+    private static final String UPLOAD_DIR = "target/test-photos";
+    private static final String BOUNDARY = "photoBoundary";
 
     @Rule
     public TemporaryFolder folder = new TemporaryFolder();
@@ -70,12 +105,29 @@ public class PhotoControllerTest {
     @Autowired
     private PhotoRepository photoRepository;
 
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @Autowired
+    private FileSystemPhotoStorage photoStorage;
+
+    @Autowired
+    private OrphanedPhotoSweeper orphanedPhotoSweeper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Before
     public void setUp() {
-        String uploadPath = folder.getRoot().getAbsolutePath() + "/src/test/resources/test/files/storage";
-        mvc = MockMvcBuilders
-                .standaloneSetup(Paths.get(uploadPath).toAbsolutePath().normalize())
-                .build();
+        photoRepository.deleteAll();
+        customerRepository.deleteAll();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        photoRepository.deleteAll();
+        customerRepository.deleteAll();
+        FileSystemUtils.deleteRecursively(Paths.get(UPLOAD_DIR));
     }
 
     @Test
@@ -88,4 +140,455 @@ public class PhotoControllerTest {
         MockMultipartFile mockMultipartFile = new MockMultipartFile("user-file", fileName,
                 "text/plain", "test data".getBytes());
     }
+
+    @Test
+    public void uploadPhotoStreaming_thenGetCreated() throws Exception {
+        Customer customer = setupCustomer();
+        byte[] content = "test image data".getBytes(StandardCharsets.UTF_8);
+
+        mvc.perform(
+                post(BASE_URL + "/" + customer.getCustomerId() + "/photos/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody("test_image.jpg", content)))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$[0].photoId").isNotEmpty())
+                .andExpect(jsonPath("$[0].fileName").value("test_image.jpg"))
+                .andExpect(jsonPath("$[0].fileType").value("image/jpeg"))
+                .andExpect(jsonPath("$[0].fileSize").value(content.length))
+                .andExpect(jsonPath("$[0].checksum").value(sha256(content)));
+
+        assertArrayEquals(content, Files.readAllBytes(storedPath(sha256(content))));
+    }
+
+    @Test
+    public void downloadPhotoRange_thenGetPartialContent() throws Exception {
+        Customer customer = setupCustomer();
+        byte[] content = "test image data".getBytes(StandardCharsets.UTF_8);
+        mvc.perform(
+                post(BASE_URL + "/" + customer.getCustomerId() + "/photos/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody("test_image.jpg", content)))
+                .andExpect(status().isCreated());
+
+        mvc.perform(
+                get(BASE_URL + "/" + customer.getCustomerId() + PHOTO_URI + "/test_image.jpg")
+                        .header(HttpHeaders.RANGE, "bytes=5-9"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 5-9/" + content.length))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andExpect(content().bytes("image".getBytes(StandardCharsets.UTF_8)));
+
+        mvc.perform(
+                get(BASE_URL + "/" + customer.getCustomerId() + PHOTO_URI + "/test_image.jpg")
+                        .header(HttpHeaders.RANGE, "bytes=100-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */" + content.length));
+    }
+
+    @Test
+    public void downloadPhoto_thenUseStoredContentTypeWithoutSession() throws Exception {
+        Customer customer = setupCustomer();
+        byte[] content = "png image data".getBytes(StandardCharsets.UTF_8);
+        // Client declares image/jpeg, type derived from the file name is stored instead
+        mvc.perform(
+                post(BASE_URL + "/" + customer.getCustomerId() + "/photos/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody("test_image.png", content)))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$[0].fileType").value("image/png"));
+
+        MvcResult result = mvc.perform(
+                get(BASE_URL + "/" + customer.getCustomerId() + PHOTO_URI + "/test_image.png"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "image/png"))
+                .andReturn();
+        assertNull(result.getRequest().getSession(false));
+    }
+
+    @Test
+    public void downloadPhotoContent_thenCacheOnlyPrivately() throws Exception {
+        Customer customer = setupCustomer();
+        byte[] content = "private image data".getBytes(StandardCharsets.UTF_8);
+        mvc.perform(
+                post(BASE_URL + "/" + customer.getCustomerId() + "/photos/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody("private.jpg", content)))
+                .andExpect(status().isCreated());
+
+        mvc.perform(
+                get("/api/v2/customers/" + customer.getCustomerId() + "/photos/content/" + sha256(content)))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("private")))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, not(containsString("public"))))
+                .andExpect(content().bytes(content));
+    }
+
+    @Test
+    public void downloadPhotoWithUnsafeFileName_thenEncodeItInContentDisposition() throws Exception {
+        Customer customer = setupCustomer();
+        Customer otherCustomer = setupCustomer();
+        byte[] content = "unsafe name image data".getBytes(StandardCharsets.UTF_8);
+        String checksum = sha256(content);
+        mvc.perform(
+                post(BASE_URL + "/" + customer.getCustomerId() + "/photos/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody("safe.jpg", content)))
+                .andExpect(status().isCreated());
+        Photo photo = new Photo(otherCustomer, "фото\"\r\nX-Injected: true.jpg", "http://test.com/photo.jpg",
+                "image/jpeg", (long) content.length);
+        photo.setChecksum(checksum);
+        photoRepository.save(photo);
+
+        mvc.perform(
+                get("/api/v2/customers/" + otherCustomer.getCustomerId() + "/photos/content/" + checksum))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Injected"))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''"
+                        + "%D1%84%D0%BE%D1%82%D0%BE%22%0D%0AX-Injected%3A%20true.jpg"));
+    }
+
+    @Test
+    public void uploadSameContent_thenStoreOnceAndDeleteWithLastReference() throws Exception {
+        Customer firstCustomer = setupCustomer();
+        Customer secondCustomer = setupCustomer();
+        byte[] content = "shared image data".getBytes(StandardCharsets.UTF_8);
+        String checksum = sha256(content);
+
+        mvc.perform(
+                post(BASE_URL + "/" + firstCustomer.getCustomerId() + "/photos/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody("first.jpg", content)))
+                .andExpect(status().isCreated());
+        mvc.perform(
+                post(BASE_URL + "/" + secondCustomer.getCustomerId() + "/photos/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody("second.jpg", content)))
+                .andExpect(status().isCreated());
+
+        Path storedContent = storedPath(checksum);
+        assertTrue(Files.exists(storedContent));
+        try (Stream<Path> files = Files.walk(Paths.get(UPLOAD_DIR))) {
+            assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+
+        mvc.perform(
+                get("/api/v2/customers/" + secondCustomer.getCustomerId() + "/photos/content/" + checksum))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable")))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + checksum + "\""))
+                .andExpect(content().bytes(content));
+
+        Long firstPhotoId = photoRepository.findAllByCustomerIdAndChecksum(firstCustomer.getCustomerId(), checksum)
+                .get(0).getPhotoId();
+        mvc.perform(delete(BASE_URL + "/" + firstCustomer.getCustomerId() + PHOTO_URI + "/" + firstPhotoId))
+                .andExpect(status().isNoContent());
+        assertTrue(Files.exists(storedContent));
+
+        Long secondPhotoId = photoRepository.findAllByCustomerIdAndChecksum(secondCustomer.getCustomerId(), checksum)
+                .get(0).getPhotoId();
+        mvc.perform(delete(BASE_URL + "/" + secondCustomer.getCustomerId() + PHOTO_URI + "/" + secondPhotoId))
+                .andExpect(status().isNoContent());
+        assertFalse(Files.exists(storedContent));
+    }
+
+    @Test
+    public void downloadThumbnail_thenGetResizedImage() throws Exception {
+        Customer customer = setupCustomer();
+        BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", content);
+
+        mvc.perform(
+                post(BASE_URL + "/" + customer.getCustomerId() + "/photos/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody("test_image.png", content.toByteArray())))
+                .andExpect(status().isCreated());
+
+        byte[] thumbnail = mvc.perform(
+                get(BASE_URL + "/" + customer.getCustomerId() + PHOTO_URI + "/test_image.png")
+                        .param("size", "64"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "image/png"))
+                .andReturn().getResponse().getContentAsByteArray();
+        BufferedImage resized = ImageIO.read(new ByteArrayInputStream(thumbnail));
+        assertEquals(64, resized.getWidth());
+        assertEquals(43, resized.getHeight());
+
+        mvc.perform(
+                get(BASE_URL + "/" + customer.getCustomerId() + PHOTO_URI + "/test_image.png")
+                        .param("size", "100"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void downloadThumbnailOfHugeImage_thenGetBadRequest() throws Exception {
+        Customer customer = setupCustomer();
+        BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", content);
+        // Small file declaring 50000x50000 pixels in its header, decoding it would need gigabytes
+        ByteBuffer png = ByteBuffer.wrap(content.toByteArray());
+        png.putInt(16, 50000).putInt(20, 50000);
+        CRC32 crc = new CRC32();
+        crc.update(png.array(), 12, 17);
+        png.putInt(29, (int) crc.getValue());
+
+        mvc.perform(
+                post(BASE_URL + "/" + customer.getCustomerId() + "/photos/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody("huge_image.png", png.array())))
+                .andExpect(status().isCreated());
+
+        mvc.perform(
+                get(BASE_URL + "/" + customer.getCustomerId() + PHOTO_URI + "/huge_image.png")
+                        .param("size", "64"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void uploadMultiplePhotos_whenOneFails_thenGetMultiStatus() throws Exception {
+        Customer customer = setupCustomer();
+        byte[] firstContent = "first image data".getBytes(StandardCharsets.UTF_8);
+        byte[] secondContent = "second image data".getBytes(StandardCharsets.UTF_8);
+        String tooLongFileName = String.join("", Collections.nCopies(150, "a")) + ".jpg";
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writePart(body, "files", "first.jpg", firstContent);
+        writePart(body, "files", tooLongFileName, secondContent);
+        writePart(body, "files", "third.jpg", secondContent);
+        body.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        mvc.perform(
+                post(BASE_URL + "/" + customer.getCustomerId() + "/photos")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(body.toByteArray()))
+                .andExpect(status().isMultiStatus())
+                .andExpect(jsonPath("$[0].status").value(201))
+                .andExpect(jsonPath("$[0].photo.checksum").value(sha256(firstContent)))
+                .andExpect(jsonPath("$[1].status").value(406))
+                .andExpect(jsonPath("$[1].error").value("Too long file name"))
+                .andExpect(jsonPath("$[1].photo").doesNotExist())
+                .andExpect(jsonPath("$[2].status").value(201))
+                .andExpect(jsonPath("$[2].photo.fileName").value("third.jpg"));
+
+        assertEquals(2, photoRepository.findAllPhotosByCustomerId(customer.getCustomerId()).size());
+        assertTrue(Files.exists(storedPath(sha256(firstContent))));
+        assertTrue(Files.exists(storedPath(sha256(secondContent))));
+    }
+
+    @Test
+    public void uploadMultiplePhotos_whenMetadataFails_thenGetFailedResultsAndReleaseContent() throws Exception {
+        Customer customer = setupCustomer();
+        byte[] firstContent = "first unsaved image data".getBytes(StandardCharsets.UTF_8);
+        byte[] secondContent = "second unsaved image data".getBytes(StandardCharsets.UTF_8);
+        // Type is taken from the client for an unknown extension and does not fit into its column
+        String tooLongContentType = "image/x-test; comment=" + String.join("", Collections.nCopies(300, "a"));
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writePart(body, "files", "first.jpg", firstContent);
+        writePart(body, "files", "second.unknown", tooLongContentType, secondContent);
+        body.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        mvc.perform(
+                post(BASE_URL + "/" + customer.getCustomerId() + "/photos")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(body.toByteArray()))
+                .andExpect(status().isMultiStatus())
+                .andExpect(jsonPath("$[0].status").value(500))
+                .andExpect(jsonPath("$[0].photo").doesNotExist())
+                .andExpect(jsonPath("$[1].status").value(500))
+                .andExpect(jsonPath("$[1].photo").doesNotExist());
+
+        assertTrue(photoRepository.findAllPhotosByCustomerId(customer.getCustomerId()).isEmpty());
+        assertFalse(Files.exists(storedPath(sha256(firstContent))));
+        assertFalse(Files.exists(storedPath(sha256(secondContent))));
+    }
+
+    @Test
+    public void downloadNotMigratedPhoto_thenFallBackAndMigrate() throws Exception {
+        Customer customer = setupCustomer();
+        byte[] content = "flat image data".getBytes(StandardCharsets.UTF_8);
+        String checksum = sha256(content);
+        mvc.perform(
+                post(BASE_URL + "/" + customer.getCustomerId() + "/photos/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody("flat.jpg", content)))
+                .andExpect(status().isCreated());
+
+        // Layout of former versions kept every file in the root directory
+        Path flatContent = Paths.get(UPLOAD_DIR, checksum);
+        Files.move(storedPath(checksum), flatContent);
+
+        mvc.perform(get(BASE_URL + "/" + customer.getCustomerId() + PHOTO_URI + "/flat.jpg"))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(content));
+
+        photoStorage.migrate(new FileSystemPhotoStorage.MigrationListener() {
+            @Override
+            public void moved(Path file) {
+            }
+
+            @Override
+            public void failed(Path file, Exception e) {
+                fail(e.getMessage());
+            }
+        });
+        assertFalse(Files.exists(flatContent));
+        assertArrayEquals(content, Files.readAllBytes(storedPath(checksum)));
+
+        mvc.perform(get(BASE_URL + "/" + customer.getCustomerId() + PHOTO_URI + "/flat.jpg"))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(content));
+    }
+
+    @Test
+    public void downloadPhotoArchive_thenGetAllPhotosZipped() throws Exception {
+        Customer customer = setupCustomer();
+        byte[] imageContent = "image data".getBytes(StandardCharsets.UTF_8);
+        byte[] textContent = "text text text text text".getBytes(StandardCharsets.UTF_8);
+        mvc.perform(
+                post(BASE_URL + "/" + customer.getCustomerId() + "/photos/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody("image.jpg", imageContent)))
+                .andExpect(status().isCreated());
+        mvc.perform(
+                post(BASE_URL + "/" + customer.getCustomerId() + "/photos/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody("notes.txt", textContent)))
+                .andExpect(status().isCreated());
+
+        MvcResult mvcResult = mvc.perform(get("/api/v2/customers/" + customer.getCustomerId() + "/photos/archive"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        byte[] archive = mvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/zip"))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION,
+                        containsString("customer-" + customer.getCustomerId() + "-photos.zip")))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry = zipInputStream.getNextEntry();
+            assertEquals("image.jpg", entry.getName());
+            assertEquals(ZipEntry.STORED, entry.getMethod());
+            assertArrayEquals(imageContent, StreamUtils.copyToByteArray(zipInputStream));
+
+            entry = zipInputStream.getNextEntry();
+            assertEquals("notes.txt", entry.getName());
+            assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            assertArrayEquals(textContent, StreamUtils.copyToByteArray(zipInputStream));
+
+            assertNull(zipInputStream.getNextEntry());
+        }
+
+        mvc.perform(get("/api/v2/customers/" + (customer.getCustomerId() + 1) + "/photos/archive"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void deletePhotoRows_thenSweepOrphanedPhotoFiles() throws Exception {
+        Customer customer = setupCustomer();
+        Customer otherCustomer = setupCustomer();
+        byte[] orphanedContent = "orphaned image data".getBytes(StandardCharsets.UTF_8);
+        byte[] referencedContent = "referenced image data".getBytes(StandardCharsets.UTF_8);
+        mvc.perform(
+                post(BASE_URL + "/" + customer.getCustomerId() + "/photos/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody("orphaned.jpg", orphanedContent)))
+                .andExpect(status().isCreated());
+        mvc.perform(
+                post(BASE_URL + "/" + otherCustomer.getCustomerId() + "/photos/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody("referenced.jpg", referencedContent)))
+                .andExpect(status().isCreated());
+
+        // Rows removed bypassing PhotoService, as cascading customer deletion does, leave their files behind
+        photoRepository.deleteAll(photoRepository.findAllPhotosByCustomerId(customer.getCustomerId()));
+        Path orphaned = storedPath(sha256(orphanedContent));
+        Path quarantined = Paths.get(UPLOAD_DIR, ".quarantine").resolve(Paths.get(UPLOAD_DIR).relativize(orphaned));
+        assertTrue(Files.exists(orphaned));
+
+        orphanedPhotoSweeper.sweep();
+        assertFalse(Files.exists(orphaned));
+        assertArrayEquals(orphanedContent, Files.readAllBytes(quarantined));
+        assertTrue(Files.exists(storedPath(sha256(referencedContent))));
+
+        // Grace period is zero in tests, so the next sweep deletes quarantined files
+        Thread.sleep(10);
+        orphanedPhotoSweeper.sweep();
+        assertFalse(Files.exists(quarantined));
+        assertTrue(Files.exists(storedPath(sha256(referencedContent))));
+    }
+
+    @Test
+    public void downloadPhotoRepeatedly_thenServeFromCacheUntilDeleted() throws Exception {
+        Customer customer = setupCustomer();
+        byte[] content = "cached image data".getBytes(StandardCharsets.UTF_8);
+        mvc.perform(
+                post(BASE_URL + "/" + customer.getCustomerId() + "/photos/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody("cached.jpg", content)))
+                .andExpect(status().isCreated());
+        Long photoId = photoRepository.findAllPhotosByCustomerId(customer.getCustomerId()).get(0).getPhotoId();
+
+        double metadataHits = cacheHits("photoMetadata");
+        double contentHits = cacheHits("photoContent");
+        for (int i = 0; i < 3; i++) {
+            mvc.perform(get(BASE_URL + "/" + customer.getCustomerId() + "/photos/" + photoId))
+                    .andExpect(status().isOk())
+                    .andExpect(content().bytes(content));
+        }
+        assertEquals(metadataHits + 2, cacheHits("photoMetadata"), 0);
+        assertEquals(contentHits + 2, cacheHits("photoContent"), 0);
+
+        mvc.perform(delete(BASE_URL + "/" + customer.getCustomerId() + PHOTO_URI + "/" + photoId))
+                .andExpect(status().isNoContent());
+        mvc.perform(get(BASE_URL + "/" + customer.getCustomerId() + "/photos/" + photoId))
+                .andExpect(status().isNotFound());
+    }
+
+    private Customer setupCustomer() {
+        Customer customer = new Customer();
+
+        customer.setFirstName("John");
+        customer.setLastName("Smith");
+        customer.setAge(20);
+
+        return customerRepository.save(customer);
+    }
+
+    private double cacheHits(String cacheName) {
+        return meterRegistry.get("cache.gets").tag("cache", cacheName).tag("result", "hit").functionCounter().count();
+    }
+
+    private static Path storedPath(String checksum) {
+        return Paths.get(UPLOAD_DIR, checksum.substring(0, 2), checksum.substring(2, 4), checksum);
+    }
+
+    private static byte[] multipartBody(String fileName, byte[] content) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writePart(body, "file", fileName, content);
+        body.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+
+    private static void writePart(ByteArrayOutputStream body, String name, String fileName,
+                                  byte[] content) throws IOException {
+        writePart(body, name, fileName, "image/jpeg", content);
+    }
+
+    private static void writePart(ByteArrayOutputStream body, String name, String fileName, String contentType,
+                                  byte[] content) throws IOException {
+        body.write(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: " + contentType + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.write(content);
+        body.write("\r\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String sha256(byte[] content) throws NoSuchAlgorithmException {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+        return String.format("%064x", new BigInteger(1, digest));
+    }
 }
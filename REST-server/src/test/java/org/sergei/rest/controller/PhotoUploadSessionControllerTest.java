@@ -0,0 +1,242 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.controller;
+
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.sergei.rest.RestServerApplication;
+import org.sergei.rest.dto.UploadSessionDTO;
+import org.sergei.rest.model.Customer;
+import org.sergei.rest.repository.CustomerRepository;
+import org.sergei.rest.repository.PhotoRepository;
+import org.sergei.rest.testconfig.ResourceServerConfiguration;
+import org.sergei.rest.testconfig.WebSecurityConfigTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.contains;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Test for {@link PhotoUploadSessionController}
+ *
+ * @author Sergei Visotsky
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = RestServerApplication.class)
+@TestPropertySource(locations = "classpath:application-test.properties")
+@AutoConfigureMockMvc
+@WithMockUser(username = "admin", authorities = {"ROLE_ADMIN"})
+@ContextConfiguration(classes = {ResourceServerConfiguration.class, WebSecurityConfigTest.class})
+@EnableJpaRepositories(basePackages = "org.sergei.rest.repository")
+@EntityScan(basePackages = "org.sergei.rest.model")
+public class PhotoUploadSessionControllerTest {
+
+    private static final String BASE_URL = "/api/v1/customers";
+    private static final String UPLOAD_DIR = "target/test-photos";
+    private static final byte[] CONTENT = "resumable photo data".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PhotoRepository photoRepository;
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    private Customer customer;
+
+    @Before
+    public void setUp() {
+        photoRepository.deleteAll();
+        customerRepository.deleteAll();
+        customer = new Customer();
+        customer.setFirstName("John");
+        customer.setLastName("Smith");
+        customer.setAge(20);
+        customer = customerRepository.save(customer);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        photoRepository.deleteAll();
+        customerRepository.deleteAll();
+        FileSystemUtils.deleteRecursively(Paths.get(UPLOAD_DIR));
+    }
+
+    @Test
+    public void uploadChunksOutOfOrder_thenResumeAndComplete() throws Exception {
+        String uploadUrl = createSession(sha256(CONTENT));
+
+        putChunk(uploadUrl, 10, CONTENT.length - 1);
+        mvc.perform(get(uploadUrl))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.receivedBytes").value(CONTENT.length - 10))
+                .andExpect(jsonPath("$.receivedRanges", contains("10-" + (CONTENT.length - 1))));
+
+        mvc.perform(post(uploadUrl + "/complete"))
+                .andExpect(status().isBadRequest());
+
+        putChunk(uploadUrl, 0, 9);
+        mvc.perform(get(uploadUrl))
+                .andExpect(jsonPath("$.receivedRanges", contains("0-" + (CONTENT.length - 1))));
+
+        mvc.perform(post(uploadUrl + "/complete"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.fileName").value("resumable.jpg"))
+                .andExpect(jsonPath("$.fileSize").value(CONTENT.length))
+                .andExpect(jsonPath("$.checksum").value(sha256(CONTENT)));
+
+        mvc.perform(get(BASE_URL + "/" + customer.getCustomerId() + "/photo/resumable.jpg"))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(CONTENT));
+        mvc.perform(get(uploadUrl))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void completeWithWrongChecksum_thenGetBadRequest() throws Exception {
+        String uploadUrl = createSession(sha256("other data".getBytes(StandardCharsets.UTF_8)));
+        putChunk(uploadUrl, 0, CONTENT.length - 1);
+
+        mvc.perform(post(uploadUrl + "/complete"))
+                .andExpect(status().isBadRequest());
+        mvc.perform(
+                put(uploadUrl)
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes 0-3/" + CONTENT.length)
+                        .content(Arrays.copyOfRange(CONTENT, 0, 4)))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void uploadChunkWithInvalidRange_thenGetBadRequest() throws Exception {
+        String uploadUrl = createSession(null);
+
+        mvc.perform(
+                put(uploadUrl)
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes 0-99/100")
+                        .content(CONTENT))
+                .andExpect(status().isBadRequest());
+        mvc.perform(
+                put(uploadUrl)
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(CONTENT))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void createMoreSessionsThanAllowed_thenGetTooManyRequests() throws Exception {
+        // Three open sessions are allowed per customer in tests
+        String uploadUrl = createSession(null);
+        createSession(null);
+        createSession(null);
+
+        postSession(CONTENT.length)
+                .andExpect(status().isTooManyRequests());
+
+        mvc.perform(delete(uploadUrl))
+                .andExpect(status().isNoContent());
+        createSession(null);
+    }
+
+    @Test
+    public void preallocateMoreThanAllowed_thenGetPayloadTooLarge() throws Exception {
+        // Thousand bytes may be preallocated by all sessions in tests
+        String uploadUrl = postSession(600)
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getHeader(HttpHeaders.LOCATION);
+
+        postSession(600)
+                .andExpect(status().isPayloadTooLarge());
+
+        mvc.perform(delete(uploadUrl))
+                .andExpect(status().isNoContent());
+        uploadUrl = postSession(600)
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getHeader(HttpHeaders.LOCATION);
+        mvc.perform(delete(uploadUrl))
+                .andExpect(status().isNoContent());
+    }
+
+    private ResultActions postSession(long fileSize) throws Exception {
+        return postSession(fileSize, null);
+    }
+
+    private ResultActions postSession(long fileSize, String checksum) throws Exception {
+        UploadSessionDTO request = new UploadSessionDTO();
+        request.setFileName("resumable.jpg");
+        request.setFileSize(fileSize);
+        request.setChecksum(checksum);
+
+        return mvc.perform(
+                post(BASE_URL + "/" + customer.getCustomerId() + "/photos/uploads")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsBytes(request)));
+    }
+
+    private String createSession(String checksum) throws Exception {
+        return postSession(CONTENT.length, checksum)
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.uploadId").isNotEmpty())
+                .andExpect(jsonPath("$.receivedBytes").value(0))
+                .andReturn().getResponse().getHeader(HttpHeaders.LOCATION);
+    }
+
+    private void putChunk(String uploadUrl, int start, int end) throws Exception {
+        mvc.perform(
+                put(uploadUrl)
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + CONTENT.length)
+                        .content(Arrays.copyOfRange(CONTENT, start, end + 1)))
+                .andExpect(status().isOk());
+    }
+
+    private static String sha256(byte[] content) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+        return String.format("%064x", new BigInteger(1, digest));
+    }
+}
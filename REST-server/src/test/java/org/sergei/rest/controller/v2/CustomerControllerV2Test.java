@@ -22,10 +22,15 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.sergei.rest.RestServerApplication;
 import org.sergei.rest.model.Customer;
+import org.sergei.rest.model.Order;
+import org.sergei.rest.model.Photo;
 import org.sergei.rest.repository.CustomerRepository;
+import org.sergei.rest.repository.OrderRepository;
+import org.sergei.rest.repository.PhotoRepository;
 import org.sergei.rest.testconfig.ResourceServerConfiguration;
 import org.sergei.rest.testconfig.WebSecurityConfigTest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -37,8 +42,17 @@ import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.startsWith;
 import static org.hamcrest.core.Is.is;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -68,6 +82,15 @@ public class CustomerControllerV2Test {
     @Autowired
     private CustomerRepository customerRepository;
 
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private PhotoRepository photoRepository;
+
+    @Value("${rest.expand.max-customers:100}")
+    private int maxExpandedCustomers;
+
     @Test
     public void getAllCustomers_thenReturnOk() throws Exception {
         customerRepository.deleteAll();
@@ -113,6 +136,79 @@ public class CustomerControllerV2Test {
         customerRepository.deleteAll();
     }
 
+    @Test
+    public void getCustomerByIdExpanded_thenReturnOk() throws Exception {
+        Customer customer = setupCustomer("John", "Smith", 20);
+        LocalDateTime date = LocalDateTime.of(2018, 9, 9, 9, 24);
+        Order order = orderRepository.save(new Order(customer, date, date, date, "pending"));
+        Photo photo = photoRepository.save(new Photo(customer, "test.jpg", "http://test.com/test.jpg", "image/jpeg", 120L));
+
+        mvc.perform(
+                get(BASE_URL + "/" + customer.getCustomerId() + "?expand=orders,photos")
+                        .contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.customerId").value(customer.getCustomerId()))
+                .andExpect(jsonPath("$.orders[0].orderId").value(order.getOrderId()))
+                .andExpect(jsonPath("$.orders[0].status").value("pending"))
+                .andExpect(jsonPath("$.photos[0].photoId").value(photo.getPhotoId()))
+                .andExpect(jsonPath("$.photos[0].customerId").value(customer.getCustomerId()))
+                .andExpect(jsonPath("$._links.self.href", is(BASE_URL + "/" + customer.getCustomerId())))
+                .andExpect(header().string("X-Query-Count", allOf(notNullValue(), not("0"))))
+                .andExpect(header().string("Server-Timing", startsWith("db;dur=")));
+        photoRepository.deleteAll();
+        orderRepository.deleteAll();
+        customerRepository.deleteAll();
+    }
+
+    @Test
+    public void getAllCustomersExpanded_thenReturnOk() throws Exception {
+        customerRepository.deleteAll();
+        Customer customer = setupCustomer("John", "Smith", 20);
+        Photo photo = photoRepository.save(new Photo(customer, "test.jpg", "http://test.com/test.jpg", "image/jpeg", 120L));
+
+        mvc.perform(
+                get(BASE_URL + "?expand=photos")
+                        .contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.customerDTOV2List[0].photos[0].photoId").value(photo.getPhotoId()))
+                .andExpect(jsonPath("$._embedded.customerDTOV2List[0].orders").doesNotExist());
+        photoRepository.deleteAll();
+        customerRepository.deleteAll();
+    }
+
+    @Test
+    public void getAllCustomersExpandedBeyondCustomerLimit_thenReturnOk() throws Exception {
+        customerRepository.deleteAll();
+        List<Customer> customers = new ArrayList<>();
+        for (int i = 0; i <= maxExpandedCustomers; i++) {
+            customers.add(new Customer("John", "Smith", 20, new ArrayList<>(), new ArrayList<>()));
+        }
+        customerRepository.saveAll(customers);
+        Customer lastCustomer = customers.get(maxExpandedCustomers);
+        Photo photo = photoRepository.save(new Photo(lastCustomer, "test.jpg", "http://test.com/test.jpg", "image/jpeg", 120L));
+
+        mvc.perform(
+                get(BASE_URL + "?expand=photos")
+                        .contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.customerDTOV2List.length()").value(maxExpandedCustomers + 1))
+                .andExpect(jsonPath("$._embedded.customerDTOV2List[" + maxExpandedCustomers + "].photos[0].photoId")
+                        .value(photo.getPhotoId()));
+        photoRepository.deleteAll();
+        customerRepository.deleteAll();
+    }
+
+    @Test
+    public void getCustomerByIdWithUnsupportedExpand_thenReturnBadRequest() throws Exception {
+        Customer customer = setupCustomer("John", "Smith", 20);
+
+        mvc.perform(
+                get(BASE_URL + "/" + customer.getCustomerId() + "?expand=orders.orderDetails")
+                        .contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .andExpect(status().isBadRequest());
+        customerRepository.deleteAll();
+    }
+
     @Test
     public void postCustomer_thenReturnCreated() throws Exception {
         final String firstName = "John";
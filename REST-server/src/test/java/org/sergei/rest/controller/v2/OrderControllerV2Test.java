@@ -39,6 +39,7 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -47,8 +48,11 @@ import java.util.LinkedList;
 import java.util.List;
 
 import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -111,9 +115,12 @@ public class OrderControllerV2Test {
 
         Order savedOrder = setupOrder(customer, orderDate, requiredDate, shippedDate, status);
 
-        mvc.perform(
+        MvcResult mvcResult = mvc.perform(
                 get(BASE_URL + "/" + customer.getCustomerId() + ORDER_URI)
                         .contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(mvcResult))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$._embedded.orderDTOV2List[0].orderId").isNotEmpty())
                 .andExpect(jsonPath("$._embedded.orderDTOV2List[0].customerId").isNotEmpty())
@@ -135,6 +142,25 @@ public class OrderControllerV2Test {
         productRepository.deleteAll();
     }
 
+    @Test
+    public void findAllOrders_thenReportQueriesOfAsyncHandling() throws Exception {
+        Customer customer = setupCustomer("John", "Smith", 20);
+        setupOrder(customer, LocalDateTime.parse("2018-09-28T22:00:00", FORMATTER),
+                LocalDateTime.parse("2018-09-29T22:00:00", FORMATTER),
+                LocalDateTime.parse("2018-09-30T22:00:00", FORMATTER), "pending");
+
+        MvcResult mvcResult = mvc.perform(
+                get(BASE_URL + "/" + customer.getCustomerId() + ORDER_URI)
+                        .contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        // Queries run on the worker thread, none of them on the request thread
+        int queryCount = Integer.parseInt(mvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("X-Query-Count"));
+        assertTrue(queryCount > 0);
+    }
+
     @Test
     public void findOneOrder_thenReturnOk() throws Exception {
         final String firstName = "John";
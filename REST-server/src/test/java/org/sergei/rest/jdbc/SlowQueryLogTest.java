@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.jdbc;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link SlowQueryLog}
+ *
+ * @author Sergei Visotsky
+ */
+public class SlowQueryLogTest {
+
+    private static final String SECRET = "$2a$10$notARealPasswordHash";
+    private static final String INSERT_SQL = "insert into secrets (secret) values (?)";
+
+    private final Logger logger = (Logger) LoggerFactory.getLogger(SlowQueryLog.class);
+    private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+    private Level originalLevel;
+
+    @Before
+    public void setUp() {
+        originalLevel = logger.getLevel();
+        logger.setLevel(Level.INFO);
+        appender.start();
+        logger.addAppender(appender);
+    }
+
+    @After
+    public void tearDown() {
+        logger.detachAppender(appender);
+        logger.setLevel(originalLevel);
+    }
+
+    @Test
+    public void logByDefault_thenOmitParameters() {
+        String entry = insertSecret(SlowQueryLog.Parameters.NONE);
+
+        assertTrue(entry, entry.startsWith("SLOW"));
+        assertTrue(entry, entry.contains(INSERT_SQL));
+        assertFalse(entry, entry.contains("parameters"));
+        assertFalse(entry, entry.contains(SECRET));
+    }
+
+    @Test
+    public void logParameterTypes_thenOmitValues() {
+        String entry = insertSecret(SlowQueryLog.Parameters.TYPES);
+
+        assertTrue(entry, entry.endsWith("parameters: [<String>]"));
+        assertFalse(entry, entry.contains(SECRET));
+    }
+
+    @Test
+    public void logParameterValues_thenIncludeThem() {
+        String entry = insertSecret(SlowQueryLog.Parameters.VALUES);
+
+        assertTrue(entry, entry.endsWith("parameters: ['" + SECRET + "']"));
+    }
+
+    @Test
+    public void runFastStatementWithoutSampling_thenDoNotLogIt() {
+        JdbcTemplate jdbcTemplate = jdbcTemplate(new SlowQueryLog(60000, 0, SlowQueryLog.Parameters.VALUES));
+
+        jdbcTemplate.update(INSERT_SQL, SECRET);
+
+        assertTrue(appender.list.isEmpty());
+    }
+
+    /**
+     * @return log entry of the insert, every statement is slow with zero threshold
+     */
+    private String insertSecret(SlowQueryLog.Parameters parameters) {
+        JdbcTemplate jdbcTemplate = jdbcTemplate(new SlowQueryLog(0, 0, parameters));
+        appender.list.clear();
+
+        jdbcTemplate.update(INSERT_SQL, SECRET);
+
+        assertEquals(1, appender.list.size());
+        return appender.list.get(0).getFormattedMessage();
+    }
+
+    private JdbcTemplate jdbcTemplate(SlowQueryLog slowQueryLog) {
+        DataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:slowquerydb;DB_CLOSE_DELAY=-1");
+        new JdbcTemplate(dataSource).execute("create table if not exists secrets (secret varchar(100))");
+        return new JdbcTemplate(new QueryCountingDataSource(dataSource, slowQueryLog));
+    }
+}
@@ -36,6 +36,7 @@ import org.springframework.test.context.junit4.SpringRunner;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -107,6 +108,26 @@ public class OrderRepositoryTest {
         assertThat(foundOrderAfter).hasSize(0);
     }
 
+    @Test
+    public void findFirstOrdersByCustomerIds_thenGetLimitedOrdersOfEachCustomer() {
+        Customer customer = new Customer("John", "Smith", 25, Collections.emptyList(), Collections.emptyList());
+        customerRepository.save(customer);
+        Customer otherCustomer = new Customer("Jane", "Smith", 27, Collections.emptyList(), Collections.emptyList());
+        customerRepository.save(otherCustomer);
+        Order first = orderRepository.save(new Order(customer, TESTING_DATE, TESTING_DATE, TESTING_DATE, "pending"));
+        Order second = orderRepository.save(new Order(customer, TESTING_DATE, TESTING_DATE, TESTING_DATE, "pending"));
+        orderRepository.save(new Order(customer, TESTING_DATE, TESTING_DATE, TESTING_DATE, "pending"));
+        Order otherOrder = orderRepository.save(
+                new Order(otherCustomer, TESTING_DATE, TESTING_DATE, TESTING_DATE, "pending"));
+
+        List<Order> foundOrders = orderRepository.findFirstByCustomerIds(
+                Arrays.asList(customer.getCustomerId(), otherCustomer.getCustomerId()), 2);
+
+        assertThat(foundOrders).extracting(Order::getOrderId)
+                .containsExactly(first.getOrderId(), second.getOrderId(), otherOrder.getOrderId());
+        assertEquals(otherCustomer.getCustomerId(), foundOrders.get(2).getCustomer().getCustomerId());
+    }
+
     @Test
     public void findOrdersByCustomerId_thenGetOk() {
         Customer customer = new Customer("John", "Smith", 25, Collections.emptyList(), Collections.emptyList());
@@ -30,6 +30,7 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -100,6 +101,24 @@ public class PhotoRepositoryTest {
         assertThat(foundPhotos).hasSize(1);
     }
 
+    @Test
+    public void findFirstPhotosByCustomerIds_thenGetLimitedPhotosOfEachCustomer() {
+        Customer customer = new Customer("John", "Smith", 25, Collections.emptyList(), Collections.emptyList());
+        customerRepository.save(customer);
+        Customer otherCustomer = new Customer("Jane", "Smith", 27, Collections.emptyList(), Collections.emptyList());
+        customerRepository.save(otherCustomer);
+        Photo first = photoRepository.save(new Photo(customer, "first", "http://test.com/first.jpg", "jpg", 120L));
+        photoRepository.save(new Photo(customer, "second", "http://test.com/second.jpg", "jpg", 120L));
+        Photo otherPhoto = photoRepository.save(
+                new Photo(otherCustomer, "other", "http://test.com/other.jpg", "jpg", 120L));
+
+        List<Photo> foundPhotos = photoRepository.findFirstPhotosByCustomerIds(
+                Arrays.asList(customer.getCustomerId(), otherCustomer.getCustomerId()), 1);
+
+        assertThat(foundPhotos).extracting(Photo::getPhotoId)
+                .containsExactly(first.getPhotoId(), otherPhoto.getPhotoId());
+    }
+
     @Test
     public void findPhotoByCustomerIdAndFileName_thenGetOk() {
         Customer customer = new Customer("John", "Smith", 25, Collections.emptyList(), Collections.emptyList());
@@ -134,4 +153,19 @@ public class PhotoRepositoryTest {
         assertThat(fileName).isNotEmpty();
         assertEquals(photo.getFileUrl(), fileName.get(0));
     }
+
+    @Test
+    public void findReferencedChecksumsAndFileNames_thenGetOnlyReferenced() {
+        Customer customer = new Customer("John", "Smith", 25, Collections.emptyList(), Collections.emptyList());
+        customerRepository.save(customer);
+        Photo legacyPhoto = new Photo(customer, "testFileName", "http://test.com/test.jpg", "jpg", 120L);
+        photoRepository.save(legacyPhoto);
+        Photo photo = new Photo(customer, "otherFileName", "http://test.com/other.jpg", "jpg", 120L);
+        photo.setChecksum("abc");
+        photoRepository.save(photo);
+
+        assertThat(photoRepository.findReferencedChecksums(Arrays.asList("abc", "def"))).containsExactly("abc");
+        assertThat(photoRepository.findReferencedLegacyFileNames(Arrays.asList("testFileName", "otherFileName")))
+                .containsExactly("testFileName");
+    }
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.sergei.rest.model.User;
+import org.sergei.rest.model.UserRoles;
+import org.sergei.rest.repository.UserRepository;
+import org.sergei.rest.service.ApiUserService;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test for {@link CachingDaoAuthenticationProvider}
+ *
+ * @author Sergei Visotsky
+ */
+public class CachingDaoAuthenticationProviderTest {
+
+    private final Map<String, String> encodedPasswords = new HashMap<>();
+    private CountingPasswordEncoder passwordEncoder;
+    private CachingDaoAuthenticationProvider provider;
+
+    @Before
+    public void setUp() {
+        passwordEncoder = new CountingPasswordEncoder();
+        provider = new CachingDaoAuthenticationProvider(new SimpleMeterRegistry(), 100, 60000);
+        provider.setPasswordEncoder(passwordEncoder);
+        provider.setUserDetailsService(this::loadUser);
+    }
+
+    @Test
+    public void authenticateTwice_thenVerifyPasswordOnce() {
+        encodedPasswords.put("admin", passwordEncoder.encode("secret"));
+
+        assertTrue(authenticate("admin", "secret").isAuthenticated());
+        assertTrue(authenticate("admin", "secret").isAuthenticated());
+        assertEquals(1, passwordEncoder.matches);
+    }
+
+    @Test
+    public void authenticateWithWrongPasswordAfterCorrectOne_thenReject() {
+        encodedPasswords.put("admin", passwordEncoder.encode("secret"));
+        authenticate("admin", "secret");
+
+        assertRejected("admin", "wrong");
+        assertRejected("admin", "secret ");
+        assertRejected("admin", "");
+    }
+
+    @Test
+    public void saveUser_thenRejectOldPassword() {
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.save(any(User.class))).thenAnswer(invocation -> {
+            User user = (User) invocation.getArguments()[0];
+            encodedPasswords.put(user.getUsername(), user.getPassword());
+            return user;
+        });
+        ApiUserService apiUserService = new ApiUserService(userRepository, passwordEncoder, provider);
+        apiUserService.saveUser(new User("admin", "secret", Collections.singletonList(new UserRoles("ADMIN"))));
+        authenticate("admin", "secret");
+
+        apiUserService.saveUser(new User("admin", "changed", Collections.singletonList(new UserRoles("ADMIN"))));
+
+        assertRejected("admin", "secret");
+        assertTrue(authenticate("admin", "changed").isAuthenticated());
+    }
+
+    @Test
+    public void changeStoredHash_thenVerifyPasswordAgain() {
+        encodedPasswords.put("admin", passwordEncoder.encode("secret"));
+        authenticate("admin", "secret");
+
+        // Same password hashed again with a new salt, e.g. changed directly in the database
+        encodedPasswords.put("admin", passwordEncoder.encode("secret"));
+        authenticate("admin", "secret");
+        assertEquals(2, passwordEncoder.matches);
+
+        encodedPasswords.put("admin", passwordEncoder.encode("changed"));
+        assertRejected("admin", "secret");
+    }
+
+    @Test
+    public void authenticateWithDifferentSplitOfSameCharacters_thenDoNotHitCache() {
+        // Both users share the hash, so only the cache key could tell their credentials apart
+        String encodedPassword = passwordEncoder.encode("bc");
+        encodedPasswords.put("a", encodedPassword);
+        encodedPasswords.put("ab", encodedPassword);
+        authenticate("a", "bc");
+
+        assertRejected("ab", "c");
+    }
+
+    private Authentication authenticate(String username, String password) {
+        return provider.authenticate(new UsernamePasswordAuthenticationToken(username, password));
+    }
+
+    private void assertRejected(String username, String password) {
+        try {
+            authenticate(username, password);
+            fail("Credentials of " + username + " must be rejected");
+        } catch (BadCredentialsException e) {
+            // Expected
+        }
+    }
+
+    private UserDetails loadUser(String username) {
+        String encodedPassword = encodedPasswords.get(username);
+        if (encodedPassword == null) {
+            throw new UsernameNotFoundException(username);
+        }
+        return org.springframework.security.core.userdetails.User.withUsername(username)
+                .password(encodedPassword)
+                .roles("ADMIN")
+                .build();
+    }
+
+    /**
+     * Fast hashing for tests, counts password verifications
+     */
+    private static final class CountingPasswordEncoder extends BCryptPasswordEncoder {
+
+        private int matches;
+
+        private CountingPasswordEncoder() {
+            super(4);
+        }
+
+        @Override
+        public boolean matches(CharSequence rawPassword, String encodedPassword) {
+            matches++;
+            return super.matches(rawPassword, encodedPassword);
+        }
+    }
+}
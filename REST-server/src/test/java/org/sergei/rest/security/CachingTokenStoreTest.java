@@ -0,0 +1,183 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.TokenRequest;
+import org.springframework.security.oauth2.provider.token.DefaultTokenServices;
+import org.springframework.security.oauth2.provider.token.store.InMemoryTokenStore;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test for {@link CachingTokenStore}
+ *
+ * @author Sergei Visotsky
+ */
+public class CachingTokenStoreTest {
+
+    private CountingTokenStore delegate;
+    private CachingTokenStore tokenStore;
+    private DefaultTokenServices tokenServices;
+
+    @Before
+    public void setUp() {
+        delegate = new CountingTokenStore();
+        tokenStore = new CachingTokenStore(delegate, new SimpleMeterRegistry(), 100, 60000);
+        tokenServices = new DefaultTokenServices();
+        tokenServices.setTokenStore(tokenStore);
+        tokenServices.setSupportRefreshToken(true);
+    }
+
+    @Test
+    public void readTokenTwice_thenReadDelegateOnce() {
+        String token = tokenServices.createAccessToken(authentication()).getValue();
+
+        tokenServices.loadAuthentication(token);
+        tokenServices.loadAuthentication(token);
+        assertEquals(1, delegate.accessTokenReads);
+    }
+
+    @Test
+    public void revokeToken_thenRejectNextRequest() {
+        String token = tokenServices.createAccessToken(authentication()).getValue();
+        tokenServices.loadAuthentication(token);
+
+        assertTrue(tokenServices.revokeToken(token));
+
+        assertRejected(token);
+    }
+
+    @Test
+    public void removeAccessToken_thenEvict() {
+        OAuth2AccessToken token = tokenServices.createAccessToken(authentication());
+        assertNotNull(tokenStore.readAccessToken(token.getValue()));
+
+        tokenStore.removeAccessToken(token);
+
+        assertNull(tokenStore.readAccessToken(token.getValue()));
+        assertNull(tokenStore.readAuthentication(token.getValue()));
+    }
+
+    @Test
+    public void refreshToken_thenRejectAccessTokensIssuedWithIt() {
+        OAuth2AccessToken token = tokenServices.createAccessToken(authentication());
+        tokenServices.loadAuthentication(token.getValue());
+
+        OAuth2AccessToken refreshed = tokenServices.refreshAccessToken(token.getRefreshToken().getValue(),
+                new TokenRequest(Collections.emptyMap(), "client", Collections.singleton("read"), "refresh_token"));
+
+        assertRejected(token.getValue());
+        assertEquals("admin", tokenServices.loadAuthentication(refreshed.getValue()).getName());
+    }
+
+    @Test
+    public void removeAccessTokenUsingRefreshToken_thenEvictOnlyTokensIssuedWithIt() {
+        OAuth2AccessToken token = tokenServices.createAccessToken(authentication());
+        OAuth2AccessToken otherToken = tokenServices.createAccessToken(authentication("other"));
+        tokenStore.readAccessToken(token.getValue());
+        tokenStore.readAccessToken(otherToken.getValue());
+
+        tokenStore.removeAccessTokenUsingRefreshToken(token.getRefreshToken());
+
+        assertNull(tokenStore.readAccessToken(token.getValue()));
+        assertNotNull(tokenStore.readAccessToken(otherToken.getValue()));
+        assertEquals(3, delegate.accessTokenReads);
+    }
+
+    @Test
+    public void readTokenAfterItExpires_thenReadDelegateAgain() throws InterruptedException {
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken("short-lived");
+        token.setExpiration(new Date(System.currentTimeMillis() + 500));
+        tokenStore.storeAccessToken(token, authentication());
+        tokenStore.readAccessToken(token.getValue());
+        tokenStore.readAccessToken(token.getValue());
+        assertEquals(1, delegate.accessTokenReads);
+
+        // Cache entry would live for a minute, the token for half a second
+        TimeUnit.MILLISECONDS.sleep(700);
+        tokenStore.readAccessToken(token.getValue());
+        assertEquals(2, delegate.accessTokenReads);
+    }
+
+    @Test
+    public void readAuthenticationTwice_thenReturnSeparateCopies() {
+        String token = tokenServices.createAccessToken(authentication()).getValue();
+
+        OAuth2Authentication first = tokenStore.readAuthentication(token);
+        first.setDetails("request details");
+        first.setAuthenticated(false);
+        OAuth2Authentication second = tokenStore.readAuthentication(token);
+
+        assertNotSame(first, second);
+        assertNull(second.getDetails());
+        assertTrue(second.isAuthenticated());
+    }
+
+    private void assertRejected(String token) {
+        try {
+            tokenServices.loadAuthentication(token);
+            fail("Token must be rejected");
+        } catch (InvalidTokenException e) {
+            // Expected
+        }
+    }
+
+    private static OAuth2Authentication authentication() {
+        return authentication("admin");
+    }
+
+    private static OAuth2Authentication authentication(String username) {
+        OAuth2Request request = new OAuth2Request(Collections.emptyMap(), "client",
+                AuthorityUtils.createAuthorityList("ROLE_CLIENT"), true, Collections.singleton("read"),
+                Collections.emptySet(), null, Collections.emptySet(), Collections.emptyMap());
+        return new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(username, null,
+                AuthorityUtils.createAuthorityList("ROLE_ADMIN")));
+    }
+
+    /**
+     * Counts reads of access tokens which are cached
+     */
+    private static final class CountingTokenStore extends InMemoryTokenStore {
+
+        private int accessTokenReads;
+
+        @Override
+        public OAuth2AccessToken readAccessToken(String tokenValue) {
+            accessTokenReads++;
+            return super.readAccessToken(tokenValue);
+        }
+    }
+}
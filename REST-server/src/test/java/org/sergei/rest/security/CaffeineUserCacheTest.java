@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.sergei.rest.model.User;
+import org.sergei.rest.model.UserRoles;
+import org.sergei.rest.repository.UserRepository;
+import org.sergei.rest.service.ApiUserDetailsService;
+import org.sergei.rest.service.ApiUserService;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test for {@link CaffeineUserCache} used by {@link CachingDaoAuthenticationProvider}
+ *
+ * @author Sergei Visotsky
+ */
+public class CaffeineUserCacheTest {
+
+    private final PasswordEncoder passwordEncoder = new BCryptPasswordEncoder(4);
+    private UserRepository userRepository;
+    private CachingDaoAuthenticationProvider provider;
+    private ApiUserService apiUserService;
+    private User storedUser;
+
+    @Before
+    public void setUp() {
+        userRepository = mock(UserRepository.class);
+        when(userRepository.findByUserName("admin")).thenAnswer(invocation -> Optional.ofNullable(storedUser));
+        when(userRepository.save(any(User.class))).thenAnswer(invocation -> {
+            storedUser = (User) invocation.getArguments()[0];
+            return storedUser;
+        });
+        provider = new CachingDaoAuthenticationProvider(new SimpleMeterRegistry(), 100, 60000);
+        provider.setPasswordEncoder(passwordEncoder);
+        provider.setUserDetailsService(new ApiUserDetailsService(userRepository));
+        provider.setUserCache(new CaffeineUserCache(new SimpleMeterRegistry(), 100, 60000));
+        apiUserService = new ApiUserService(userRepository, passwordEncoder, provider);
+    }
+
+    @Test
+    public void authenticateTwice_thenQueryUserOnce() {
+        apiUserService.saveUser(new User("admin", "secret", Collections.singletonList(new UserRoles("ADMIN"))));
+
+        assertTrue(authenticate("admin", "secret").isAuthenticated());
+        assertTrue(authenticate("admin", "secret").isAuthenticated());
+        verify(userRepository, times(1)).findByUserName("admin");
+    }
+
+    @Test
+    public void saveUser_thenQueryUserAgain() {
+        apiUserService.saveUser(new User("admin", "secret", Collections.singletonList(new UserRoles("ADMIN"))));
+        authenticate("admin", "secret");
+
+        apiUserService.saveUser(new User("admin", "changed", Collections.singletonList(new UserRoles("ADMIN"))));
+
+        // Stale cached user would still accept the old password
+        assertRejected("admin", "secret");
+        verify(userRepository, times(2)).findByUserName("admin");
+        assertTrue(authenticate("admin", "changed").isAuthenticated());
+    }
+
+    private Authentication authenticate(String username, String password) {
+        return provider.authenticate(new UsernamePasswordAuthenticationToken(username, password));
+    }
+
+    private void assertRejected(String username, String password) {
+        try {
+            authenticate(username, password);
+            fail("Credentials of " + username + " must be rejected");
+        } catch (BadCredentialsException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.security;
+
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.ConsumerTokenServices;
+import org.springframework.security.oauth2.provider.token.DefaultTokenServices;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test for {@link SigningAccessTokenConverter} used by {@link RevocableJwtTokenStore}
+ *
+ * @author Sergei Visotsky
+ */
+public class SigningAccessTokenConverterTest {
+
+    private static final String OLD_KEY = "k1:first-secret-at-least-32-characters-long";
+    private static final String NEW_KEY = "k2:second-secret-at-least-32-characters-long";
+    private static final String OTHER_KEY = "k1:other-secret-at-least-32-characters-long";
+
+    @Test
+    public void readIssuedToken_thenReturnAuthentication() {
+        DefaultTokenServices tokenServices = tokenServices(new SigningAccessTokenConverter(OLD_KEY, "k1"), 60);
+        OAuth2AccessToken token = tokenServices.createAccessToken(authentication());
+
+        assertEquals("admin", tokenServices.loadAuthentication(token.getValue()).getName());
+    }
+
+    @Test
+    public void readTokenSignedWithUnknownKeyId_thenReject() {
+        String token = issue(new SigningAccessTokenConverter(NEW_KEY, "k2"));
+
+        assertRejected(tokenServices(new SigningAccessTokenConverter(OLD_KEY, "k1"), 60), token);
+    }
+
+    @Test
+    public void readTokenSignedWithOtherSecretUnderSameKeyId_thenReject() {
+        String token = issue(new SigningAccessTokenConverter(OTHER_KEY, "k1"));
+
+        assertRejected(tokenServices(new SigningAccessTokenConverter(OLD_KEY, "k1"), 60), token);
+    }
+
+    @Test
+    public void readTamperedToken_thenReject() {
+        SigningAccessTokenConverter converter = new SigningAccessTokenConverter(OLD_KEY, "k1");
+        String token = issue(converter);
+        int signatureStart = token.lastIndexOf('.') + 1;
+        char tampered = token.charAt(signatureStart) == 'A' ? 'B' : 'A';
+        String tamperedSignature = token.substring(0, signatureStart) + tampered + token.substring(signatureStart + 1);
+        // Claims changed without signing them again
+        String[] parts = token.split("\\.");
+        String claims = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8);
+        String tamperedClaims = parts[0] + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(
+                claims.replace("admin", "root").getBytes(StandardCharsets.UTF_8)) + "." + parts[2];
+
+        assertRejected(tokenServices(converter, 60), tamperedSignature);
+        assertRejected(tokenServices(converter, 60), tamperedClaims);
+    }
+
+    @Test
+    public void rotateKeys_thenAcceptOldTokensWhileOldKeyIsConfigured() {
+        String oldToken = issue(new SigningAccessTokenConverter(OLD_KEY, "k1"));
+
+        DefaultTokenServices rotated = tokenServices(new SigningAccessTokenConverter(OLD_KEY + "," + NEW_KEY, "k2"), 60);
+        String newToken = rotated.createAccessToken(authentication()).getValue();
+        assertEquals("admin", rotated.loadAuthentication(oldToken).getName());
+        assertEquals("admin", rotated.loadAuthentication(newToken).getName());
+
+        DefaultTokenServices oldKeyRemoved = tokenServices(new SigningAccessTokenConverter(NEW_KEY, "k2"), 60);
+        assertEquals("admin", oldKeyRemoved.loadAuthentication(newToken).getName());
+        assertRejected(oldKeyRemoved, oldToken);
+    }
+
+    @Test
+    public void revokeToken_thenRejectUntilItExpires() throws InterruptedException {
+        // Expiration is encoded in whole seconds, so the token lives for at least one second
+        DefaultTokenServices tokenServices = tokenServices(new SigningAccessTokenConverter(OLD_KEY, "k1"), 2);
+        ConsumerTokenServices consumerTokenServices = tokenServices;
+        String token = tokenServices.createAccessToken(authentication()).getValue();
+
+        assertTrue(consumerTokenServices.revokeToken(token));
+        assertEquals("Token has been revoked", rejection(tokenServices, token).getMessage());
+
+        // Revocation is forgotten once the token is rejected as expired anyway
+        TimeUnit.MILLISECONDS.sleep(3100);
+        assertTrue(rejection(tokenServices, token).getMessage().contains("expired"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void configureShortSecret_thenFail() {
+        new SigningAccessTokenConverter("k1:secret-shorter-than-32-chars", "k1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void configureMissingActiveKey_thenFail() {
+        new SigningAccessTokenConverter(OLD_KEY, "k2");
+    }
+
+    private static DefaultTokenServices tokenServices(SigningAccessTokenConverter converter, int validitySeconds) {
+        DefaultTokenServices tokenServices = new DefaultTokenServices();
+        tokenServices.setTokenStore(new RevocableJwtTokenStore(converter));
+        tokenServices.setTokenEnhancer(converter);
+        tokenServices.setSupportRefreshToken(true);
+        tokenServices.setAccessTokenValiditySeconds(validitySeconds);
+        return tokenServices;
+    }
+
+    private static String issue(SigningAccessTokenConverter converter) {
+        return tokenServices(converter, 60).createAccessToken(authentication()).getValue();
+    }
+
+    private static OAuth2Authentication authentication() {
+        OAuth2Request request = new OAuth2Request(Collections.emptyMap(), "client",
+                AuthorityUtils.createAuthorityList("ROLE_CLIENT"), true, Collections.singleton("read"),
+                Collections.emptySet(), null, Collections.emptySet(), Collections.emptyMap());
+        return new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken("admin", null,
+                AuthorityUtils.createAuthorityList("ROLE_ADMIN")));
+    }
+
+    private static void assertRejected(DefaultTokenServices tokenServices, String token) {
+        rejection(tokenServices, token);
+    }
+
+    private static InvalidTokenException rejection(DefaultTokenServices tokenServices, String token) {
+        try {
+            tokenServices.loadAuthentication(token);
+        } catch (InvalidTokenException e) {
+            return e;
+        }
+        fail("Token must be rejected");
+        return null;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.sergei.rest.config.security.OAuthSchemaConfig;
+import org.sergei.rest.security.ExpiringJdbcTokenStore;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.DataSourceInitializer;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test for {@link ExpiredTokenPurger}
+ *
+ * @author Sergei Visotsky
+ */
+public class ExpiredTokenPurgerTest {
+
+    private static final String ACCESS_TOKEN_TABLE = "oauth_access_token";
+    private static final String REFRESH_TOKEN_TABLE = "oauth_refresh_token";
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private JdbcTemplate jdbcTemplate;
+    private ExpiringJdbcTokenStore tokenStore;
+    private ExpiredTokenPurger purger;
+
+    @Before
+    public void setUp() throws Exception {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:purgedb;DB_CLOSE_DELAY=-1;INIT=create schema if not exists rest_services\\;"
+                        + "set schema rest_services");
+        DataSourceInitializer initializer = new OAuthSchemaConfig(new ClassPathResource("sql/oauth_schema.sql"),
+                new ClassPathResource("sql/oauth_schema_upgrade.sql")).dataSourceInitializer(dataSource);
+        initializer.afterPropertiesSet();
+        // Upgrade is applied on every start, columns and indexes are already there
+        initializer.afterPropertiesSet();
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.update("delete from " + ACCESS_TOKEN_TABLE);
+        jdbcTemplate.update("delete from " + REFRESH_TOKEN_TABLE);
+        tokenStore = new ExpiringJdbcTokenStore(dataSource);
+        purger = new ExpiredTokenPurger(dataSource, meterRegistry, 1, 0);
+    }
+
+    @Test
+    public void purge_thenDeleteOnlyExpiredTokens() {
+        tokenStore.storeAccessToken(accessToken("expired", -60000), authentication("admin"));
+        tokenStore.storeAccessToken(accessToken("live", 60000), authentication("user"));
+
+        purger.purge();
+
+        assertEquals(Collections.singletonList("user"), jdbcTemplate.queryForList(
+                "select user_name from " + ACCESS_TOKEN_TABLE, String.class));
+        assertEquals(1, purgedRows(ACCESS_TOKEN_TABLE), 0);
+        assertEquals(1, tableRows(ACCESS_TOKEN_TABLE), 0);
+        assertEquals(0, purgedRows(REFRESH_TOKEN_TABLE), 0);
+        assertEquals(0, tableRows(REFRESH_TOKEN_TABLE), 0);
+    }
+
+    @Test
+    public void purgeTokensStoredWithoutExpiration_thenFillItInFirst() {
+        tokenStore.storeAccessToken(accessToken("expired", -60000), authentication("admin"));
+        tokenStore.storeAccessToken(accessToken("live", 60000), authentication("user"));
+        jdbcTemplate.update("update " + ACCESS_TOKEN_TABLE + " set expiration = null");
+
+        purger.purge();
+
+        assertEquals(Collections.singletonList("user"), jdbcTemplate.queryForList(
+                "select user_name from " + ACCESS_TOKEN_TABLE, String.class));
+        assertEquals(1, purgedRows(ACCESS_TOKEN_TABLE), 0);
+    }
+
+    @Test(timeout = 10000)
+    public void purgeRowsWithoutTokenId_thenDeleteThem() {
+        // More of them than the batch size
+        jdbcTemplate.update("insert into " + REFRESH_TOKEN_TABLE + " (token_id) values (null)");
+        jdbcTemplate.update("insert into " + REFRESH_TOKEN_TABLE + " (token_id) values (null)");
+
+        purger.purge();
+
+        assertEquals(2, purgedRows(REFRESH_TOKEN_TABLE), 0);
+        assertEquals(0, tableRows(REFRESH_TOKEN_TABLE), 0);
+    }
+
+    private double purgedRows(String table) {
+        return meterRegistry.get("rest.oauth.token.purged").tag("table", table).counter().count();
+    }
+
+    private double tableRows(String table) {
+        return meterRegistry.get("rest.oauth.token.rows").tag("table", table).gauge().value();
+    }
+
+    private static DefaultOAuth2AccessToken accessToken(String value, long expiresInMillis) {
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(value);
+        token.setExpiration(new Date(System.currentTimeMillis() + expiresInMillis));
+        return token;
+    }
+
+    private static OAuth2Authentication authentication(String username) {
+        OAuth2Request request = new OAuth2Request(Collections.emptyMap(), "client",
+                AuthorityUtils.createAuthorityList("ROLE_CLIENT"), true, Collections.singleton("read"),
+                Collections.emptySet(), null, Collections.emptySet(), Collections.emptyMap());
+        return new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(username, null,
+                AuthorityUtils.createAuthorityList("ROLE_USER")));
+    }
+}
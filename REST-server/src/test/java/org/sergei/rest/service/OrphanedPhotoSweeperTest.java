@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sergei.rest.repository.PhotoRepository;
+import org.sergei.rest.service.storage.FileSystemPhotoStorage;
+import org.sergei.rest.service.storage.SegmentPhotoStorage;
+import org.sergei.rest.service.storage.StagedContent;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test for {@link OrphanedPhotoSweeper} running with the segment storage
+ *
+ * @author Sergei Visotsky
+ */
+public class OrphanedPhotoSweeperTest {
+
+    private static final byte[] REFERENCED_CONTENT = "referenced photo".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ORPHANED_CONTENT = "orphaned photo".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final PhotoRepository photoRepository = mock(PhotoRepository.class);
+    private FileSystemPhotoStorage fileSystemStorage;
+    private SegmentPhotoStorage segmentStorage;
+
+    @Before
+    public void setUp() throws IOException {
+        fileSystemStorage = new FileSystemPhotoStorage(temporaryFolder.newFolder("files").toString());
+        segmentStorage = new SegmentPhotoStorage(temporaryFolder.newFolder("segments").toString(),
+                1024 * 1024, 0.5, 1024);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        segmentStorage.destroy();
+    }
+
+    @Test
+    public void sweepSegmentStorage_thenDeleteUnreferencedContents() throws IOException {
+        String referenced = store(REFERENCED_CONTENT);
+        String orphaned = store(ORPHANED_CONTENT);
+        when(photoRepository.findReferencedChecksums(any())).thenReturn(Collections.singletonList(referenced));
+        when(photoRepository.countByChecksum(anyString())).thenReturn(0L);
+        when(photoRepository.countByChecksum(eq(referenced))).thenReturn(1L);
+
+        sweeper(0).sweep();
+
+        assertNotNull(segmentStorage.find(referenced));
+        assertNull(segmentStorage.find(orphaned));
+        assertEquals(1, meterRegistry.get("rest.photo.sweeper.deleted.contents").counter().count(), 0);
+        assertEquals(ORPHANED_CONTENT.length,
+                meterRegistry.get("rest.photo.sweeper.deleted.bytes").counter().count(), 0);
+    }
+
+    @Test
+    public void sweepSegmentStorage_thenKeepRecentlyStoredContents() throws IOException {
+        String orphaned = store(ORPHANED_CONTENT);
+        when(photoRepository.findReferencedChecksums(any())).thenReturn(Collections.emptyList());
+
+        sweeper(3600000).sweep();
+
+        assertNotNull(segmentStorage.find(orphaned));
+    }
+
+    private OrphanedPhotoSweeper sweeper(long minAgeMillis) {
+        return new OrphanedPhotoSweeper(photoRepository, segmentStorage, fileSystemStorage,
+                Optional.of(segmentStorage), meterRegistry, 100, 0, minAgeMillis, 0);
+    }
+
+    private String store(byte[] content) throws IOException {
+        StagedContent stagedContent = segmentStorage.stage(new ByteArrayInputStream(content), content.length);
+        segmentStorage.commit(stagedContent);
+        return stagedContent.getChecksum();
+    }
+}
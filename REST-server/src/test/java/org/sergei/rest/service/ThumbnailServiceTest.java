@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.service;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sergei.rest.service.storage.FilePhotoContent;
+import org.sergei.rest.service.storage.FileSystemPhotoStorage;
+import org.sergei.rest.service.storage.PhotoFile;
+import org.sergei.rest.service.storage.StagedContent;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test for {@link ThumbnailService}
+ *
+ * @author Sergei Visotsky
+ */
+public class ThumbnailServiceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<Runnable> queuedTasks = new ArrayList<>();
+    private Path storageDir;
+    private FileSystemPhotoStorage storage;
+    private ThumbnailService thumbnailService;
+
+    @Before
+    public void setUp() throws IOException {
+        storageDir = temporaryFolder.getRoot().toPath();
+        storage = new FileSystemPhotoStorage(storageDir.toString());
+        // Queued generations run only when the test says so
+        thumbnailService = new ThumbnailService(queuedTasks::add, storage, storage, Arrays.asList(64, 256),
+                50000000);
+    }
+
+    @Test
+    public void generateThumbnails_thenStoreThemNextToOriginal() throws IOException {
+        PhotoFile photoFile = store();
+
+        thumbnailService.generateAllAsync(photoFile);
+        queuedTasks.forEach(Runnable::run);
+
+        assertEquals(3, storedFiles());
+    }
+
+    @Test
+    public void generateThumbnailsFinishedAfterDeletion_thenLeaveNoThumbnails() throws IOException {
+        PhotoFile storedFile = store();
+        // Photo is deleted right after its original is read, while the thumbnail is being rendered
+        PhotoFile photoFile = new PhotoFile(new FilePhotoContent(storage.resolve(storedFile.getChecksum())) {
+            @Override
+            public InputStream openStream() throws IOException {
+                return new FilterInputStream(super.openStream()) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        delete(storedFile);
+                    }
+                };
+            }
+        }, storedFile.getFileName(), storedFile.getFileType(), storedFile.getChecksum());
+
+        thumbnailService.generateAllAsync(photoFile);
+        queuedTasks.get(0).run();
+
+        assertEquals(0, storedFiles());
+    }
+
+    private PhotoFile store() throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB), "png", content);
+        StagedContent stagedContent = storage.stage(new ByteArrayInputStream(content.toByteArray()), content.size());
+        storage.commit(stagedContent);
+        return new PhotoFile(storage.find(stagedContent.getChecksum()), "photo.png", "image/png",
+                stagedContent.getChecksum());
+    }
+
+    private void delete(PhotoFile photoFile) {
+        storage.withLock(photoFile.getChecksum(), () -> {
+            try {
+                storage.delete(photoFile.getChecksum());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            thumbnailService.deleteThumbnails(photoFile);
+            return null;
+        });
+    }
+
+    private long storedFiles() throws IOException {
+        try (Stream<Path> files = Files.walk(storageDir)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.service.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Test for {@link FilePhotoContent}
+ *
+ * @author Sergei Visotsky
+ */
+public class FilePhotoContentTest {
+
+    private static final byte[] CONTENT = "file photo".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void writeRange_thenGetRangeBytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        new FilePhotoContent(file()).writeTo(Channels.newChannel(out), 5, 5);
+
+        assertArrayEquals("photo".getBytes(StandardCharsets.UTF_8), out.toByteArray());
+    }
+
+    @Test(expected = EOFException.class, timeout = 10000)
+    public void writeRangeBeyondEndOfFile_thenThrowException() throws IOException {
+        new FilePhotoContent(file()).writeTo(Channels.newChannel(new ByteArrayOutputStream()), 5, 10);
+    }
+
+    private Path file() throws IOException {
+        Path file = temporaryFolder.newFile().toPath();
+        Files.write(file, CONTENT);
+        return file;
+    }
+}
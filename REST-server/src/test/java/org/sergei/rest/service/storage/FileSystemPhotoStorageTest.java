@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.service.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Test for {@link FileSystemPhotoStorage}
+ *
+ * @author Sergei Visotsky
+ */
+public class FileSystemPhotoStorageTest {
+
+    private static final byte[] CONTENT = "chunked photo".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void commitContentStagedOnAnotherFileSystem_thenCopyIt() throws IOException {
+        Path storageDir = temporaryFolder.newFolder("photos").toPath();
+        FileSystemPhotoStorage storage = new FileSystemPhotoStorage(storageDir.toString()) {
+            @Override
+            void move(Path source, Path target) throws IOException {
+                if (!source.startsWith(storageDir)) {
+                    throw new AtomicMoveNotSupportedException(source.toString(), target.toString(),
+                            "Different file system");
+                }
+                super.move(source, target);
+            }
+        };
+        Path partFile = temporaryFolder.newFile("upload.part").toPath();
+        Files.write(partFile, CONTENT);
+        StagedContent stagedContent = storage.stage(new ByteArrayInputStream(CONTENT), CONTENT.length);
+        storage.discard(stagedContent);
+        String checksum = stagedContent.getChecksum();
+
+        storage.commit(new StagedContent(partFile, checksum, CONTENT.length));
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(storage.resolve(checksum)));
+        assertFalse(Files.exists(partFile));
+        try (Stream<Path> files = Files.walk(storageDir)) {
+            assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+    }
+}
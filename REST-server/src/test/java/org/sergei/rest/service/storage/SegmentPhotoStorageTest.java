@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018-2019 the original author.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sergei.rest.service.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link SegmentPhotoStorage}
+ *
+ * @author Sergei Visotsky
+ */
+public class SegmentPhotoStorageTest {
+
+    private static final byte[] FIRST_CONTENT = "first segment photo".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SECOND_CONTENT = "second segment photo".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path segmentDir;
+    private SegmentPhotoStorage storage;
+
+    @Before
+    public void setUp() throws IOException {
+        segmentDir = temporaryFolder.getRoot().toPath();
+        storage = open();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        storage.destroy();
+    }
+
+    @Test
+    public void reopen_thenFindStoredContent() throws IOException {
+        String first = store(FIRST_CONTENT);
+        String second = store(SECOND_CONTENT);
+        storage.destroy();
+
+        storage = open();
+
+        assertArrayEquals(FIRST_CONTENT, read(first));
+        assertArrayEquals(SECOND_CONTENT, read(second));
+    }
+
+    @Test
+    public void reopenWithCorruptedLastRecord_thenDropIt() throws IOException {
+        String first = store(FIRST_CONTENT);
+        long firstRecordEnd = segmentSize();
+        String second = store(SECOND_CONTENT);
+        storage.destroy();
+        // Header is complete, but the content is not what was written
+        try (FileChannel channel = FileChannel.open(segmentFile(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0}), segmentSize() - 1);
+        }
+
+        storage = open();
+
+        assertArrayEquals(FIRST_CONTENT, read(first));
+        assertNull(storage.find(second));
+        assertEquals(firstRecordEnd, segmentSize());
+        assertArrayEquals(SECOND_CONTENT, read(store(SECOND_CONTENT)));
+    }
+
+    @Test
+    public void readRecordsOfMapWindows_thenGetTheirContent() throws IOException {
+        List<byte[]> contents = new ArrayList<>();
+        List<String> checksums = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            byte[] content = new byte[i * 17 + 1];
+            Arrays.fill(content, (byte) i);
+            contents.add(content);
+            checksums.add(store(content));
+            // Window of the latest records is still being appended to
+            assertArrayEquals(content, read(checksums.get(i)));
+        }
+
+        for (int i = 0; i < contents.size(); i++) {
+            assertArrayEquals(contents.get(i), read(checksums.get(i)));
+            assertArrayEquals(contents.get(i), read(checksums.get(i)));
+        }
+    }
+
+    @Test
+    public void readContentFoundBeforeCompaction_thenGetIt() throws IOException {
+        storage.destroy();
+        // First two photos share a segment, the third one starts the next
+        storage = open(160, 0.5);
+        String first = store(FIRST_CONTENT);
+        String second = store(SECOND_CONTENT);
+        store("third".getBytes(StandardCharsets.UTF_8));
+        PhotoContent foundBeforeCompaction = storage.find(first);
+        storage.delete(second);
+
+        storage.compact();
+
+        assertFalse(Files.exists(segmentFile()));
+        try (InputStream inputStream = foundBeforeCompaction.openStream()) {
+            assertArrayEquals(FIRST_CONTENT, StreamUtils.copyToByteArray(inputStream));
+        }
+        assertArrayEquals(FIRST_CONTENT, read(first));
+    }
+
+    @Test
+    public void reopenAfterSegmentDeleteFailedInCompaction_thenKeepDeletedRecordsDeleted() throws IOException {
+        storage.destroy();
+        storage = new SegmentPhotoStorage(segmentDir.toString(), 160, 0.5, 128) {
+            @Override
+            void deleteFile(Path file) throws IOException {
+                if (file.equals(segmentFile())) {
+                    throw new IOException("Segment is still mapped");
+                }
+                super.deleteFile(file);
+            }
+        };
+        String first = store(FIRST_CONTENT);
+        String second = store(SECOND_CONTENT);
+        store("third".getBytes(StandardCharsets.UTF_8));
+        storage.delete(second);
+
+        storage.compact();
+        storage.destroy();
+        storage = open(160, 0.5);
+
+        assertTrue(Files.exists(segmentFile()));
+        assertNull(storage.find(second));
+        assertArrayEquals(FIRST_CONTENT, read(first));
+    }
+
+    private SegmentPhotoStorage open() throws IOException {
+        return open(1024 * 1024, 0.5);
+    }
+
+    private SegmentPhotoStorage open(long maxSegmentSize, double compactionThreshold) throws IOException {
+        // Window holds just a few records, so they are read from windows and across their boundaries
+        return new SegmentPhotoStorage(segmentDir.toString(), maxSegmentSize, compactionThreshold, 128);
+    }
+
+    private String store(byte[] content) throws IOException {
+        StagedContent stagedContent = storage.stage(new ByteArrayInputStream(content), content.length);
+        storage.commit(stagedContent);
+        return stagedContent.getChecksum();
+    }
+
+    private byte[] read(String checksum) throws IOException {
+        try (InputStream inputStream = storage.find(checksum).openStream()) {
+            return StreamUtils.copyToByteArray(inputStream);
+        }
+    }
+
+    private Path segmentFile() {
+        return segmentDir.resolve("segment-0.dat");
+    }
+
+    private long segmentSize() throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile(), StandardOpenOption.READ)) {
+            return channel.size();
+        }
+    }
+}